@@ -16,7 +16,12 @@
 
 package jresp;
 
+import jresp.metrics.Metrics;
+import jresp.metrics.NoopMetrics;
+
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The owner of one-or-more connections.
@@ -28,6 +33,9 @@ public class Client {
 
     private String password;
     private Integer db;
+    private int protocol = 2;
+    private Metrics metrics = NoopMetrics.INSTANCE;
+    private Executor callbackExecutor;
 
     private final ConnectionGroup group;
 
@@ -47,10 +55,69 @@ public class Client {
         this.db = db;
     }
 
+    /**
+     * Request a specific version of RESP, either 2 (the default) or 3.  RESP3 is negotiated when each connection is
+     * started, connections will fallback to RESP2 if the server does not support it.
+     */
+    public void setProtocol(int protocol) {
+        if (protocol != 2 && protocol != 3) {
+            throw new IllegalArgumentException("Unsupported protocol version: " + protocol);
+        }
+        this.protocol = protocol;
+    }
+
+    /**
+     * Where measurements of connections opened from now on, and of the event loop, are sent.  By default they are
+     * discarded.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        group.setMetrics(metrics);
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Report a Stall to the metrics whenever the event loop thread has been busy, e.g. in a callback, for longer than
+     * this many milliseconds.  Zero (the default) turns this off.
+     */
+    public void setStallThreshold(long stallThreshold) {
+        group.setStallThreshold(TimeUnit.MILLISECONDS.toNanos(stallThreshold));
+    }
+
+    /**
+     * Run the callbacks of connections opened from now on using this executor, rather than on the event loop thread.
+     * Each connection's callbacks are still run one at a time, in order.  A slow callback then only delays its own
+     * connection, but there's no limit to the number of responses queued for the executor.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
     public Connection makeConnection() throws IOException {
+        return makeConnection(hostname, port);
+    }
+
+    /**
+     * A connection to a different Redis server, e.g. another node of the same cluster, with the same settings
+     */
+    public Connection makeConnection(String hostname, int port) throws IOException {
         Connection con = new Connection(hostname, port, group);
         con.setPassword(password);
         con.setDb(db);
+        con.setProtocol(protocol);
+        con.setMetrics(metrics);
+        con.setCallbackExecutor(callbackExecutor);
         return con;
     }
 
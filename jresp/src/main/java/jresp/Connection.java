@@ -16,18 +16,23 @@
 
 package jresp;
 
+import jresp.metrics.Metrics;
+import jresp.metrics.NoopMetrics;
 import jresp.protocol.*;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
@@ -51,6 +56,11 @@ public class Connection {
     private String password;
     private Integer db;
 
+    /**
+     * The RESP version, this is the version requested until the connection is started, then the version negotiated
+     */
+    private int protocol = 2;
+
     /**
      * The service thread
      */
@@ -82,6 +92,18 @@ public class Connection {
      */
     private ByteBuffer readBuffer = ByteBuffer.allocate(32000);  // 1460 - PACKET ESTIMATE
 
+    private Metrics metrics = NoopMetrics.INSTANCE;
+
+    /**
+     * If not null, callbacks are run here rather than on the event loop thread
+     */
+    private Executor callbackExecutor;
+
+    /**
+     * The command whose reply is currently being passed to a callback, if known, for the watchdog
+     */
+    private volatile RespType dispatching;
+
     /**
      * Has this been shutdown
      */
@@ -120,11 +142,25 @@ public class Connection {
     }
 
     /**
-     * If either/or database or password is specified, ensure they are used when creating connections
+     * If either/or database or password is specified, ensure they are used when creating connections.  If RESP3 has
+     * been requested this is negotiated first.
      */
     private void loginAndSelect() throws ConnectionException {
         try {
-            if (password != null) {
+            boolean authenticated = false;
+            if (protocol == 3) {
+                RespType response = (password == null) ?
+                        sendSync("HELLO", "3") :
+                        sendSync("HELLO", "3", "AUTH", "default", password);
+                if (response instanceof Dict) {
+                    authenticated = true;
+                } else {
+                    // Versions of Redis prior to 6 do not support RESP3, so continue with RESP2
+                    protocol = 2;
+                }
+            }
+
+            if (password != null && !authenticated) {
                 RespType response = sendSync("AUTH", password);
                 if (!response.equals(OK)) {
                     throw new ConnectionException("Invalid password: " + response);
@@ -150,11 +186,18 @@ public class Connection {
 
         loginAndSelect();
 
-        this.responses = responses;
+        if (callbackExecutor == null) {
+            this.responses = responses;
+        } else {
+            // Serially, so each connection's responses are still received in order
+            SerialExecutor serial = new SerialExecutor(callbackExecutor);
+            this.responses = resp -> serial.execute(() -> responses.responseReceived(resp));
+        }
     }
 
     void shutdown() throws IOException {
         shutdown = true;
+        metrics.connectionClosed(id);
 
         if (responses != null) {
             // Tell anything waiting that there will be no more data
@@ -173,19 +216,49 @@ public class Connection {
     }
 
     private void writeInterest(boolean on) {
-        int interestOps = selectionKey.interestOps();
-        boolean isOn = (interestOps & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE;
-
-        if (isOn && on) {
-            return;
-        } else if (isOn) {
-            selectionKey.interestOps(interestOps & ~SelectionKey.OP_WRITE);
-            selectionKey.selector().wakeup();
-        } else if (on) {
-            selectionKey.interestOps(interestOps | SelectionKey.OP_WRITE);
-            selectionKey.selector().wakeup();
-        } else {
-            return;
+        interest(SelectionKey.OP_WRITE, on);
+    }
+
+    /**
+     * Interest in reading and writing are changed from different threads, so each change is made under a lock
+     */
+    private void interest(int op, boolean on) {
+        synchronized (selectionKey) {
+            int interestOps = selectionKey.interestOps();
+            boolean isOn = (interestOps & op) == op;
+
+            if (isOn && on) {
+                return;
+            } else if (isOn) {
+                selectionKey.interestOps(interestOps & ~op);
+                selectionKey.selector().wakeup();
+            } else if (on) {
+                selectionKey.interestOps(interestOps | op);
+                selectionKey.selector().wakeup();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop reading from the socket, so a slow consumer pushes back on Redis rather than responses accumulating in
+     * memory.  Any responses already read are still delivered.  Redis buffers its output in the meantime, subject to
+     * its client-output-buffer-limit.
+     */
+    public void pauseReads() {
+        try {
+            interest(SelectionKey.OP_READ, false);
+        } catch (CancelledKeyException e) {
+            // Already closed
+        }
+    }
+
+    public void resumeReads() {
+        try {
+            interest(SelectionKey.OP_READ, true);
+        } catch (CancelledKeyException e) {
+            // Already closed
         }
     }
 
@@ -201,25 +274,54 @@ public class Connection {
         synchronized (outgoing) {
             outgoing.addAll(out);
             writeInterest(true);
+            metrics.outgoingDepth(id, outgoing.size());
+        }
+        metrics.commandsWritten(id, 1);
+    }
+
+    /**
+     * Write many messages at once, these are encoded contiguously and added to the outgoing buffer in one go, so won't
+     * be interleaved with messages written by other threads.
+     */
+    public void writeAll(Collection<RespType> messages) {
+        if (shutdown) {
+            throw new IllegalStateException("Connection has shutdown");
+        }
+
+        Deque<ByteBuffer> out = new ArrayDeque<>();
+
+        for (RespType message : messages) {
+            message.writeBytes(out);
+        }
+
+        synchronized (outgoing) {
+            outgoing.addAll(out);
+            writeInterest(true);
+            metrics.outgoingDepth(id, outgoing.size());
         }
+        metrics.commandsWritten(id, messages.size());
     }
 
     void writeTick() throws IOException {
-        ByteBuffer buff;
+        ByteBuffer[] buffs;
         synchronized (outgoing) {
-            buff = outgoing.pop();
-            if (buff == null) {
+            buffs = outgoing.popAll();
+            if (buffs == null) {
                 writeInterest(false);
                 return;
             }
         }
 
-        channel.write(buff);
+        long bytes = channel.write(buffs);
 
-        if (buff.hasRemaining()) {
-            // Data remaining, so putting at the front of the queue for the next time around
-            outgoing.addFirst(buff);
+        // Data remaining, so putting at the front of the queue for the next time around
+        for (int i = buffs.length - 1; i >= 0; i--) {
+            if (buffs[i].hasRemaining()) {
+                outgoing.addFirst(buffs[i]);
+            }
         }
+        metrics.bytesWritten(id, bytes);
+        metrics.outgoingDepth(id, outgoing.size());
     }
 
     void readTick() throws IOException {
@@ -229,6 +331,7 @@ public class Connection {
                 // This socket is closed, there will be no more data
                 shutdown();
             } else {
+                metrics.bytesRead(id, bytes);
                 readBuffer.flip();
                 decoder.decode(readBuffer, responses::responseReceived);
             }
@@ -237,10 +340,55 @@ public class Connection {
         }
     }
 
+    /**
+     * The number of replies read, or being read, so far; not counting RESP3 pushes
+     */
+    public long repliesRead() {
+        return decoder.replies();
+    }
+
+    /**
+     * Decode a reply with a ReplyDecoder, the reply is identified by its number, counting from repliesRead.  This must
+     * be called before the command is written.  The reply will be received as a Decoded, unless it's an error.
+     */
+    public void expect(long reply, ReplyDecoder<?> decoder) {
+        this.decoder.expect(reply, decoder);
+    }
+
     void reportException(Exception e) {
         responses.responseReceived(new ClientErr(e));
     }
 
+    void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Record the command whose reply is being passed to a callback, or null once the callback returns
+     */
+    public void dispatching(RespType command) {
+        this.dispatching = command;
+    }
+
+    RespType getDispatching() {
+        return dispatching;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * A unique number identifying this connection, e.g. in metrics
+     */
+    public int getId() {
+        return id;
+    }
+
     void setPassword(String password) {
         this.password = password;
     }
@@ -249,6 +397,17 @@ public class Connection {
         this.db = db;
     }
 
+    void setProtocol(int protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * The version of RESP in use, either 2 or 3.
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
     public boolean isShutdown() {
         return shutdown;
     }
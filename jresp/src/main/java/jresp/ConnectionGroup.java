@@ -16,6 +16,9 @@
 
 package jresp;
 
+import jresp.metrics.Metrics;
+import jresp.metrics.NoopMetrics;
+
 import java.io.IOException;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
@@ -31,6 +34,17 @@ public class ConnectionGroup extends Thread {
 
     private boolean shutdown = false;
 
+    private volatile Metrics metrics = NoopMetrics.INSTANCE;
+
+    /**
+     * When the current iteration of the loop started, zero if waiting in select, and the connection being served.
+     * These are sampled by the watchdog.
+     */
+    volatile long busySince = 0;
+    volatile Connection busyWith;
+
+    private Watchdog watchdog;
+
     ConnectionGroup() throws IOException {
         selector = Selector.open();
 
@@ -47,13 +61,37 @@ public class ConnectionGroup extends Thread {
         connections.remove(con.id);
     }
 
+    void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Start sampling the event loop, reporting when it has been busy for longer than the threshold.  Zero stops it.
+     */
+    synchronized void setStallThreshold(long thresholdNanos) {
+        if (watchdog != null) {
+            watchdog.shutdown();
+            watchdog = null;
+        }
+        if (thresholdNanos > 0) {
+            watchdog = new Watchdog(this, thresholdNanos);
+        }
+    }
+
     public void run() {
         while (!shutdown) {
             try {
                 selector.select(100);
                 Set<SelectionKey> keys = selector.selectedKeys();
+                long start = keys.isEmpty() ? 0 : System.nanoTime();
+                busySince = start;
                 for (SelectionKey key : keys) {
                     Connection connection = connections.get(key.attachment());
+                    busyWith = connection;
                     try {
                         if (key.isReadable()) {
                             connection.readTick();
@@ -69,6 +107,11 @@ public class ConnectionGroup extends Thread {
                         connection.stop();
                     }
                 }
+                busyWith = null;
+                busySince = 0;
+                if (start != 0) {
+                    metrics.loopIteration(System.nanoTime() - start);
+                }
             } catch (IOException e) {
                 shutdownBecause(e);
             }
@@ -95,6 +138,7 @@ public class ConnectionGroup extends Thread {
 
     public void shutdown() {
         shutdown = true;
+        setStallThreshold(0);
         List<Exception> failures = new ArrayList<>();
 
         connections.values().forEach(con -> {
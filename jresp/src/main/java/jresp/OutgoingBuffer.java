@@ -22,6 +22,11 @@ import java.util.*;
 class OutgoingBuffer {
     private static final int MAX_MERGED_BUFFER_SIZE = 1460;
 
+    /**
+     * The most buffers written by a single gathering write
+     */
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
     private final Deque<ByteBuffer> buffer = new ArrayDeque<>();
 
     private ByteBuffer current;
@@ -81,25 +86,44 @@ class OutgoingBuffer {
         }
     }
 
+    /**
+     * The number of buffers waiting to be written
+     */
+    public int size() {
+        synchronized (this) {
+            return buffer.size() + (current == null ? 0 : 1);
+        }
+    }
+
     public void addFirst(ByteBuffer bb) {
         synchronized (this) {
             buffer.addFirst(bb);
         }
     }
 
-    public ByteBuffer pop() {
-        ByteBuffer bb = null;
-
+    /**
+     * Removes as many buffers as can be written with one gathering write, or null if there's nothing to write
+     */
+    public ByteBuffer[] popAll() {
         synchronized (this) {
-            if (buffer.isEmpty() && current != null) {
-                bb = current;
+            int count = Math.min(buffer.size(), MAX_GATHERED_BUFFERS);
+            // The buffer currently being merged into is only included once all the others have been written
+            boolean includeCurrent = count == buffer.size() && count < MAX_GATHERED_BUFFERS && current != null;
+            if (count == 0 && !includeCurrent) {
+                return null;
+            }
+
+            ByteBuffer[] bbs = new ByteBuffer[includeCurrent ? count + 1 : count];
+            for (int i = 0; i < count; i++) {
+                bbs[i] = buffer.pop();
+            }
+            if (includeCurrent) {
+                bbs[count] = current;
                 current = null;
-                bb.flip();
-            } else if (!buffer.isEmpty()) {
-                bb = buffer.pop();
+                bbs[count].flip();
             }
-        }
 
-        return bb;
+            return bbs;
+        }
     }
 }
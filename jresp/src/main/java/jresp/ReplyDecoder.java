@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp;
+
+import jresp.protocol.RespType;
+
+/**
+ * Decodes a reply directly from the bytes read, rather than building a tree of RespType objects to be converted
+ * afterwards.  See SingleCommandConnection.write, and ReplyDecoders for common implementations.
+ *
+ * Decoders are called on the thread that reads from the connection, in the order the reply is read, and so should
+ * neither block nor throw.  Error replies are never decoded, they are always returned as an Err.
+ */
+public interface ReplyDecoder<T> {
+    enum Kind {
+        ARRAY, SET, MAP
+    }
+
+    /**
+     * A bulk string, the array is only valid for the duration of the call
+     */
+    T bulkStr(byte[] bytes, int offset, int length);
+
+    T simpleStr(String value);
+
+    T integer(long value);
+
+    /**
+     * A null bulk string or array, or the RESP3 null
+     */
+    T nullReply();
+
+    /**
+     * Any other reply, e.g. a RESP3 double or a nested error, or an aggregate this decoder doesn't handle, as a
+     * RespType
+     */
+    T other(RespType value);
+
+    /**
+     * Start an aggregate reply, the length being the number of elements that follow (for a map, twice the number of
+     * entries: each key followed by its value).  Returns null if this decoder doesn't handle aggregates.
+     */
+    default Aggregate<T> aggregate(Kind kind, int length) {
+        return null;
+    }
+
+    interface Aggregate<T> {
+        /**
+         * The decoder for each element
+         */
+        ReplyDecoder<?> elements();
+
+        void add(Object element);
+
+        T finish();
+    }
+}
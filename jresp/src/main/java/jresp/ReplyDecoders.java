@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp;
+
+import jresp.protocol.RespType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReplyDecoders for common types of reply
+ */
+public final class ReplyDecoders {
+    private ReplyDecoders() {
+    }
+
+    /**
+     * Strings, and integers as their decimal representation
+     */
+    public static final ReplyDecoder<String> STRING = new ReplyDecoder<String>() {
+        @Override
+        public String bulkStr(byte[] bytes, int offset, int length) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String simpleStr(String value) {
+            return value;
+        }
+
+        @Override
+        public String integer(long value) {
+            return Long.toString(value);
+        }
+
+        @Override
+        public String nullReply() {
+            return null;
+        }
+
+        @Override
+        public String other(RespType value) {
+            Object unwrapped = value.unwrap();
+            return unwrapped == null ? null : unwrapped.toString();
+        }
+    };
+
+    /**
+     * Integers, and strings containing integers (e.g. the value of a counter), which are parsed without creating a
+     * String.  Null for anything else.
+     */
+    public static final ReplyDecoder<Long> LONG = new ReplyDecoder<Long>() {
+        @Override
+        public Long bulkStr(byte[] bytes, int offset, int length) {
+            return parseLong(bytes, offset, length);
+        }
+
+        @Override
+        public Long simpleStr(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            return parseLong(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public Long integer(long value) {
+            return value;
+        }
+
+        @Override
+        public Long nullReply() {
+            return null;
+        }
+
+        @Override
+        public Long other(RespType value) {
+            Object unwrapped = value.unwrap();
+            return unwrapped instanceof Number ? ((Number) unwrapped).longValue() : null;
+        }
+    };
+
+    /**
+     * Bulk strings as a copy of their bytes, other strings as UTF-8
+     */
+    public static final ReplyDecoder<byte[]> BYTES = new ReplyDecoder<byte[]>() {
+        @Override
+        public byte[] bulkStr(byte[] bytes, int offset, int length) {
+            return Arrays.copyOfRange(bytes, offset, offset + length);
+        }
+
+        @Override
+        public byte[] simpleStr(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] integer(long value) {
+            return Long.toString(value).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] nullReply() {
+            return null;
+        }
+
+        @Override
+        public byte[] other(RespType value) {
+            String s = STRING.other(value);
+            return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * A list of strings, e.g. the reply to LRANGE or SMEMBERS
+     */
+    public static final ReplyDecoder<List<String>> STRING_LIST = new AggregateDecoder<List<String>>() {
+        @Override
+        public Aggregate<List<String>> aggregate(Kind kind, int length) {
+            List<String> list = new ArrayList<>(length);
+            return new Aggregate<List<String>>() {
+                @Override
+                public ReplyDecoder<?> elements() {
+                    return STRING;
+                }
+
+                @Override
+                public void add(Object element) {
+                    list.add((String) element);
+                }
+
+                @Override
+                public List<String> finish() {
+                    return list;
+                }
+            };
+        }
+    };
+
+    /**
+     * A map of strings to strings, e.g. the reply to HGETALL.  This may be either a RESP3 map, or (with RESP2) an array
+     * of alternating keys and values.
+     */
+    public static final ReplyDecoder<Map<String, String>> STRING_MAP = new AggregateDecoder<Map<String, String>>() {
+        @Override
+        public Aggregate<Map<String, String>> aggregate(Kind kind, int length) {
+            Map<String, String> map = new HashMap<>(length);
+            return new Aggregate<Map<String, String>>() {
+                private String key;
+
+                @Override
+                public ReplyDecoder<?> elements() {
+                    return STRING;
+                }
+
+                @Override
+                public void add(Object element) {
+                    if (key == null) {
+                        key = (String) element;
+                    } else {
+                        map.put(key, (String) element);
+                        key = null;
+                    }
+                }
+
+                @Override
+                public Map<String, String> finish() {
+                    return map;
+                }
+            };
+        }
+    };
+
+    /**
+     * Parses a decimal integer, or returns null if it isn't one
+     */
+    static Long parseLong(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return null;
+        }
+        int i = offset;
+        int end = offset + length;
+        boolean negative = bytes[i] == '-';
+        if (negative && ++i == end) {
+            return null;
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return null;
+            }
+            // Accumulated negatively, as Long.MIN_VALUE has no positive equivalent
+            if (result < Long.MIN_VALUE / 10) {
+                return null;
+            }
+            result *= 10;
+            if (result < Long.MIN_VALUE + digit) {
+                return null;
+            }
+            result -= digit;
+        }
+        if (negative) {
+            return result;
+        } else {
+            return result == Long.MIN_VALUE ? null : -result;
+        }
+    }
+
+    /**
+     * A decoder for replies that are expected to be aggregates, anything else is null
+     */
+    private abstract static class AggregateDecoder<T> implements ReplyDecoder<T> {
+        @Override
+        public T bulkStr(byte[] bytes, int offset, int length) {
+            return null;
+        }
+
+        @Override
+        public T simpleStr(String value) {
+            return null;
+        }
+
+        @Override
+        public T integer(long value) {
+            return null;
+        }
+
+        @Override
+        public T nullReply() {
+            return null;
+        }
+
+        @Override
+        public T other(RespType value) {
+            return null;
+        }
+
+        @Override
+        public abstract Aggregate<T> aggregate(Kind kind, int length);
+    }
+}
@@ -20,6 +20,8 @@ import jresp.protocol.RespType;
 import jresp.state.*;
 
 import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 public class RespDecoder {
@@ -29,10 +31,31 @@ public class RespDecoder {
     private IntState intDecoder = new IntState();
     private BulkStrState bulkStrDecoder;
 
+    // RESP3 types
+    private DblState dblDecoder = new DblState();
+    private BoolState boolDecoder = new BoolState();
+    private NullState nullDecoder = new NullState();
+    private BigNumState bigNumDecoder = new BigNumState();
+    private VerbatimStrState verbatimStrDecoder;
+    private BlobErrState blobErrDecoder;
+
     private State state = null;
 
+    /**
+     * Replies to be decoded by a ReplyDecoder, in the order they'll be read
+     */
+    private final Queue<Expected> expected = new ConcurrentLinkedQueue<>();
+    private final TypedScalarState typedScalarDecoder = new TypedScalarState();
+
+    /**
+     * The number of replies, other than RESP3 pushes, that have been started
+     */
+    private volatile long replies = 0;
+
     RespDecoder() {
         bulkStrDecoder = new BulkStrState(this);
+        verbatimStrDecoder = new VerbatimStrState(this);
+        blobErrDecoder = new BlobErrState(this);
     }
 
     protected void decode(ByteBuffer in, Consumer<RespType> out) {
@@ -50,7 +73,7 @@ public class RespDecoder {
                 // There is no current state, so read the next byte
                 //
                 char nextChar = (char) in.get();
-                state = nextState(nextChar);
+                state = nextChar == '>' ? nextState(nextChar) : nextReply(nextChar);
             }
             if (state.decode(in)) {
                 out.accept(state.finish());
@@ -64,6 +87,30 @@ public class RespDecoder {
         }
     }
 
+    private State nextReply(char token) {
+        long reply = ++replies;
+        Expected next = expected.peek();
+        if (next != null && next.reply == reply) {
+            expected.poll();
+            if (token != '-' && token != '!') {
+                return TypedState.of(this, token, next.decoder, typedScalarDecoder);
+            }
+        }
+        return nextState(token);
+    }
+
+    /**
+     * Decode the reply with the given number with a ReplyDecoder.  Must be called before the reply could be read, and
+     * in order.
+     */
+    void expect(long reply, ReplyDecoder<?> decoder) {
+        expected.add(new Expected(reply, decoder));
+    }
+
+    long replies() {
+        return replies;
+    }
+
     public State nextState(char token) {
         switch (token) {
             case '+':
@@ -76,6 +123,24 @@ public class RespDecoder {
                 return bulkStrDecoder.reset();
             case '*':
                 return new AryState(this);
+            case '%':
+                return new DictState(this);
+            case '~':
+                return new SetAryState(this);
+            case '>':
+                return new PushState(this);
+            case ',':
+                return dblDecoder.reset();
+            case '#':
+                return boolDecoder.reset();
+            case '_':
+                return nullDecoder.reset();
+            case '(':
+                return bigNumDecoder.reset();
+            case '=':
+                return verbatimStrDecoder.reset();
+            case '!':
+                return blobErrDecoder.reset();
             default:
                 throw new IllegalStateException(String.format("Unknown token %s", token));
         }
@@ -84,5 +149,14 @@ public class RespDecoder {
     public IntState intDecoder() {
         return (IntState)intDecoder.reset();
     }
-}
 
+    private static class Expected {
+        private final long reply;
+        private final ReplyDecoder<?> decoder;
+
+        Expected(long reply, ReplyDecoder<?> decoder) {
+            this.reply = reply;
+            this.decoder = decoder;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp;
+
+import jresp.metrics.Stall;
+import jresp.protocol.RespType;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples a connection group's event loop, reporting a Stall to its metrics when one iteration of the loop has taken
+ * longer than the threshold.  This is typically a callback that blocks, which holds-up every connection in the group.
+ * Each stall is reported once, while it is still in progress, so the sampled stack shows the cause.
+ */
+class Watchdog {
+    private static int threadId = 1;
+
+    private final ConnectionGroup group;
+
+    private final long threshold;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * The start of the iteration most recently reported
+     */
+    private long reported = 0;
+
+    Watchdog(ConnectionGroup group, long threshold) {
+        this.group = group;
+        this.threshold = threshold;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, String.format("ConnectionGroup-watchdog-%d", threadId++));
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(threshold / 4, TimeUnit.MILLISECONDS.toNanos(1));
+        executor.scheduleAtFixedRate(this::check, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    private void check() {
+        long since = group.busySince;
+        if (since == 0 || since == reported) {
+            return;
+        }
+        long busy = System.nanoTime() - since;
+        if (busy < threshold) {
+            return;
+        }
+
+        Connection connection = group.busyWith;
+        RespType command = (connection == null) ? null : connection.getDispatching();
+        StackTraceElement[] stack = group.getStackTrace();
+        if (group.busySince != since) {
+            // It finished in the meantime, so the stack may be of something else
+            return;
+        }
+
+        reported = since;
+        group.getMetrics().stall(new Stall(connection == null ? -1 : connection.getId(), command, busy, stack));
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+import jresp.ConnectionException;
+import jresp.pool.CommandException;
+import jresp.pool.Pool;
+import jresp.pool.SingleCommandConnection;
+import jresp.protocol.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An asynchronous facade over a pool for Java applications: single replies as CompletableFutures, and streams of
+ * replies as Publishers that only read from Redis as fast as their subscribers request.
+ *
+ * Futures are completed, and subscribers called, on the thread serving the pool's connections (or the pool's callback
+ * executor if it has one), so they should not block.
+ */
+public class AsyncClient {
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final SimpleStr OK = new SimpleStr("OK");
+
+    private static final BulkStr MONITOR = new BulkStr("MONITOR");
+    private static final BulkStr SUBSCRIBE = new BulkStr("SUBSCRIBE");
+    private static final BulkStr PSUBSCRIBE = new BulkStr("PSUBSCRIBE");
+    private static final BulkStr MESSAGE = new BulkStr("message");
+    private static final BulkStr PMESSAGE = new BulkStr("pmessage");
+
+    private final Pool pool;
+
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public AsyncClient(Pool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * How many messages a pub-sub or MONITOR publisher buffers for a slow subscriber, before it stops reading from its
+     * connection
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Send a command via the pool's shared connection.  An error reply completes the future exceptionally with a
+     * CommandException, a failed connection with a ConnectionException.
+     */
+    public CompletableFuture<RespType> send(RespType command) {
+        CompletableFuture<RespType> future = new CompletableFuture<>();
+        try {
+            pool.getShared().write(command, resp -> {
+                Throwable error = error(resp);
+                if (error == null) {
+                    future.complete(resp);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            });
+        } catch (IOException | ConnectionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<RespType> send(String command, String... args) {
+        return send(command(BulkStr.get(command), args));
+    }
+
+    /**
+     * Each subscriber receives the commands processed by Redis, as reported by MONITOR on a connection of its own.  The
+     * initial OK is skipped.
+     */
+    public Publisher<RespType> monitor() {
+        return subscriber -> new PushEmitter(subscriber, bufferSize, AsyncClient::isMonitored)
+                .start(pool, new Ary(MONITOR));
+    }
+
+    /**
+     * Each subscriber receives messages published to these channels, each a [message, channel, payload] array, on a
+     * connection of its own
+     */
+    public Publisher<RespType> subscribe(String... channels) {
+        return subscriber -> new PushEmitter(subscriber, bufferSize, resp -> isType(resp, MESSAGE))
+                .start(pool, command(SUBSCRIBE, channels));
+    }
+
+    /**
+     * As subscribe, but for channels matching the patterns, each message is a [pmessage, pattern, channel, payload]
+     * array
+     */
+    public Publisher<RespType> psubscribe(String... patterns) {
+        return subscriber -> new PushEmitter(subscriber, bufferSize, resp -> isType(resp, PMESSAGE))
+                .start(pool, command(PSUBSCRIBE, patterns));
+    }
+
+    /**
+     * The elements returned by a cursor-based command, each page is fetched only once the previous one has been
+     * consumed.
+     *
+     * @param command the command and any arguments that come before the cursor, e.g. [HSCAN, key]
+     * @param options any arguments that come after the cursor, e.g. [COUNT, 1000]
+     */
+    public Publisher<RespType> scan(List<RespType> command, List<RespType> options) {
+        return subscriber -> {
+            SingleCommandConnection connection;
+            try {
+                connection = pool.getShared();
+            } catch (IOException | ConnectionException e) {
+                failed(subscriber, e);
+                return;
+            }
+            new ScanEmitter(subscriber, connection, command, options).subscribed();
+        };
+    }
+
+    public Publisher<RespType> scan(String... command) {
+        RespType[] ary = new RespType[command.length];
+        for (int i = 0; i < command.length; i++) {
+            ary[i] = i == 0 ? BulkStr.get(command[i]) : new BulkStr(command[i]);
+        }
+        return scan(Arrays.asList(ary), Collections.emptyList());
+    }
+
+    /**
+     * The entries of a stream, read by a consumer in a consumer group, up to count at a time.  The consumer's pending
+     * entries are read first.  Each subscriber has a connection of its own, that is blocked while waiting for new
+     * entries.  The entries must be acknowledged with XACK.
+     */
+    public Publisher<RespType> xreadgroup(String group, String consumer, String stream, int count) {
+        return subscriber -> {
+            SingleCommandConnection connection;
+            try {
+                connection = new SingleCommandConnection(pool.getDedicated());
+            } catch (IOException | ConnectionException e) {
+                failed(subscriber, e);
+                return;
+            }
+            new StreamEmitter(subscriber, connection, group, consumer, stream, count).subscribed();
+        };
+    }
+
+    /**
+     * The exception an error reply corresponds to, if any
+     */
+    static Throwable error(RespType resp) {
+        if (resp instanceof Err) {
+            return new CommandException((String) resp.unwrap());
+        } else if (resp instanceof EndOfResponses) {
+            return new ConnectionException("Connection closed");
+        } else if (resp instanceof ClientErr) {
+            return (Throwable) resp.unwrap();
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean isMonitored(RespType resp) {
+        return resp instanceof SimpleStr && !OK.equals(resp);
+    }
+
+    private static boolean isType(RespType resp, BulkStr type) {
+        return resp instanceof Ary && type.equals(((Ary) resp).raw().get(0));
+    }
+
+    private static Ary command(BulkStr name, String... args) {
+        RespType[] ary = new RespType[args.length + 1];
+        ary[0] = name;
+        for (int i = 0; i < args.length; i++) {
+            ary[i + 1] = new BulkStr(args[i]);
+        }
+        return new Ary(ary);
+    }
+
+    private static void failed(Subscriber<? super RespType> subscriber, Exception e) {
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(e);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers items until they are requested, and passes them to a subscriber one at a time, from whichever thread
+ * happens to be adding items or requesting them.
+ *
+ * Subclasses decide where the items come from, and are told when the buffer fills and after each time it's drained.
+ */
+abstract class Emitter<T> implements Subscription {
+    private final Subscriber<? super T> subscriber;
+
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong demand = new AtomicLong();
+
+    /**
+     * Counts requests to drain, only the thread that increments it from zero does so, any others mean it loops again
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+    private volatile Throwable error;
+
+    /**
+     * Only accessed while draining
+     */
+    private boolean terminated = false;
+
+    Emitter(Subscriber<? super T> subscriber) {
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * The buffer has reached its limit
+     */
+    abstract void full();
+
+    /**
+     * Items may have been taken from the buffer, or more requested
+     */
+    abstract void drained();
+
+    /**
+     * Release any resources, the subscriber has cancelled or the stream has ended.  Called once.
+     */
+    abstract void close();
+
+    /**
+     * Hand this subscription to the subscriber, this must happen before anything else is sent to it
+     */
+    void subscribed() {
+        subscriber.onSubscribe(this);
+    }
+
+    void emit(T item) {
+        queue.add(item);
+        if (queued.incrementAndGet() >= limit()) {
+            full();
+        }
+        drain();
+    }
+
+    void complete() {
+        done = true;
+        drain();
+    }
+
+    void fail(Throwable t) {
+        error = t;
+        done = true;
+        drain();
+    }
+
+    /**
+     * The number of items to buffer before full() is called
+     */
+    int limit() {
+        return Integer.MAX_VALUE;
+    }
+
+    int queued() {
+        return queued.get();
+    }
+
+    long demand() {
+        return demand.get();
+    }
+
+    boolean isFinished() {
+        return cancelled || done;
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            fail(new IllegalArgumentException("Requests must be positive, was: " + n));
+            return;
+        }
+        demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            queue.clear();
+            closeOnce();
+        }
+    }
+
+    private void closeOnce() {
+        if (closed.compareAndSet(false, true)) {
+            close();
+        }
+    }
+
+    void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!cancelled && !terminated) {
+                T next;
+                if (demand.get() > 0 && (next = queue.poll()) != null) {
+                    queued.decrementAndGet();
+                    demand.decrementAndGet();
+                    subscriber.onNext(next);
+                } else if (done && (error != null || queue.isEmpty())) {
+                    terminated = true;
+                    queue.clear();
+                    closeOnce();
+                    if (error == null) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(error);
+                    }
+                } else {
+                    break;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+
+        if (!cancelled && !done) {
+            drained();
+        }
+    }
+}
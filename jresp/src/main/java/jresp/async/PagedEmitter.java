@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+import jresp.protocol.RespType;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Emits items fetched a page at a time, e.g. by SCAN.  The next page is only fetched when the previous one has been
+ * taken and more items are wanted, so a slow subscriber means nothing more is read from Redis.
+ */
+abstract class PagedEmitter extends Emitter<RespType> {
+    private final AtomicBoolean fetching = new AtomicBoolean();
+
+    PagedEmitter(Subscriber<? super RespType> subscriber) {
+        super(subscriber);
+    }
+
+    /**
+     * Request the next page, which must eventually be passed to page (or the failure to fail)
+     */
+    abstract void fetch();
+
+    void page(List<RespType> items, boolean last) {
+        for (RespType item : items) {
+            emit(item);
+        }
+        if (last) {
+            complete();
+        } else {
+            fetching.set(false);
+            drain();
+        }
+    }
+
+    @Override
+    void full() {
+        // Nothing more is fetched until the buffer is empty
+    }
+
+    @Override
+    void drained() {
+        if (queued() == 0 && demand() > 0 && fetching.compareAndSet(false, true)) {
+            fetch();
+        }
+    }
+}
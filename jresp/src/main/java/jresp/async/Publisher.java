@@ -0,0 +1,30 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+/**
+ * A source of replies that are only sent as they are requested.  This has the same shape as
+ * java.util.concurrent.Flow.Publisher, and the Reactive Streams interface, so either can be adapted with a lambda; it
+ * is defined here as JRESP still supports Java 8.
+ *
+ * Each call to subscribe starts a new, independent stream.
+ */
+@FunctionalInterface
+public interface Publisher<T> {
+    void subscribe(Subscriber<? super T> subscriber);
+}
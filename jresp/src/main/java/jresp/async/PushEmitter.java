@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+import jresp.Connection;
+import jresp.ConnectionException;
+import jresp.pool.Pool;
+import jresp.protocol.RespType;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Emits the replies Redis pushes to a dedicated connection, e.g. after MONITOR or SUBSCRIBE.  When the buffer is full
+ * reads from the connection are paused, and resumed once the subscriber has taken half of it.
+ */
+class PushEmitter extends Emitter<RespType> {
+    private final int limit;
+
+    /**
+     * Which replies are items, as opposed to e.g. confirmation of a subscription
+     */
+    private final Predicate<RespType> isItem;
+
+    private Connection connection;
+
+    private boolean paused = false;
+
+    PushEmitter(Subscriber<? super RespType> subscriber, int limit, Predicate<RespType> isItem) {
+        super(subscriber);
+        this.limit = limit;
+        this.isItem = isItem;
+    }
+
+    void start(Pool pool, RespType command) {
+        try {
+            connection = pool.getDedicated();
+            connection.start(this::received);
+        } catch (IOException | ConnectionException e) {
+            subscribed();
+            fail(e);
+            return;
+        }
+        subscribed();
+        connection.write(command);
+    }
+
+    private void received(RespType resp) {
+        if (isFinished()) {
+            return;
+        }
+        Throwable error = AsyncClient.error(resp);
+        if (error != null) {
+            fail(error);
+        } else if (isItem.test(resp)) {
+            emit(resp);
+        }
+    }
+
+    @Override
+    int limit() {
+        return limit;
+    }
+
+    @Override
+    synchronized void full() {
+        if (!paused) {
+            paused = true;
+            connection.pauseReads();
+        }
+    }
+
+    @Override
+    synchronized void drained() {
+        if (paused && queued() <= limit / 2) {
+            paused = false;
+            connection.resumeReads();
+        }
+    }
+
+    @Override
+    void close() {
+        if (connection != null) {
+            try {
+                connection.stop();
+            } catch (IOException e) {
+                // It's being discarded anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+import jresp.pool.SingleCommandConnection;
+import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
+import jresp.protocol.RespType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Emits the elements returned by SCAN, SSCAN, HSCAN or ZSCAN.  For HSCAN and ZSCAN these alternate between field (or
+ * member) and value (or score), as with ScanIterator.
+ */
+class ScanEmitter extends PagedEmitter {
+    private static final BulkStr START = new BulkStr("0");
+
+    private final SingleCommandConnection connection;
+    private final List<RespType> command;
+    private final List<RespType> options;
+
+    private volatile RespType cursor = START;
+
+    ScanEmitter(Subscriber<? super RespType> subscriber, SingleCommandConnection connection, List<RespType> command,
+                List<RespType> options) {
+        super(subscriber);
+        this.connection = connection;
+        this.command = command;
+        this.options = options;
+    }
+
+    @Override
+    void fetch() {
+        List<RespType> ary = new ArrayList<>(command.size() + 1 + options.size());
+        ary.addAll(command);
+        ary.add(cursor);
+        ary.addAll(options);
+        connection.write(new Ary(ary), resp -> {
+            Throwable error = AsyncClient.error(resp);
+            if (error != null) {
+                fail(error);
+            } else {
+                List<RespType> reply = ((Ary) resp).raw();
+                cursor = reply.get(0);
+                page(((Ary) reply.get(1)).raw(), cursor.equals(START));
+            }
+        });
+    }
+
+    @Override
+    void close() {
+        // The connection is shared, and any page in-flight is ignored
+    }
+}
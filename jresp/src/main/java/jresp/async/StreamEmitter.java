@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+import jresp.pool.SingleCommandConnection;
+import jresp.protocol.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits the entries of a stream read by a member of a consumer group, each an [id, [field, value, ...]] pair.  First
+ * the consumer's pending entries, then new entries as they arrive, blocking a dedicated connection while waiting.
+ */
+class StreamEmitter extends PagedEmitter {
+    private static final BulkStr XREADGROUP = new BulkStr("XREADGROUP");
+    private static final BulkStr GROUP = new BulkStr("GROUP");
+    private static final BulkStr COUNT = new BulkStr("COUNT");
+    private static final BulkStr BLOCK = new BulkStr("BLOCK");
+    private static final BulkStr STREAMS = new BulkStr("STREAMS");
+    private static final BulkStr HISTORY = new BulkStr("0");
+    private static final BulkStr NEW = new BulkStr(">");
+    private static final BulkStr FOREVER = new BulkStr("0");
+
+    private final SingleCommandConnection connection;
+    private final RespType group;
+    private final RespType consumer;
+    private final RespType stream;
+    private final RespType count;
+
+    /**
+     * Where the next page is read from: after the last pending entry delivered, or NEW once there are none left
+     */
+    private volatile RespType from = HISTORY;
+
+    StreamEmitter(Subscriber<? super RespType> subscriber, SingleCommandConnection connection, String group,
+                  String consumer, String stream, int count) {
+        super(subscriber);
+        this.connection = connection;
+        this.group = new BulkStr(group);
+        this.consumer = new BulkStr(consumer);
+        this.stream = new BulkStr(stream);
+        this.count = new BulkStr(Integer.toString(count));
+    }
+
+    @Override
+    void fetch() {
+        RespType id = from;
+        connection.write(new Ary(XREADGROUP, GROUP, group, consumer, COUNT, count, BLOCK, FOREVER, STREAMS, stream, id),
+                resp -> {
+                    Throwable error = AsyncClient.error(resp);
+                    if (error != null) {
+                        fail(error);
+                    } else {
+                        List<RespType> entries = entries(resp);
+                        if (id != NEW) {
+                            // Pending entries stay pending until acknowledged, so continue after the last one
+                            from = entries.isEmpty() ? NEW : ((Ary) entries.get(entries.size() - 1)).raw().get(0);
+                        }
+                        page(entries, false);
+                    }
+                });
+    }
+
+    /**
+     * The reply is a list of [stream, entries] pairs with RESP2, or a map of stream to entries with RESP3
+     */
+    private static List<RespType> entries(RespType resp) {
+        Collection<RespType> streams;
+        if (resp instanceof Dict) {
+            streams = ((Dict) resp).raw().values();
+        } else if (resp instanceof Ary) {
+            List<RespType> pairs = ((Ary) resp).raw();
+            streams = new ArrayList<>(pairs.size());
+            for (RespType pair : pairs) {
+                streams.add(((Ary) pair).raw().get(1));
+            }
+        } else {
+            return Collections.emptyList();
+        }
+        List<RespType> entries = new ArrayList<>();
+        for (RespType s : streams) {
+            entries.addAll(((Ary) s).raw());
+        }
+        return entries;
+    }
+
+    @Override
+    void close() {
+        try {
+            connection.stop();
+        } catch (IOException e) {
+            // It's being discarded anyway
+        }
+    }
+}
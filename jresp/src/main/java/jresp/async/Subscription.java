@@ -0,0 +1,30 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+public interface Subscription {
+    /**
+     * Ask for up to n more items, Long.MAX_VALUE for an unbounded stream
+     */
+    void request(long n);
+
+    /**
+     * No more items are wanted, anything buffered is discarded and the underlying connection released
+     */
+    void cancel();
+}
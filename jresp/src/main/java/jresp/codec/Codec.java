@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.codec;
+
+import jresp.protocol.BulkStr;
+import jresp.protocol.RespType;
+
+/**
+ * Converts values to and from the bytes stored in Redis, so they can be written and read without going via a String
+ */
+public interface Codec<T> {
+    byte[] encode(T value);
+
+    /**
+     * The array is only valid for the duration of the call
+     */
+    T decode(byte[] bytes, int offset, int length);
+
+    /**
+     * The value as an argument to a command
+     */
+    default RespType toResp(T value) {
+        return new BulkStr(encode(value));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.codec;
+
+import jresp.ReplyDecoder;
+import jresp.protocol.RespType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Standard codecs, and a ReplyDecoder for any codec
+ */
+public final class Codecs {
+    private Codecs() {
+    }
+
+    /**
+     * Values are the bytes themselves
+     */
+    public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] bytes, int offset, int length) {
+            return Arrays.copyOfRange(bytes, offset, offset + length);
+        }
+    };
+
+    public static final Codec<String> UTF8 = new Codec<String>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes, int offset, int length) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * A ReplyDecoder that decodes each bulk string in a reply with the codec.  Arrays, sets and maps are decoded as
+     * Lists, Sets and Maps.
+     */
+    public static ReplyDecoder<Object> decoder(Codec<?> codec) {
+        return new ReplyDecoder<Object>() {
+            @Override
+            public Object bulkStr(byte[] bytes, int offset, int length) {
+                return codec.decode(bytes, offset, length);
+            }
+
+            @Override
+            public Object simpleStr(String value) {
+                return value;
+            }
+
+            @Override
+            public Object integer(long value) {
+                return value;
+            }
+
+            @Override
+            public Object nullReply() {
+                return null;
+            }
+
+            @Override
+            public Object other(RespType value) {
+                return value.unwrap();
+            }
+
+            @Override
+            public Aggregate<Object> aggregate(Kind kind, int length) {
+                ReplyDecoder<Object> elements = this;
+                switch (kind) {
+                    case MAP:
+                        return new Aggregate<Object>() {
+                            private final Map<Object, Object> map = new LinkedHashMap<>(length);
+                            private Object key;
+                            private boolean isValue = false;
+
+                            @Override
+                            public ReplyDecoder<?> elements() {
+                                return elements;
+                            }
+
+                            @Override
+                            public void add(Object element) {
+                                if (isValue) {
+                                    map.put(key, element);
+                                } else {
+                                    key = element;
+                                }
+                                isValue = !isValue;
+                            }
+
+                            @Override
+                            public Object finish() {
+                                return map;
+                            }
+                        };
+                    default:
+                        Collection<Object> coll = kind == Kind.SET ? new LinkedHashSet<>() : new ArrayList<>(length);
+                        return new Aggregate<Object>() {
+                            @Override
+                            public ReplyDecoder<?> elements() {
+                                return elements;
+                            }
+
+                            @Override
+                            public void add(Object element) {
+                                coll.add(element);
+                            }
+
+                            @Override
+                            public Object finish() {
+                                return coll;
+                            }
+                        };
+                }
+            }
+        };
+    }
+}
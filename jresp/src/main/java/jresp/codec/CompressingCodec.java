@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.codec;
+
+import jresp.protocol.BulkStr;
+import jresp.protocol.DeflatedStr;
+import jresp.protocol.RespType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the values of another codec, if they are at least a given size, with DEFLATE.  Compressed values have a
+ * header (see DeflatedStr) so they can be told apart from uncompressed values when read; TaggedCodec.union also
+ * recognises them.
+ */
+public class CompressingCodec<T> implements Codec<T> {
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    /**
+     * DEFLATE can't compress by more than about 1032:1, nor can Redis store more than 512MB in a value; a header that
+     * claims more than either wasn't written by this codec
+     */
+    private static final long MAX_RATIO = 1032;
+    private static final int MAX_SIZE = 512 * 1024 * 1024;
+
+    private final Codec<T> codec;
+    private final int threshold;
+    private final int level;
+
+    private boolean compressStrings;
+
+    public CompressingCodec(Codec<T> codec, int threshold) {
+        this(codec, threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param threshold the size, in bytes, below which values are not compressed
+     * @param level     the DEFLATE compression level, 1 (fastest) to 9 (smallest)
+     */
+    public CompressingCodec(Codec<T> codec, int threshold, int level) {
+        this.codec = codec;
+        this.threshold = Math.max(threshold, DeflatedStr.HEADER_LENGTH);
+        this.level = level;
+    }
+
+    public Codec<T> getCodec() {
+        return codec;
+    }
+
+    public boolean isCompressStrings() {
+        return compressStrings;
+    }
+
+    /**
+     * Whether clients should compress string arguments, which are otherwise sent as they are, too.  Only for pools
+     * whose large strings are all values, not e.g. scripts, as any string above the threshold is compressed.
+     */
+    public void setCompressStrings(boolean compressStrings) {
+        this.compressStrings = compressStrings;
+    }
+
+    /**
+     * Compressed, if large enough, as it's written to the connection
+     */
+    @Override
+    public RespType toResp(T value) {
+        return compress(codec.encode(value));
+    }
+
+    /**
+     * Bytes to be written as they are, or compressed if large enough
+     */
+    public RespType compress(byte[] bytes) {
+        return bytes.length < threshold ? new BulkStr(bytes) : new DeflatedStr(bytes, level);
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        RespType resp = toResp(value);
+        if (resp instanceof BulkStr) {
+            return ((BulkStr) resp).raw();
+        }
+        // Only called outside of the usual path, e.g. to store the value elsewhere
+        Deflater deflater = new Deflater(level, true);
+        try {
+            byte[] raw = ((DeflatedStr) resp).raw();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[raw.length];
+            int length = DeflatedStr.HEADER_LENGTH;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished()) {
+                return raw;
+            }
+            ByteBuffer.wrap(buffer).put((byte) 0).put(DeflatedStr.TAG).putInt(raw.length);
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes, int offset, int length) {
+        if (isCompressed(bytes, offset, length)) {
+            byte[] inflated = inflate(bytes, offset, length);
+            return codec.decode(inflated, 0, inflated.length);
+        } else {
+            return codec.decode(bytes, offset, length);
+        }
+    }
+
+    public static boolean isCompressed(byte[] bytes, int offset, int length) {
+        return length >= DeflatedStr.HEADER_LENGTH && TaggedCodec.tagOf(bytes, offset, length) == DeflatedStr.TAG;
+    }
+
+    /**
+     * Decompress a compressed value, including its header.  If it can't be decompressed, e.g. it's some other value
+     * that happens to start with the same bytes, the bytes are returned as they are.
+     */
+    public static byte[] inflate(byte[] bytes, int offset, int length) {
+        int size = ByteBuffer.wrap(bytes, offset + 2, 4).getInt();
+        if (size < 0 || size > MAX_SIZE || size > (length - DeflatedStr.HEADER_LENGTH) * MAX_RATIO) {
+            return Arrays.copyOfRange(bytes, offset, offset + length);
+        }
+        byte[] inflated = new byte[size];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(bytes, offset + DeflatedStr.HEADER_LENGTH, length - DeflatedStr.HEADER_LENGTH);
+        try {
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                int inflatedBytes = inflater.inflate(inflated, n, size - n);
+                if (inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflatedBytes;
+            }
+            if (n == size) {
+                return inflated;
+            }
+        } catch (DataFormatException e) {
+            // Fall through
+        }
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+}
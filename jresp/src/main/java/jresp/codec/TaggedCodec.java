@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.codec;
+
+import java.util.Map;
+
+/**
+ * A codec whose values are stored with a two byte header: zero, then a tag identifying the codec.  Values written by
+ * a tagged codec can then be recognised when read, and told apart from plain strings, so different codecs can be
+ * used for different values.
+ */
+public class TaggedCodec<T> implements Codec<T> {
+    private final byte tag;
+    private final Codec<T> codec;
+
+    public TaggedCodec(byte tag, Codec<T> codec) {
+        this.tag = tag;
+        this.codec = codec;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        byte[] encoded = codec.encode(value);
+        byte[] tagged = new byte[encoded.length + 2];
+        tagged[1] = tag;
+        System.arraycopy(encoded, 0, tagged, 2, encoded.length);
+        return tagged;
+    }
+
+    @Override
+    public T decode(byte[] bytes, int offset, int length) {
+        return codec.decode(bytes, offset + 2, length - 2);
+    }
+
+    /**
+     * The tag of a tagged value, or -1 if it doesn't have the header
+     */
+    public static int tagOf(byte[] bytes, int offset, int length) {
+        return length >= 2 && bytes[offset] == 0 ? bytes[offset + 1] : -1;
+    }
+
+    /**
+     * A codec that decodes values with the tagged codec whose tag they have, or the untagged codec if they have none
+     * (or one that isn't known, or that fails to decode it).  Compressed values are decompressed first.  Values are
+     * encoded with the untagged codec.
+     */
+    public static <T> Codec<Object> union(Codec<T> untagged, Map<Byte, TaggedCodec<?>> tagged) {
+        return new Codec<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public byte[] encode(Object value) {
+                return untagged.encode((T) value);
+            }
+
+            @Override
+            public Object decode(byte[] bytes, int offset, int length) {
+                if (CompressingCodec.isCompressed(bytes, offset, length)) {
+                    byte[] inflated = CompressingCodec.inflate(bytes, offset, length);
+                    if (inflated.length != length) {
+                        return decode(inflated, 0, inflated.length);
+                    }
+                }
+                int tag = tagOf(bytes, offset, length);
+                TaggedCodec<?> codec = tag < 0 ? null : tagged.get((byte) tag);
+                if (codec != null) {
+                    try {
+                        return codec.decode(bytes, offset, length);
+                    } catch (RuntimeException e) {
+                        // Not written by that codec after all, e.g. binary data written by another client
+                    }
+                }
+                return untagged.decode(bytes, offset, length);
+            }
+        };
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.metrics;
+
+import jresp.protocol.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps measurements in memory, both in total and for each open connection, for them to be read and exported (e.g.
+ * periodically) by the application.
+ *
+ * The latency and reply size of commands are also kept for each group of commands (e.g. "string", "hash",
+ * "scripting"), see setCommandGroups, and the slowest commands are kept in a slow log.
+ */
+public class InMemoryMetrics implements Metrics {
+    private static final String OTHER_GROUP = "other";
+
+    private static final int DEFAULT_SLOW_LOG_SIZE = 10;
+
+    private static final int MAX_STALLS = 16;
+
+    /**
+     * As Redis's own slow log, the slow log only keeps the first arguments of each command, and the first bytes of each
+     * argument
+     */
+    private static final int MAX_SLOW_ARGS = 32;
+    private static final int MAX_SLOW_ARG_BYTES = 128;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram loopIterations = new LatencyHistogram();
+    private final LatencyHistogram callbacks = new LatencyHistogram();
+
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+
+    /**
+     * The most recent stalls of the event loop
+     */
+    private final Deque<Stall> stalls = new ArrayDeque<>();
+
+    private final Map<Integer, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+
+    /**
+     * The group of each command, by name.  If null each command is a group of its own.
+     */
+    private volatile Map<String, String> commandGroups;
+
+    /**
+     * The metrics for each command, by the BulkStr of its name, these are shared by each command in the same group
+     */
+    private final Map<RespType, CommandMetrics> byCommand = new ConcurrentHashMap<>();
+    private final Map<String, CommandMetrics> byGroup = new ConcurrentHashMap<>();
+
+    /**
+     * The slowest commands, the fastest of these at the head.  The threshold is the latency a command must exceed to
+     * be added, so most commands don't need to take the lock.
+     */
+    private final PriorityQueue<SlowCommand> slowLog = new PriorityQueue<>(
+            Comparator.comparingLong(SlowCommand::getNanos));
+    private volatile int slowLogSize = DEFAULT_SLOW_LOG_SIZE;
+    private volatile long slowLogThreshold = 0;
+
+    /**
+     * The start of the current period for commandsPerSecond
+     */
+    private long periodStart = System.nanoTime();
+    private long periodCommands = 0;
+
+    /**
+     * Measurements of a single connection
+     */
+    public static class ConnectionMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private final LongAdder commands = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+
+        private volatile int outgoingDepth;
+        private volatile int responseQueueDepth;
+        private final AtomicLong maxResponseQueueDepth = new AtomicLong();
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getCommands() {
+            return commands.sum();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.sum();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.sum();
+        }
+
+        public int getOutgoingDepth() {
+            return outgoingDepth;
+        }
+
+        public int getResponseQueueDepth() {
+            return responseQueueDepth;
+        }
+
+        public long getMaxResponseQueueDepth() {
+            return maxResponseQueueDepth.get();
+        }
+    }
+
+    /**
+     * Measurements of a group of commands
+     */
+    public static class CommandMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram replySize = new LatencyHistogram();
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * The approximate size, in bytes, of the replies
+         */
+        public LatencyHistogram getReplySize() {
+            return replySize;
+        }
+    }
+
+    /**
+     * One of the slowest commands, the command is truncated to its first MAX_SLOW_ARGS arguments, and the first
+     * MAX_SLOW_ARG_BYTES bytes of each
+     */
+    public static class SlowCommand {
+        private final RespType command;
+        private final int connection;
+        private final long nanos;
+        private final long timestamp;
+
+        SlowCommand(RespType command, int connection, long nanos) {
+            this.command = command;
+            this.connection = connection;
+            this.nanos = nanos;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        public RespType getCommand() {
+            return command;
+        }
+
+        public int getConnection() {
+            return connection;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * When the reply was received, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String toString() {
+            return String.format("%s[command=%s,connection=%d,nanos=%d]",
+                    getClass().getName(), command, connection, nanos);
+        }
+    }
+
+    /**
+     * The group each command belongs to, keyed by upper-case name (e.g. "HGETALL" to "hash").  Commands not listed are
+     * in the group "other".  This should be set before any commands are sent.
+     */
+    public void setCommandGroups(Map<String, String> commandGroups) {
+        this.commandGroups = new HashMap<>(commandGroups);
+        byCommand.clear();
+    }
+
+    /**
+     * The number of slow commands to keep, the default is 10
+     */
+    public synchronized void setSlowLogSize(int slowLogSize) {
+        this.slowLogSize = slowLogSize;
+        while (slowLog.size() > Math.max(slowLogSize, 0)) {
+            slowLog.poll();
+        }
+        updateSlowLogThreshold();
+    }
+
+    private ConnectionMetrics connection(int connection) {
+        return connections.computeIfAbsent(connection, id -> new ConnectionMetrics());
+    }
+
+    @Override
+    public void commandLatency(int connection, RespType command, RespType reply, long nanos) {
+        latency.record(nanos);
+        connection(connection).latency.record(nanos);
+
+        CommandMetrics metrics = command(command);
+        metrics.latency.record(nanos);
+        metrics.replySize.record(replySize(reply));
+
+        if (nanos > slowLogThreshold) {
+            slow(new SlowCommand(truncate(command), connection, nanos));
+        }
+    }
+
+    private CommandMetrics command(RespType command) {
+        RespType name = (command instanceof Ary) ? ((Ary) command).raw().get(0) : command;
+        CommandMetrics metrics = byCommand.get(name);
+        if (metrics == null) {
+            String nameStr = String.valueOf(name.unwrap()).toUpperCase(Locale.ROOT);
+            Map<String, String> groups = commandGroups;
+            String group = (groups == null) ? nameStr : groups.getOrDefault(nameStr, OTHER_GROUP);
+            metrics = byGroup.computeIfAbsent(group, g -> new CommandMetrics());
+            byCommand.put(name, metrics);
+        }
+        return metrics;
+    }
+
+    private synchronized void slow(SlowCommand command) {
+        if (command.nanos <= slowLogThreshold) {
+            return;
+        }
+        slowLog.add(command);
+        if (slowLog.size() > slowLogSize) {
+            slowLog.poll();
+        }
+        updateSlowLogThreshold();
+    }
+
+    /**
+     * A copy of the command, without holding on to any large arguments
+     */
+    static RespType truncate(RespType command) {
+        if (!(command instanceof Ary)) {
+            return command;
+        }
+        List<RespType> args = ((Ary) command).raw();
+        List<RespType> truncated = new ArrayList<>(Math.min(args.size(), MAX_SLOW_ARGS));
+        for (int i = 0; i < args.size(); i++) {
+            if (i == MAX_SLOW_ARGS - 1 && args.size() > MAX_SLOW_ARGS) {
+                truncated.add(new BulkStr("... (" + (args.size() - i) + " more arguments)"));
+                break;
+            }
+            RespType arg = args.get(i);
+            byte[] raw = (arg instanceof BulkStr) ? ((BulkStr) arg).raw() : null;
+            if (raw != null && raw.length > MAX_SLOW_ARG_BYTES) {
+                String more = "... (" + (raw.length - MAX_SLOW_ARG_BYTES) + " more bytes)";
+                byte[] suffix = more.getBytes(StandardCharsets.UTF_8);
+                byte[] bytes = Arrays.copyOf(raw, MAX_SLOW_ARG_BYTES + suffix.length);
+                System.arraycopy(suffix, 0, bytes, MAX_SLOW_ARG_BYTES, suffix.length);
+                arg = new BulkStr(bytes);
+            }
+            truncated.add(arg);
+        }
+        return new Ary(truncated);
+    }
+
+    private void updateSlowLogThreshold() {
+        if (slowLogSize <= 0) {
+            slowLogThreshold = Long.MAX_VALUE;
+        } else if (slowLog.size() < slowLogSize) {
+            slowLogThreshold = 0;
+        } else {
+            slowLogThreshold = slowLog.peek().nanos;
+        }
+    }
+
+    /**
+     * The approximate size of a reply, as the size of its strings plus eight bytes for each other value
+     */
+    static long replySize(RespType reply) {
+        if (reply instanceof BulkStr) {
+            byte[] raw = ((BulkStr) reply).raw();
+            return (raw == null) ? 0 : raw.length;
+        } else if (reply instanceof Ary) {
+            List<RespType> elements = ((Ary) reply).raw();
+            long size = 0;
+            if (elements != null) {
+                for (RespType element : elements) {
+                    size += replySize(element);
+                }
+            }
+            return size;
+        } else if (reply instanceof Dict) {
+            long size = 0;
+            for (Map.Entry<RespType, RespType> entry : ((Dict) reply).raw().entrySet()) {
+                size += replySize(entry.getKey()) + replySize(entry.getValue());
+            }
+            return size;
+        } else if (reply instanceof SimpleStr || reply instanceof Err) {
+            return ((String) reply.unwrap()).length();
+        } else {
+            return 8;
+        }
+    }
+
+    @Override
+    public void commandsWritten(int connection, int commands) {
+        this.commands.add(commands);
+        connection(connection).commands.add(commands);
+    }
+
+    @Override
+    public void bytesWritten(int connection, long bytes) {
+        bytesWritten.add(bytes);
+        connection(connection).bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void bytesRead(int connection, long bytes) {
+        bytesRead.add(bytes);
+        connection(connection).bytesRead.add(bytes);
+    }
+
+    @Override
+    public void outgoingDepth(int connection, int buffers) {
+        connection(connection).outgoingDepth = buffers;
+    }
+
+    @Override
+    public void responseQueueDepth(int connection, int commands) {
+        ConnectionMetrics metrics = connection(connection);
+        metrics.responseQueueDepth = commands;
+        metrics.maxResponseQueueDepth.accumulateAndGet(commands, Math::max);
+    }
+
+    @Override
+    public void loopIteration(long nanos) {
+        loopIterations.record(nanos);
+    }
+
+    @Override
+    public void callback(int connection, long nanos) {
+        callbacks.record(nanos);
+    }
+
+    @Override
+    public void stall(Stall stall) {
+        synchronized (stalls) {
+            stalls.addFirst(stall);
+            if (stalls.size() > MAX_STALLS) {
+                stalls.removeLast();
+            }
+        }
+    }
+
+    @Override
+    public void connectionClosed(int connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * The round-trip latency of all commands
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getLoopIterations() {
+        return loopIterations;
+    }
+
+    public LatencyHistogram getCallbacks() {
+        return callbacks;
+    }
+
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * The rate of commands since this was last called (or since creation)
+     */
+    public synchronized double commandsPerSecond() {
+        long now = System.nanoTime();
+        long total = commands.sum();
+        double rate = (now == periodStart) ? 0.0 : (total - periodCommands) * 1e9 / (now - periodStart);
+        periodStart = now;
+        periodCommands = total;
+        return rate;
+    }
+
+    /**
+     * Measurements of each group of commands, by group name
+     */
+    public Map<String, CommandMetrics> getCommandGroups() {
+        return Collections.unmodifiableMap(byGroup);
+    }
+
+    /**
+     * The slowest commands, slowest first
+     */
+    public synchronized List<SlowCommand> getSlowCommands() {
+        List<SlowCommand> result = new ArrayList<>(slowLog);
+        result.sort(Comparator.comparingLong(SlowCommand::getNanos).reversed());
+        return result;
+    }
+
+    /**
+     * The most recent stalls of the event loop, most recent first
+     */
+    public List<Stall> getStalls() {
+        synchronized (stalls) {
+            return new ArrayList<>(stalls);
+        }
+    }
+
+    /**
+     * The IDs of the connections currently open
+     */
+    public Set<Integer> getConnections() {
+        return connections.keySet();
+    }
+
+    /**
+     * The measurements of a single connection, or null if it's unknown or has been closed
+     */
+    public ConnectionMetrics getConnection(int connection) {
+        return connections.get(connection);
+    }
+}
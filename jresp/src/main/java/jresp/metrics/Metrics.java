@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.metrics;
+
+import jresp.protocol.RespType;
+
+/**
+ * Receives measurements from the internals of JRESP: connections, the connection group's event loop, and the
+ * single-command connections built on them.  Connections are identified by their ID, see Connection.getId.
+ *
+ * Implementations are called from the event loop thread, and from any thread that sends commands, so they must be
+ * thread-safe and should be quick.  Times are in nanoseconds.
+ */
+public interface Metrics {
+    /**
+     * The round-trip time of a single command, from being queued to its reply being dispatched.  The command's name is
+     * its first element, commands sent via the Clojure client share one interned BulkStr for each name.
+     */
+    void commandLatency(int connection, RespType command, RespType reply, long nanos);
+
+    /**
+     * Commands written to the connection
+     */
+    void commandsWritten(int connection, int commands);
+
+    void bytesWritten(int connection, long bytes);
+
+    void bytesRead(int connection, long bytes);
+
+    /**
+     * The number of buffers waiting to be written to the connection's socket
+     */
+    void outgoingDepth(int connection, int buffers);
+
+    /**
+     * The number of commands awaiting a response
+     */
+    void responseQueueDepth(int connection, int commands);
+
+    /**
+     * The time taken to process one iteration of the event loop, i.e. all the reads and writes from one select
+     */
+    void loopIteration(long nanos);
+
+    /**
+     * The time spent in a callback, i.e. in Responses.responseReceived.  This time is spent on the event loop thread.
+     */
+    void callback(int connection, long nanos);
+
+    /**
+     * The event loop has been busy for longer than the stall threshold, see Client.setStallThreshold
+     */
+    default void stall(Stall stall) {
+    }
+
+    /**
+     * The connection has been closed, no more measurements will be received for it
+     */
+    void connectionClosed(int connection);
+
+    /**
+     * If false, measurements that have a cost of their own (e.g. timing each command) are not taken
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+}
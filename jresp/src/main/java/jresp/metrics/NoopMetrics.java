@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.metrics;
+
+import jresp.protocol.RespType;
+
+/**
+ * Discards all measurements, the default
+ */
+public final class NoopMetrics implements Metrics {
+    public static final NoopMetrics INSTANCE = new NoopMetrics();
+
+    private NoopMetrics() {
+    }
+
+    @Override
+    public void commandLatency(int connection, RespType command, RespType reply, long nanos) {
+    }
+
+    @Override
+    public void commandsWritten(int connection, int commands) {
+    }
+
+    @Override
+    public void bytesWritten(int connection, long bytes) {
+    }
+
+    @Override
+    public void bytesRead(int connection, long bytes) {
+    }
+
+    @Override
+    public void outgoingDepth(int connection, int buffers) {
+    }
+
+    @Override
+    public void responseQueueDepth(int connection, int commands) {
+    }
+
+    @Override
+    public void loopIteration(long nanos) {
+    }
+
+    @Override
+    public void callback(int connection, long nanos) {
+    }
+
+    @Override
+    public void connectionClosed(int connection) {
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+}
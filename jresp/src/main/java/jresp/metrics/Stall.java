@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.metrics;
+
+import jresp.protocol.RespType;
+
+import java.util.Arrays;
+
+/**
+ * The event loop thread was found to have been busy for longer than the stall threshold, either processing one
+ * iteration of the loop or in a single callback.  While it's busy no other connection in the same group is served.
+ */
+public class Stall {
+    private final int connection;
+    private final RespType command;
+    private final long nanos;
+    private final StackTraceElement[] stack;
+    private final long timestamp;
+
+    public Stall(int connection, RespType command, long nanos, StackTraceElement[] stack) {
+        this.connection = connection;
+        this.command = command;
+        this.nanos = nanos;
+        this.stack = stack;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * The connection being served at the time, or -1 if none
+     */
+    public int getConnection() {
+        return connection;
+    }
+
+    /**
+     * If in a callback, the command whose reply was being dispatched, otherwise null.  This is only known for
+     * single-command connections.
+     */
+    public RespType getCommand() {
+        return command;
+    }
+
+    public boolean isCallback() {
+        return command != null;
+    }
+
+    /**
+     * How long it had been busy when sampled, it may have been busy for longer
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * A sample of the event loop thread's stack, showing what it was doing
+     */
+    public StackTraceElement[] getStack() {
+        return stack;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String toString() {
+        return String.format("%s[connection=%d,command=%s,nanos=%d,stack=%s]",
+                getClass().getName(), connection, command, nanos, Arrays.toString(stack));
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.pool;
+
+import jresp.ConnectionException;
+import jresp.Responses;
+import jresp.protocol.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Multiplexes many concurrent BLPOP and BRPOP commands onto a small, fixed, number of connections.
+ *
+ * Each connection (a "lane") has one blocking command in-flight at a time.  Waiters on the same lane are coalesced
+ * into a single multi-key command covering all the keys they're waiting on, when that command returns the popped
+ * element is given to the longest waiting waiter for that key, and a new command is issued for those remaining.
+ *
+ * If a waiter arrives for a key not covered by the in-flight command, the command is interrupted with
+ * CLIENT UNBLOCK so it can be re-issued.  For versions of Redis without CLIENT UNBLOCK the in-flight command blocks for
+ * no longer than one second at a time instead.
+ *
+ * Timeouts are tracked for each waiter, a waiter whose timeout expires receives a null array as it would from Redis.
+ * Should Redis return an error because one of the keys holds the wrong type, the type of each key is checked so that
+ * only the waiters on such keys receive it; any other error is received by every waiter on that lane.
+ */
+public class BlockingScheduler {
+    private static final BulkStr CLIENT = BulkStr.get("CLIENT");
+    private static final BulkStr ID = BulkStr.get("ID");
+    private static final BulkStr UNBLOCK = BulkStr.get("UNBLOCK");
+    private static final BulkStr TIMEOUT = BulkStr.get("TIMEOUT");
+    private static final BulkStr TYPE = BulkStr.get("TYPE");
+
+    /**
+     * In place of the in-flight keys while checking the types of keys after an error
+     */
+    private static final Set<BulkStr> CHECKING = Collections.emptySet();
+
+    private static final long UNBLOCK_UNSUPPORTED = -1;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final long MAX_SLICE_MILLIS = 1000;
+
+    private final Pool pool;
+
+    private final Map<String, Lane[]> lanes = new HashMap<>();
+
+    BlockingScheduler(Pool pool, int connections) {
+        this.pool = pool;
+        for (String command : Arrays.asList("BLPOP", "BRPOP")) {
+            Lane[] commandLanes = new Lane[connections];
+            for (int i = 0; i < connections; i++) {
+                commandLanes[i] = new Lane(BulkStr.get(command));
+            }
+            lanes.put(command, commandLanes);
+        }
+    }
+
+    /**
+     * Submit a blocking command.
+     *
+     * @param command either BLPOP or BRPOP
+     * @param keys the keys to wait on
+     * @param timeout the timeout in seconds, zero to wait forever
+     * @param responses will receive the single response
+     */
+    public void submit(String command, List<BulkStr> keys, double timeout, Responses responses)
+            throws IOException, ConnectionException {
+        Lane[] commandLanes = lanes.get(command.toUpperCase());
+        if (commandLanes == null) {
+            throw new IllegalArgumentException("Not a command that can be multiplexed: " + command);
+        }
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("No keys");
+        }
+
+        long deadline = timeout > 0 ? System.currentTimeMillis() + (long) (timeout * 1000) : NO_DEADLINE;
+        Waiter waiter = new Waiter(keys, deadline, responses);
+
+        Lane lane = commandLanes[Math.floorMod(keys.get(0).hashCode(), commandLanes.length)];
+        lane.add(waiter);
+    }
+
+    private static class Waiter {
+        private final List<BulkStr> keys;
+        private final long deadline;
+        private final Responses responses;
+
+        private Waiter(List<BulkStr> keys, long deadline, Responses responses) {
+            this.keys = keys;
+            this.deadline = deadline;
+            this.responses = responses;
+        }
+    }
+
+    private class Lane {
+        private final BulkStr command;
+
+        private SingleCommandConnection connection;
+
+        /**
+         * The CLIENT ID of the connection, null until known
+         */
+        private Long clientId;
+
+        private final List<Waiter> waiters = new ArrayList<>();
+
+        /**
+         * The keys, and earliest deadline, of the in-flight command; keys are null if nothing is in-flight
+         */
+        private Set<BulkStr> inFlightKeys;
+        private long inFlightDeadline;
+
+        private boolean unblocking = false;
+
+        private Lane(BulkStr command) {
+            this.command = command;
+        }
+
+        private void add(Waiter waiter) throws IOException, ConnectionException {
+            Long unblockId = null;
+            synchronized (this) {
+                if (connection == null || connection.isShutdown()) {
+                    connect();
+                }
+
+                waiters.add(waiter);
+
+                if (inFlightKeys == null) {
+                    issue();
+                } else if (!unblocking && clientId != null && clientId != UNBLOCK_UNSUPPORTED &&
+                        (!inFlightKeys.containsAll(waiter.keys) || waiter.deadline < inFlightDeadline)) {
+                    unblocking = true;
+                    unblockId = clientId;
+                }
+            }
+
+            if (unblockId != null) {
+                Ary unblock = new Ary(CLIENT, UNBLOCK, new BulkStr(Long.toString(unblockId)), TIMEOUT);
+                pool.getShared().write(unblock, resp -> {
+                    // Either the command was unblocked, or it had already returned
+                });
+            }
+        }
+
+        /**
+         * Must be called while holding the lock
+         */
+        private void connect() throws IOException, ConnectionException {
+            if (connection != null) {
+                // Shut down, the pool will discard it when it's next borrowed
+                pool.returnBorrowed(connection);
+            }
+            connection = pool.getBorrowed();
+            clientId = null;
+            inFlightKeys = null;
+            unblocking = false;
+
+            SingleCommandConnection idConnection = connection;
+            connection.write(new Ary(CLIENT, ID), resp -> {
+                synchronized (this) {
+                    if (connection == idConnection) {
+                        clientId = resp instanceof Int ? (Long) resp.unwrap() : UNBLOCK_UNSUPPORTED;
+                    }
+                }
+            });
+        }
+
+        /**
+         * Must be called while holding the lock, and when there are waiters
+         */
+        private void issue() {
+            Set<BulkStr> keys = new LinkedHashSet<>();
+            long deadline = NO_DEADLINE;
+            for (Waiter waiter : waiters) {
+                keys.addAll(waiter.keys);
+                deadline = Math.min(deadline, waiter.deadline);
+            }
+
+            long blockFor = 0;
+            long now = System.currentTimeMillis();
+            if (deadline != NO_DEADLINE) {
+                blockFor = Math.max(1, (deadline - now + 999) / 1000);
+            }
+            if (clientId == null || clientId == UNBLOCK_UNSUPPORTED) {
+                // Without CLIENT UNBLOCK new keys can only be picked up when this command returns
+                blockFor = blockFor == 0 ? 1 : Math.min(blockFor, MAX_SLICE_MILLIS / 1000);
+            }
+
+            List<RespType> message = new ArrayList<>(keys.size() + 2);
+            message.add(command);
+            message.addAll(keys);
+            message.add(new BulkStr(Long.toString(blockFor)));
+
+            inFlightKeys = keys;
+            inFlightDeadline = deadline;
+            unblocking = false;
+
+            SingleCommandConnection issuedOn = connection;
+            issuedOn.write(new Ary(message), resp -> reply(issuedOn, resp));
+        }
+
+        private void reply(SingleCommandConnection issuedOn, RespType resp) {
+            List<Waiter> done = new ArrayList<>();
+            List<Waiter> check = null;
+            synchronized (this) {
+                if (issuedOn != connection) {
+                    return;
+                }
+                inFlightKeys = null;
+
+                if (resp instanceof Ary && ((Ary) resp).raw() != null) {
+                    RespType key = ((Ary) resp).raw().get(0);
+                    Iterator<Waiter> i = waiters.iterator();
+                    while (i.hasNext()) {
+                        Waiter waiter = i.next();
+                        if (waiter.keys.contains(key)) {
+                            i.remove();
+                            done.add(waiter);
+                            break;
+                        }
+                    }
+                } else if (resp instanceof Ary || resp instanceof Null) {
+                    // Timed-out, or unblocked, RESP3 uses a null rather than a null array
+                    long now = System.currentTimeMillis();
+                    Iterator<Waiter> i = waiters.iterator();
+                    while (i.hasNext()) {
+                        Waiter waiter = i.next();
+                        if (waiter.deadline <= now) {
+                            i.remove();
+                            done.add(waiter);
+                        }
+                    }
+                } else if (resp instanceof EndOfResponses || issuedOn.isShutdown()) {
+                    // The connection has gone, the pool will discard it when it's next borrowed
+                    done.addAll(waiters);
+                    waiters.clear();
+                    pool.returnBorrowed(issuedOn);
+                    connection = null;
+                } else if (waiters.size() > 1 && resp instanceof Err) {
+                    // Find which waiters it's for, nothing else is issued in the meantime
+                    inFlightKeys = CHECKING;
+                    unblocking = true;
+                    check = new ArrayList<>(waiters);
+                } else {
+                    done.addAll(waiters);
+                    waiters.clear();
+                }
+
+                if (check == null && !waiters.isEmpty()) {
+                    issue();
+                }
+            }
+
+            if (check != null) {
+                checkTypes(issuedOn, check, (Err) resp);
+            }
+            done.forEach(waiter -> waiter.responses.responseReceived(resp));
+        }
+
+        /**
+         * Check the type of each key, so that only the waiters on keys that aren't lists receive the error
+         */
+        private void checkTypes(SingleCommandConnection issuedOn, List<Waiter> failed, Err err) {
+            Set<BulkStr> keys = new LinkedHashSet<>();
+            failed.forEach(waiter -> keys.addAll(waiter.keys));
+            Set<BulkStr> wrongType = Collections.synchronizedSet(new HashSet<>());
+            int[] remaining = {keys.size()};
+            try {
+                SingleCommandConnection shared = pool.getShared();
+                for (BulkStr key : keys) {
+                    shared.write(new Ary(TYPE, key), resp -> {
+                        Object type = resp.unwrap();
+                        if (!"list".equals(type) && !"none".equals(type)) {
+                            wrongType.add(key);
+                        }
+                        synchronized (this) {
+                            if (--remaining[0] > 0) {
+                                return;
+                            }
+                        }
+                        checked(issuedOn, failed, wrongType, err);
+                    });
+                }
+            } catch (IOException | ConnectionException e) {
+                checked(issuedOn, failed, Collections.emptySet(), err);
+            }
+        }
+
+        private void checked(SingleCommandConnection issuedOn, List<Waiter> failed, Set<BulkStr> wrongType, Err err) {
+            List<Waiter> done = new ArrayList<>();
+            synchronized (this) {
+                for (Waiter waiter : failed) {
+                    if (!Collections.disjoint(waiter.keys, wrongType)) {
+                        done.add(waiter);
+                    }
+                }
+                if (done.isEmpty()) {
+                    // Not the type of any key, so it's not known who it's for
+                    done.addAll(failed);
+                }
+                waiters.removeAll(done);
+
+                if (issuedOn == connection && inFlightKeys == CHECKING) {
+                    inFlightKeys = null;
+                    if (!waiters.isEmpty()) {
+                        issue();
+                    }
+                }
+            }
+
+            done.forEach(waiter -> waiter.responses.responseReceived(err));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.ConnectionException;
+import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
+import jresp.protocol.EndOfResponses;
+import jresp.protocol.Err;
+import jresp.protocol.RespType;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The nodes of a Redis Cluster, and which of them owns each hash slot.  Without Redis Cluster every slot belongs to
+ * the pool's own server.
+ *
+ * The owner of each slot is read with CLUSTER SLOTS on first use, and can be re-read with refresh.  Commands for
+ * nodes other than the pool's own server are sent on a connection per node, opened on demand.
+ */
+public class ClusterNodes {
+    private static final long TOPOLOGY_TIMEOUT = 5000;
+
+    private static final BulkStr CLUSTER = new BulkStr("CLUSTER");
+    private static final BulkStr SLOTS = new BulkStr("SLOTS");
+
+    private final Pool pool;
+
+    /**
+     * The owner of each slot, null means the pool's own server.  Null until first used.
+     */
+    private volatile InetSocketAddress[] owners;
+
+    private final Map<InetSocketAddress, SingleCommandConnection> connections = new HashMap<>();
+
+    ClusterNodes(Pool pool) {
+        this.pool = pool;
+    }
+
+    public String toString() {
+        return String.format("%s[connections=%s]", getClass().getName(), connections.keySet());
+    }
+
+    /**
+     * Re-read the owner of each slot, e.g. after the cluster has been resharded
+     */
+    public void refresh() throws IOException, ConnectionException {
+        owners = loadOwners();
+    }
+
+    public InetSocketAddress owner(int slot) throws IOException, ConnectionException {
+        return owners()[slot];
+    }
+
+    /**
+     * Record a new owner of a slot, e.g. following a MOVED redirection
+     */
+    void moved(int slot, InetSocketAddress node) {
+        InetSocketAddress[] current = owners;
+        if (current != null) {
+            current[slot] = node;
+        }
+    }
+
+    /**
+     * The distinct nodes that own at least one slot, for commands that must be sent to every node (e.g. SCAN)
+     */
+    public Set<InetSocketAddress> masters() throws IOException, ConnectionException {
+        return new LinkedHashSet<>(Arrays.asList(owners()));
+    }
+
+    /**
+     * A connection to each node, for commands that must be sent to every node (e.g. SCAN)
+     */
+    public List<SingleCommandConnection> masterConnections() throws IOException, ConnectionException {
+        List<SingleCommandConnection> result = new ArrayList<>();
+        for (InetSocketAddress node : masters()) {
+            result.add(connection(node));
+        }
+        return result;
+    }
+
+    /**
+     * A connection to the node that owns a key
+     */
+    public SingleCommandConnection connectionFor(String key) throws IOException, ConnectionException {
+        return connection(owner(HashSlots.slot(key)));
+    }
+
+    private InetSocketAddress[] owners() throws IOException, ConnectionException {
+        InetSocketAddress[] current = owners;
+        if (current == null) {
+            synchronized (this) {
+                current = owners;
+                if (current == null) {
+                    current = loadOwners();
+                    owners = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Each element of the CLUSTER SLOTS reply is [start, end, [host, port, ...], replicas...].  Redis will reply with an
+     * error if it is not part of a cluster, in which case every slot belongs to the pool's own server.
+     */
+    private InetSocketAddress[] loadOwners() throws IOException, ConnectionException {
+        InetSocketAddress[] result = new InetSocketAddress[HashSlots.SLOTS];
+        RespType reply = await(pool.getShared(), new Ary(CLUSTER, SLOTS));
+        if (reply instanceof Ary) {
+            for (RespType range : ((Ary) reply).raw()) {
+                List<RespType> fields = ((Ary) range).raw();
+                int start = ((Long) fields.get(0).unwrap()).intValue();
+                int end = ((Long) fields.get(1).unwrap()).intValue();
+                List<RespType> master = ((Ary) fields.get(2)).raw();
+                InetSocketAddress node = node((String) master.get(0).unwrap(),
+                        ((Long) master.get(1).unwrap()).intValue());
+                Arrays.fill(result, start, end + 1, isPoolServer(node) ? null : node);
+            }
+        }
+        return result;
+    }
+
+    private static RespType await(SingleCommandConnection con, Ary command) throws ConnectionException {
+        CompletableFuture<RespType> reply = new CompletableFuture<>();
+        con.write(command, reply::complete);
+        try {
+            RespType resp = reply.get(TOPOLOGY_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (resp instanceof EndOfResponses) {
+                throw new ConnectionException("Connection closed while reading cluster topology");
+            }
+            return resp;
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new ConnectionException(e);
+        }
+    }
+
+    /**
+     * Whether this is a MOVED error ("MOVED slot host:port")
+     */
+    boolean isMoved(Err err) {
+        String[] parts = ((String) err.unwrap()).split(" ");
+        return parts.length == 3 && parts[0].equals("MOVED") && parts[2].lastIndexOf(':') >= 0;
+    }
+
+    /**
+     * The node a MOVED error redirects to, null if it's the pool's own server (as with owner).  Only for errors that
+     * isMoved.
+     */
+    InetSocketAddress movedTo(Err err) {
+        String[] parts = ((String) err.unwrap()).split(" ");
+        int colon = parts[2].lastIndexOf(':');
+        InetSocketAddress node = node(parts[2].substring(0, colon), Integer.parseInt(parts[2].substring(colon + 1)));
+        return isPoolServer(node) ? null : node;
+    }
+
+    /**
+     * An empty hostname means the node we asked, i.e. the pool's own server
+     */
+    private InetSocketAddress node(String hostname, int port) {
+        if (hostname.isEmpty()) {
+            hostname = pool.getClient().getHostname();
+        }
+        return InetSocketAddress.createUnresolved(hostname, port);
+    }
+
+    private boolean isPoolServer(InetSocketAddress node) {
+        return node.getHostString().equals(pool.getClient().getHostname()) &&
+                node.getPort() == pool.getClient().getPort();
+    }
+
+    /**
+     * A connection for single-response commands to a node, null is the pool's own server and uses the shared
+     * connection
+     */
+    public synchronized SingleCommandConnection connection(InetSocketAddress node)
+            throws IOException, ConnectionException {
+        if (node == null) {
+            return pool.getShared();
+        }
+        SingleCommandConnection con = connections.get(node);
+        if (con == null || con.isShutdown()) {
+            con = new SingleCommandConnection(pool.getDedicated(node.getHostString(), node.getPort()));
+            connections.put(node, con);
+        }
+        return con;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.pool;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A concurrent collection of reusable items (i.e. connections), optimised for frequent borrowing and returning by
+ * many threads.
+ *
+ * Items are taken first from a small per-thread list of items recently returned by that thread, then from a shared
+ * lock-free stack of idle items.  Each item has a state which is changed atomically, so an item may appear in more
+ * than one place at once but can only be borrowed once; stale references are simply discarded.
+ *
+ * Only waiting for an item to be returned, when the caller has chosen to do so, takes a lock.
+ */
+class ConnectionBag<T> {
+    private static final int NOT_IN_USE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = -1;
+
+    private static final int MAX_RECENT = 16;
+
+    static final class Entry<T> {
+        final T value;
+
+        private final AtomicInteger state = new AtomicInteger(NOT_IN_USE);
+
+        /**
+         * Is this entry (possibly) on the shared stack, used to avoid pushing it more than once
+         */
+        private final AtomicBoolean stacked = new AtomicBoolean(false);
+
+        volatile long lastReturned = System.currentTimeMillis();
+
+        private Entry(T value) {
+            this.value = value;
+        }
+
+        boolean isIdle() {
+            return state.get() == NOT_IN_USE;
+        }
+
+        public String toString() {
+            return String.format("%s[%s,state=%d]", getClass().getName(), value, state.get());
+        }
+    }
+
+    private final ConcurrentHashMap<T, Entry<T>> entries = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedDeque<Entry<T>> stack = new ConcurrentLinkedDeque<>();
+
+    private final ThreadLocal<ArrayDeque<WeakReference<Entry<T>>>> recent = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final AtomicInteger idle = new AtomicInteger();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final Object signal = new Object();
+
+    /**
+     * Add a new, idle, item to the bag
+     */
+    void add(T value) {
+        Entry<T> entry = new Entry<>(value);
+        entries.put(value, entry);
+        idle.incrementAndGet();
+        push(entry);
+    }
+
+    /**
+     * Add a new item that is immediately borrowed
+     */
+    void addBorrowed(T value) {
+        Entry<T> entry = new Entry<>(value);
+        entry.state.set(IN_USE);
+        entries.put(value, entry);
+    }
+
+    /**
+     * Borrow an idle item, or return null if none are idle
+     */
+    T borrow() {
+        ArrayDeque<WeakReference<Entry<T>>> local = recent.get();
+        WeakReference<Entry<T>> ref;
+        while ((ref = local.pollFirst()) != null) {
+            Entry<T> entry = ref.get();
+            if (entry != null && claim(entry)) {
+                return entry.value;
+            }
+        }
+
+        Entry<T> entry;
+        while ((entry = stack.pollFirst()) != null) {
+            entry.stacked.set(false);
+            if (claim(entry)) {
+                return entry.value;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Borrow an idle item, waiting up to the timeout for one to be returned.  Returns null on timeout.
+     */
+    T borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiters.incrementAndGet();
+        try {
+            while (true) {
+                T value = borrow();
+                if (value != null) {
+                    return value;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+
+                synchronized (signal) {
+                    if (stack.isEmpty()) {
+                        TimeUnit.NANOSECONDS.timedWait(signal, remaining);
+                    }
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Return a previously borrowed item
+     */
+    void requite(T value) {
+        Entry<T> entry = entries.get(value);
+        if (entry == null || !entry.state.compareAndSet(IN_USE, NOT_IN_USE)) {
+            throw new IllegalStateException("This connection was not previously borrowed");
+        }
+        entry.lastReturned = System.currentTimeMillis();
+        idle.incrementAndGet();
+
+        ArrayDeque<WeakReference<Entry<T>>> local = recent.get();
+        if (local.size() >= MAX_RECENT) {
+            local.pollLast();
+        }
+        local.addFirst(new WeakReference<>(entry));
+
+        push(entry);
+    }
+
+    /**
+     * Remove an item, idle or borrowed, from the bag entirely
+     */
+    boolean remove(T value) {
+        Entry<T> entry = entries.get(value);
+        if (entry == null) {
+            return false;
+        }
+        int previous = entry.state.getAndSet(REMOVED);
+        if (previous == REMOVED) {
+            return false;
+        }
+        if (previous == NOT_IN_USE) {
+            idle.decrementAndGet();
+        }
+        entries.remove(value);
+        return true;
+    }
+
+    /**
+     * Remove an item only if it is idle, used for evicting items without racing against borrowers
+     */
+    boolean removeIdle(Entry<T> entry) {
+        if (entry.state.compareAndSet(NOT_IN_USE, REMOVED)) {
+            idle.decrementAndGet();
+            entries.remove(entry.value);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * A weakly-consistent view of all the entries
+     */
+    Collection<Entry<T>> entries() {
+        return entries.values();
+    }
+
+    int idleCount() {
+        return idle.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private boolean claim(Entry<T> entry) {
+        if (entry.state.compareAndSet(NOT_IN_USE, IN_USE)) {
+            idle.decrementAndGet();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void push(Entry<T> entry) {
+        if (entry.stacked.compareAndSet(false, true)) {
+            stack.addFirst(entry);
+        }
+
+        if (waiters.get() > 0) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+    }
+
+    public String toString() {
+        return String.format("%s[size=%d,idle=%d]", getClass().getName(), size(), idleCount());
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.Responses;
+import jresp.protocol.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, least-recently-used, cache of replies to read commands sent via the shared connection.  Redis keeps it
+ * coherent by sending invalidation messages for keys that the connection has read (CLIENT TRACKING), either as RESP3
+ * push messages or, with RESP2, to the __redis__:invalidate channel of the pub-sub connection.
+ *
+ * Only commands that read a single key, given as the first argument, are cached.  Replies are only served from the
+ * cache while tracking is active for the connection that populated it.
+ */
+public class NearCache {
+    private static final Set<BulkStr> CACHEABLE = new HashSet<>();
+
+    static {
+        for (String command : Arrays.asList("GET", "GETRANGE", "STRLEN", "TYPE",
+                "HGET", "HMGET", "HGETALL", "HEXISTS", "HKEYS", "HVALS", "HLEN", "HSTRLEN",
+                "LINDEX", "LLEN", "LRANGE",
+                "SCARD", "SISMEMBER", "SMEMBERS",
+                "ZCARD", "ZCOUNT", "ZRANGE", "ZRANGEBYSCORE", "ZRANK", "ZREVRANGE", "ZREVRANK", "ZSCORE")) {
+            CACHEABLE.add(new BulkStr(command));
+        }
+    }
+
+    static final BulkStr INVALIDATE = new BulkStr("invalidate");
+
+    private final int maxSize;
+
+    /**
+     * Cached replies, keyed by the command that produced them
+     */
+    private final LinkedHashMap<Ary, RespType> replies;
+
+    /**
+     * The cached commands for each Redis key, so they can all be removed when the key is invalidated
+     */
+    private final Map<RespType, List<Ary>> commandsByKey = new HashMap<>();
+
+    /**
+     * The reads in-flight for each Redis key.  Only keys with reads in-flight are kept.
+     */
+    private final Map<RespType, InFlight> inFlight = new HashMap<>();
+
+    /**
+     * The connection that tracking is enabled for, null if none
+     */
+    private volatile SingleCommandConnection owner;
+
+    /**
+     * Incremented whenever the whole cache is cleared, a reply is only cached if it wasn't cleared while the reply was
+     * in-flight
+     */
+    private long generation = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * The number of reads of a key in-flight, and the version of that key.  The version is incremented whenever the key
+     * is written or invalidated, a reply is only cached if the version of its key didn't change while it was in-flight.
+     */
+    private static final class InFlight {
+        private int reads;
+        private long version;
+    }
+
+    public NearCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.replies = new LinkedHashMap<Ary, RespType>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Ary, RespType> eldest) {
+                if (size() > NearCache.this.maxSize) {
+                    unindex(eldest.getKey());
+                    evictions.increment();
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+
+    public String toString() {
+        return String.format("%s[size=%d,hits=%d,misses=%d,evictions=%d,invalidations=%d]",
+                getClass().getName(),
+                size(),
+                getHits(),
+                getMisses(),
+                getEvictions(),
+                getInvalidations());
+    }
+
+    /**
+     * Called for each command written to a connection.  Returns null if the command was answered from the cache,
+     * otherwise the responses to pass the reply on to.
+     */
+    Responses intercept(SingleCommandConnection con, RespType command, Responses responses) {
+        if (owner != con || !(command instanceof Ary)) {
+            return responses;
+        }
+        Ary ary = (Ary) command;
+        List<RespType> args = ary.raw();
+        if (args == null || args.size() < 2) {
+            return responses;
+        }
+
+        if (CACHEABLE.contains(args.get(0))) {
+            RespType cached;
+            long expectedGeneration;
+            long expectedVersion = 0;
+            synchronized (this) {
+                cached = replies.get(ary);
+                expectedGeneration = generation;
+                if (cached == null) {
+                    InFlight reads = inFlight.computeIfAbsent(args.get(1), k -> new InFlight());
+                    reads.reads++;
+                    expectedVersion = reads.version;
+                }
+            }
+            if (cached != null) {
+                hits.increment();
+                responses.responseReceived(cached);
+                return null;
+            }
+            misses.increment();
+            long version = expectedVersion;
+            return resp -> {
+                store(con, expectedGeneration, version, ary, resp);
+                responses.responseReceived(resp);
+            };
+        } else {
+            written(args);
+            return responses;
+        }
+    }
+
+    /**
+     * Called for each command written to a connection that must bypass the cache, e.g. within MULTI/EXEC
+     */
+    void written(RespType command) {
+        if (command instanceof Ary) {
+            List<RespType> args = ((Ary) command).raw();
+            if (args != null) {
+                written(args);
+            }
+        }
+    }
+
+    /**
+     * Anything other than a cacheable read may change the keys it refers to, the server will also invalidate them, but
+     * not before this connection could read its own stale value
+     */
+    private void written(List<RespType> args) {
+        synchronized (this) {
+            if (!commandsByKey.isEmpty() || !inFlight.isEmpty()) {
+                for (int i = 1; i < args.size(); i++) {
+                    removeKey(args.get(i));
+                }
+            }
+        }
+    }
+
+    private void store(SingleCommandConnection con, long expectedGeneration, long expectedVersion, Ary command,
+                       RespType reply) {
+        RespType key = command.raw().get(1);
+        synchronized (this) {
+            InFlight reads = inFlight.get(key);
+            boolean unchanged = reads != null && reads.version == expectedVersion;
+            if (reads != null && --reads.reads == 0) {
+                inFlight.remove(key);
+            }
+
+            if (reply instanceof Err || reply instanceof ClientErr || reply instanceof EndOfResponses) {
+                return;
+            }
+            if (unchanged && owner == con && generation == expectedGeneration) {
+                if (replies.put(command, reply) == null) {
+                    commandsByKey.computeIfAbsent(key, k -> new ArrayList<>(1)).add(command);
+                }
+            }
+        }
+    }
+
+    private void unindex(Ary command) {
+        RespType key = command.raw().get(1);
+        List<Ary> commands = commandsByKey.get(key);
+        if (commands != null) {
+            commands.remove(command);
+            if (commands.isEmpty()) {
+                commandsByKey.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private void removeKey(RespType key) {
+        InFlight reads = inFlight.get(key);
+        if (reads != null) {
+            reads.version++;
+        }
+        List<Ary> commands = commandsByKey.remove(key);
+        if (commands != null) {
+            commands.forEach(replies::remove);
+        }
+    }
+
+    /**
+     * Process an invalidation message, this is either an array of keys, or null if all keys should be invalidated
+     * (e.g. after FLUSHALL).
+     */
+    void invalidate(RespType keys) {
+        invalidations.increment();
+        synchronized (this) {
+            Object unwrapped = keys.unwrap();
+            if (unwrapped == null) {
+                clear();
+            } else if (keys instanceof Ary) {
+                ((Ary) keys).raw().forEach(this::removeKey);
+            }
+        }
+    }
+
+    /**
+     * A listener for RESP3 push messages on the tracked connection
+     */
+    Responses pushListener(SingleCommandConnection con) {
+        return resp -> {
+            if (resp instanceof EndOfResponses) {
+                detach(con);
+            } else {
+                List<RespType> message = ((Push) resp).raw();
+                if (message.size() == 2 && message.get(0).equals(INVALIDATE)) {
+                    invalidate(message.get(1));
+                }
+            }
+        };
+    }
+
+    /**
+     * Start serving replies to commands sent on this connection, tracking must have already been enabled
+     */
+    synchronized void attach(SingleCommandConnection con) {
+        clear();
+        owner = con;
+    }
+
+    /**
+     * Tracking is no longer active for this connection
+     */
+    synchronized void detach(SingleCommandConnection con) {
+        if (owner == con) {
+            clear();
+            owner = null;
+        }
+    }
+
+    /**
+     * Tracking is no longer active, whichever connection it was for
+     */
+    synchronized void detach() {
+        clear();
+        owner = null;
+    }
+
+    boolean isAttached(SingleCommandConnection con) {
+        return owner == con;
+    }
+
+    private void clear() {
+        generation++;
+        replies.clear();
+        commandsByKey.clear();
+    }
+
+    public synchronized int size() {
+        return replies.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+}
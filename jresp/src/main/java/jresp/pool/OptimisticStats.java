@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.pool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of the optimistic (WATCH/MULTI/EXEC) transactions made via a pool, these are recorded by the client that
+ * retries the transactions.
+ */
+public class OptimisticStats {
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public String toString() {
+        return String.format("%s[transactions=%d,attempts=%d,conflicts=%d,failures=%d]",
+                getClass().getName(),
+                getTransactions(),
+                getAttempts(),
+                getConflicts(),
+                getFailures());
+    }
+
+    public void transaction() {
+        transactions.increment();
+    }
+
+    public void attempt() {
+        attempts.increment();
+    }
+
+    /**
+     * An attempt that was abandoned because a watched key was changed
+     */
+    public void conflict() {
+        conflicts.increment();
+    }
+
+    /**
+     * A transaction that was given up on after too many conflicts
+     */
+    public void failure() {
+        failures.increment();
+    }
+
+    public long getTransactions() {
+        return transactions.sum();
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+}
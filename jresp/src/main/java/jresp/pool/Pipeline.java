@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.Responses;
+import jresp.protocol.RespType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An explicit batch of commands for a shared connection.  Rather than each command being queued individually, the
+ * whole batch is encoded and queued in one go when flushed; this is more efficient for large numbers of commands, e.g.
+ * when bulk loading data.
+ *
+ * A pipeline is not thread-safe, it is intended to be built by a single thread then flushed.
+ */
+public class Pipeline {
+    protected final SingleCommandConnection connection;
+
+    private List<RespType> commands = new ArrayList<>();
+    private List<Responses> responses = new ArrayList<>();
+
+    public Pipeline(SingleCommandConnection connection) {
+        this.connection = connection;
+    }
+
+    public void add(RespType command, Responses responses) {
+        this.commands.add(command);
+        this.responses.add(responses);
+    }
+
+    public SingleCommandConnection getConnection() {
+        return connection;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * Send all the commands added since the previous flush
+     */
+    public void flush() {
+        if (commands.isEmpty()) {
+            return;
+        }
+        List<RespType> flushedCommands = commands;
+        List<Responses> flushedResponses = responses;
+        commands = new ArrayList<>();
+        responses = new ArrayList<>();
+
+        write(flushedCommands, flushedResponses);
+    }
+
+    protected void write(List<RespType> commands, List<Responses> responses) {
+        connection.write(commands, responses);
+    }
+}
@@ -19,38 +19,223 @@ package jresp.pool;
 import jresp.Client;
 import jresp.Connection;
 import jresp.ConnectionException;
+import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
+import jresp.protocol.EndOfResponses;
+import jresp.protocol.Err;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A connection-pool for JRESP connections.  Since JRESP is asynchronous, most operations can be multiplexed onto one
  * single shared connection.  However there are some Redis commands that are exceptions to this rule.
  */
 public class Pool {
+    private static final long MAINTENANCE_INTERVAL = 1000;
+
+    private static int maintenanceThreadId = 1;
+
+    private static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+
     private Client client;
 
-    private SingleCommandConnection shared;
+    private volatile SingleCommandConnection shared;
+
+    private volatile PubSubConnection pubSub;
+
+    private volatile BlockingScheduler blockingScheduler;
+
+    /**
+     * Borrowable connections, both idle and borrowed
+     */
+    private final ConnectionBag<SingleCommandConnection> borrowable = new ConnectionBag<>();
+
+    /**
+     * The number of borrowable connections, including those currently being opened.  This is the figure limited by
+     * the maximum size of the pool.
+     */
+    private final AtomicInteger total = new AtomicInteger();
+
+    /**
+     * Sizing of the borrowable connections, zero means no minimum, no maximum, and no idle timeout respectively
+     */
+    private volatile int minIdle = 0;
+    private volatile int maxTotal = 0;
+    private volatile long idleTimeout = 0;
+    private volatile long borrowTimeout = 5000;
+
+    private int blockingConnections = 2;
+
+    private volatile PubSubGroup pubSubGroup;
+
+    private int pubSubConnections = 1;
+
+    private volatile ClusterNodes clusterNodes;
+
+    private volatile ShardedPubSub shardedPubSub;
+
+    /**
+     * Background refilling and eviction of borrowable connections, started on demand: by warming up, when below the
+     * minimum idle, or on first borrowing a connection if there's an idle timeout
+     */
+    private volatile ScheduledExecutorService maintenance;
+    private final AtomicInteger refilling = new AtomicInteger();
+
+    /**
+     * Client-side caching of replies to the shared connection, null if not enabled
+     */
+    private volatile NearCache nearCache;
+    private volatile boolean trackingUnsupported = false;
+    private final AtomicBoolean enablingTracking = new AtomicBoolean();
+
+    /**
+     * How values sent to, and read from, the pool are encoded.  This is opaque to the pool, it's for clients that
+     * encode values (e.g. a Clojure codec), null if none.
+     */
+    private volatile Object codec;
 
-    private PubSubConnection pubSub;
+    private final OptimisticStats optimisticStats = new OptimisticStats();
 
-    private Set<SingleCommandConnection> borrowable = new HashSet<>();
-    private Set<SingleCommandConnection> borrowed = new HashSet<>();
+    /**
+     * The number of messages dropped by subscribers, e.g. because they couldn't keep up, for each channel or pattern
+     */
+    private final Map<String, LongAdder> droppedMessages = new ConcurrentHashMap<>();
+
+    /**
+     * With RESP2, the pub-sub connection that has been subscribed to the invalidation channel
+     */
+    private final AtomicReference<PubSubConnection> invalidationSource = new AtomicReference<>();
 
     public Pool(Client client) {
         this.client = client;
     }
 
     public String toString() {
-        return String.format("%s[client=%s,shared=%s,pubSub=%s,borrowable=%s,borrowed=%s]",
+        return String.format("%s[client=%s,shared=%s,pubSub=%s,borrowable=%s]",
                 getClass().getName(),
                 client,
                 shared,
                 pubSub,
-                borrowable,
-                borrowed);
+                borrowable);
+    }
+
+    Client getClient() {
+        return client;
+    }
+
+    /**
+     * The minimum number of idle borrowable connections, these are opened in the background ahead of them being needed
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * The maximum number of borrowable connections, borrowed or otherwise.  Zero (the default) means no limit.
+     */
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * How long, in milliseconds, an idle borrowable connection is kept before being closed.  Connections required to
+     * satisfy the minimum idle setting are never closed.  Zero (the default) means idle connections are kept forever.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * How long, in milliseconds, to wait for a connection to be returned when the pool is at its maximum size.
+     */
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Enable client-side caching of the replies to read commands sent via the shared connection, holding up to this
+     * many replies.  This requires Redis 6 or later, with earlier versions the cache will never be used.
+     */
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCache = (nearCacheSize > 0) ? new NearCache(nearCacheSize) : null;
+    }
+
+    /**
+     * The client-side cache, for its statistics, or null if not enabled
+     */
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * The codec for values sent via this pool, see getCodec
+     */
+    public void setCodec(Object codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * The codec set by setCodec, or null if none
+     */
+    public Object getCodec() {
+        return codec;
+    }
+
+    /**
+     * The counts of optimistic transactions made via this pool
+     */
+    public OptimisticStats getOptimisticStats() {
+        return optimisticStats;
+    }
+
+    /**
+     * The counter of messages dropped by subscribers to this channel or pattern, for subscribers to increment
+     */
+    public LongAdder droppedMessages(String name) {
+        return droppedMessages.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * The number of messages dropped for each channel or pattern that has had any dropped
+     */
+    public Map<String, Long> getDroppedMessages() {
+        Map<String, Long> result = new HashMap<>();
+        droppedMessages.forEach((name, dropped) -> {
+            long sum = dropped.sum();
+            if (sum > 0) {
+                result.put(name, sum);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The number of connections that subscriptions made via the pub-sub group are spread across
+     */
+    public synchronized void setPubSubConnections(int pubSubConnections) {
+        if (pubSubGroup != null) {
+            throw new IllegalStateException("Pub-sub group already started");
+        }
+        this.pubSubConnections = pubSubConnections;
+    }
+
+    /**
+     * The number of connections, for each of BLPOP and BRPOP, used by the blocking scheduler
+     */
+    public synchronized void setBlockingConnections(int blockingConnections) {
+        if (blockingScheduler != null) {
+            throw new IllegalStateException("Blocking scheduler already started");
+        }
+        this.blockingConnections = blockingConnections;
     }
 
     /**
@@ -62,12 +247,91 @@ public class Pool {
      *
      * Because this is shared, the connection will be started.
      */
-    public synchronized SingleCommandConnection getShared() throws IOException, ConnectionException {
-        if ((shared == null) || (shared.isShutdown())) {
-            shared = new SingleCommandConnection(client.makeConnection());
+    public SingleCommandConnection getShared() throws IOException, ConnectionException {
+        SingleCommandConnection con = shared;
+        if ((con == null) || (con.isShutdown()) || (trackingRequired(con))) {
+            synchronized (this) {
+                con = shared;
+                if ((con == null) || (con.isShutdown())) {
+                    con = new SingleCommandConnection(client.makeConnection());
+                    shared = con;
+                }
+                if (trackingRequired(con)) {
+                    enableTracking(con);
+                }
+            }
         }
 
-        return shared;
+        return con;
+    }
+
+    private boolean trackingRequired(SingleCommandConnection con) {
+        NearCache cache = nearCache;
+        return cache != null && !trackingUnsupported && !cache.isAttached(con) && !enablingTracking.get();
+    }
+
+    /**
+     * Turns on CLIENT TRACKING for the shared connection, the cache is used once Redis has acknowledged this.  With
+     * RESP3 invalidations arrive as push messages on the same connection, otherwise they are redirected to the pub-sub
+     * connection.
+     */
+    private void enableTracking(SingleCommandConnection con) {
+        NearCache cache = nearCache;
+        if (!enablingTracking.compareAndSet(false, true)) {
+            return;
+        }
+        con.setNearCache(cache);
+        try {
+            if (con.getProtocol() == 3) {
+                con.addPushListener(cache.pushListener(con));
+                sendTracking(cache, con, new Ary(new BulkStr("CLIENT"), new BulkStr("TRACKING"), new BulkStr("ON")));
+            } else {
+                PubSubConnection pubSubCon = getPubSub();
+                if (invalidationSource.get() == pubSubCon) {
+                    redirectTracking(cache, con, pubSubCon);
+                } else {
+                    invalidationSource.set(pubSubCon);
+                    pubSubCon.subscribe(INVALIDATE_CHANNEL, resp -> {
+                        if (resp instanceof EndOfResponses) {
+                            invalidationSource.compareAndSet(pubSubCon, null);
+                            cache.detach();
+                        } else if (resp instanceof BulkStr) {
+                            // Subscribed
+                            redirectTracking(cache, con, pubSubCon);
+                        } else {
+                            cache.invalidate(resp);
+                        }
+                    });
+                }
+            }
+        } catch (IOException | ConnectionException | PubSubException e) {
+            // The shared connection is still usable, tracking will be attempted again on its next use
+            enablingTracking.set(false);
+        }
+    }
+
+    private void redirectTracking(NearCache cache, SingleCommandConnection con, PubSubConnection pubSubCon) {
+        pubSubCon.clientId().thenAccept(id -> {
+            if (id == PubSubConnection.UNKNOWN_CLIENT_ID) {
+                trackingUnsupported = true;
+                enablingTracking.set(false);
+            } else {
+                sendTracking(cache, con, new Ary(new BulkStr("CLIENT"), new BulkStr("TRACKING"), new BulkStr("ON"),
+                        new BulkStr("REDIRECT"), new BulkStr(Long.toString(id))));
+            }
+        });
+    }
+
+    private void sendTracking(NearCache cache, SingleCommandConnection con, Ary command) {
+        con.write(command, resp -> {
+            if (resp instanceof Err) {
+                // Versions of Redis prior to 6 do not support CLIENT TRACKING
+                trackingUnsupported = true;
+            } else if (!(resp instanceof EndOfResponses)) {
+                cache.attach(con);
+            }
+            enablingTracking.set(false);
+        });
     }
 
     /**
@@ -80,47 +344,326 @@ public class Pool {
         return client.makeConnection();
     }
 
+    /**
+     * A dedicated connection to another node of the same Redis Cluster.  As with getDedicated, it is not started.
+     */
+    public Connection getDedicated(String hostname, int port) throws IOException {
+        return client.makeConnection(hostname, port);
+    }
+
+    /**
+     * Opens enough borrowable connections to satisfy the minimum idle setting.  The connections are opened in parallel,
+     * this method returns once they are all ready.  After this the minimum will be maintained in the background.
+     */
+    public void warmUp() throws IOException, ConnectionException {
+        int required = 0;
+        while (borrowable.idleCount() + required < minIdle && reserve()) {
+            required++;
+        }
+
+        if (required > 0) {
+            ExecutorService executor = Executors.newFixedThreadPool(required, r -> {
+                Thread t = new Thread(r, "Pool-warm-up");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<SingleCommandConnection>> futures = new ArrayList<>(required);
+                for (int i = 0; i < required; i++) {
+                    futures.add(executor.submit(this::createIdle));
+                }
+                for (Future<SingleCommandConnection> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                throw new ConnectionException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof ConnectionException) {
+                    throw (ConnectionException) cause;
+                } else {
+                    throw new IllegalStateException(cause);
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        startMaintenance();
+    }
+
+    /**
+     * Reserve space for a new connection, if the pool isn't already at its maximum size
+     */
+    private boolean reserve() {
+        while (true) {
+            int current = total.get();
+            int max = maxTotal;
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Opens a connection and adds it to the idle connections, the caller must have already reserved space for it.
+     */
+    private SingleCommandConnection createIdle() throws IOException, ConnectionException {
+        SingleCommandConnection con = null;
+        try {
+            con = new SingleCommandConnection(client.makeConnection());
+            borrowable.add(con);
+            return con;
+        } finally {
+            if (con == null) {
+                total.decrementAndGet();
+            }
+        }
+    }
+
     /**
      * A borrowed connection is one that a borrower has exclusive use of until it is returned.  The borrower must
      * return it to avoid any leaks.  It is used mainly for blocking commands like BLPOP.
+     *
+     * If the pool has reached its maximum size, this will wait for another borrower to return a connection.
      */
-    public synchronized SingleCommandConnection getBorrowed() throws IOException, ConnectionException {
-        Iterator<SingleCommandConnection> i = borrowable.iterator();
-        while (i.hasNext()) {
-            SingleCommandConnection con = i.next();
-            i.remove();
+    public SingleCommandConnection getBorrowed() throws IOException, ConnectionException {
+        SingleCommandConnection con = borrowIdle();
+        if (con == null) {
+            if (reserve()) {
+                try {
+                    con = new SingleCommandConnection(client.makeConnection());
+                    borrowable.addBorrowed(con);
+                } finally {
+                    if (con == null) {
+                        total.decrementAndGet();
+                    }
+                }
+            } else {
+                con = awaitIdle();
+            }
+        }
+
+        scheduleRefill();
+        return con;
+    }
 
+    private SingleCommandConnection borrowIdle() {
+        SingleCommandConnection con;
+        while ((con = borrowable.borrow()) != null) {
             if (!con.isShutdown()) {
-                borrowed.add(con);
                 return con;
             }
+            discard(con);
         }
+        return null;
+    }
 
-        SingleCommandConnection con = new SingleCommandConnection(client.makeConnection());
-        borrowed.add(con);
-        return con;
+    private SingleCommandConnection awaitIdle() throws ConnectionException {
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                SingleCommandConnection con = remaining > 0 ? borrowable.borrow(remaining, TimeUnit.MILLISECONDS) : null;
+                if (con == null) {
+                    throw new ConnectionException(String.format("No connection returned within %dms, pool is at its maximum size of %d",
+                            borrowTimeout, maxTotal));
+                }
+                if (!con.isShutdown()) {
+                    return con;
+                }
+                discard(con);
+            }
+        } catch (InterruptedException e) {
+            throw new ConnectionException(e);
+        }
+    }
+
+    private void discard(SingleCommandConnection con) {
+        if (borrowable.remove(con)) {
+            total.decrementAndGet();
+        }
     }
 
     /**
      * Return a borrowed connection
      */
-    public synchronized void returnBorrowed(SingleCommandConnection con) {
-        if (borrowed.remove(con)) {
-            borrowable.add(con);
-        } else {
-            throw new IllegalStateException("This connection was not previously borrowed");
+    public void returnBorrowed(SingleCommandConnection con) {
+        borrowable.requite(con);
+    }
+
+    /**
+     * The number of idle borrowable connections
+     */
+    int idleCount() {
+        return borrowable.idleCount();
+    }
+
+    private void scheduleRefill() {
+        if (idleTimeout > 0 && maintenance == null) {
+            // Otherwise nothing would evict idle connections
+            startMaintenance();
         }
+        if (borrowable.idleCount() < minIdle && refilling.compareAndSet(0, 1)) {
+            startMaintenance().execute(this::refill);
+        }
+    }
+
+    /**
+     * Opens connections, one at a time, until the minimum idle setting is satisfied.
+     */
+    private void refill() {
+        try {
+            while (borrowable.idleCount() < minIdle && reserve()) {
+                createIdle();
+            }
+        } catch (IOException | ConnectionException e) {
+            // Redis may be unavailable, the next maintenance run will try again
+        } finally {
+            refilling.set(0);
+        }
+    }
+
+    /**
+     * Closes connections that have been idle for longer than the idle timeout, while respecting the minimum idle
+     * setting, then tops-up the pool if it's short.
+     */
+    private void maintain() {
+        long cutOff = System.currentTimeMillis() - idleTimeout;
+        List<SingleCommandConnection> evicted = new ArrayList<>();
+
+        for (ConnectionBag.Entry<SingleCommandConnection> entry : borrowable.entries()) {
+            if (!entry.isIdle()) {
+                continue;
+            }
+            boolean dead = entry.value.isShutdown();
+            boolean expired = idleTimeout > 0 && entry.lastReturned < cutOff && borrowable.idleCount() > minIdle;
+            if ((dead || expired) && borrowable.removeIdle(entry)) {
+                total.decrementAndGet();
+                evicted.add(entry.value);
+            }
+        }
+
+        for (SingleCommandConnection con : evicted) {
+            try {
+                con.stop();
+            } catch (IOException e) {
+                // It's being discarded anyway
+            }
+        }
+
+        scheduleRefill();
+    }
+
+    synchronized ScheduledExecutorService startMaintenance() {
+        if (maintenance == null) {
+            maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, String.format("Pool-maintenance-%d", maintenanceThreadId++));
+                t.setDaemon(true);
+                return t;
+            });
+            maintenance.scheduleWithFixedDelay(this::maintain,
+                    MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        return maintenance;
     }
 
     /**
-     * Return a shared pub-sub channel.  A Redis connection that is subscribed to a channel cannot be used for other
-     * purposes
+     * The blocking scheduler multiplexes BLPOP and BRPOP commands from many waiters onto a small number of connections
+     * borrowed from this pool, rather than borrowing one connection per waiter.
      */
-    public synchronized PubSubConnection getPubSub() throws IOException, ConnectionException {
-        if ((pubSub == null) || (pubSub.isShutdown())) {
-            pubSub = new PubSubConnection(client.makeConnection());
+    public BlockingScheduler getBlockingScheduler() {
+        BlockingScheduler scheduler = blockingScheduler;
+        if (scheduler == null) {
+            synchronized (this) {
+                scheduler = blockingScheduler;
+                if (scheduler == null) {
+                    scheduler = new BlockingScheduler(this, blockingConnections);
+                    blockingScheduler = scheduler;
+                }
+            }
         }
-        return pubSub;
+        return scheduler;
+    }
+
+    /**
+     * Return a shared pub-sub channel.  With RESP2, a Redis connection that is subscribed to a channel cannot be used
+     * for other purposes so this will be a connection of its own.  With RESP3 this uses the shared connection.
+     */
+    public PubSubConnection getPubSub() throws IOException, ConnectionException {
+        PubSubConnection con = pubSub;
+        if ((con == null) || (con.isShutdown())) {
+            synchronized (this) {
+                con = pubSub;
+                if ((con == null) || (con.isShutdown())) {
+                    SingleCommandConnection sharedCon = getShared();
+                    if (sharedCon.getProtocol() == 3) {
+                        con = new PubSubConnection(sharedCon);
+                    } else {
+                        con = new PubSubConnection(client.makeConnection());
+                    }
+                    pubSub = con;
+                }
+            }
+        }
+        return con;
+    }
+
+    /**
+     * Subscriptions spread across one or more pub-sub connections, see setPubSubConnections.  Unlike getPubSub,
+     * subscriptions are restored if a connection is lost.
+     */
+    public PubSubGroup getPubSubGroup() {
+        PubSubGroup group = pubSubGroup;
+        if (group == null) {
+            synchronized (this) {
+                group = pubSubGroup;
+                if (group == null) {
+                    group = new PubSubGroup(this, pubSubConnections);
+                    pubSubGroup = group;
+                }
+            }
+        }
+        return group;
+    }
+
+    /**
+     * The nodes of the Redis Cluster, if any, and which of them owns each hash slot
+     */
+    public ClusterNodes getClusterNodes() {
+        ClusterNodes nodes = clusterNodes;
+        if (nodes == null) {
+            synchronized (this) {
+                nodes = clusterNodes;
+                if (nodes == null) {
+                    nodes = new ClusterNodes(this);
+                    clusterNodes = nodes;
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Sharded pub-sub, i.e. SSUBSCRIBE and SPUBLISH, routed to the node that owns each channel's hash slot
+     */
+    public ShardedPubSub getShardedPubSub() {
+        ShardedPubSub sharded = shardedPubSub;
+        if (sharded == null) {
+            synchronized (this) {
+                sharded = shardedPubSub;
+                if (sharded == null) {
+                    sharded = new ShardedPubSub(this);
+                    shardedPubSub = sharded;
+                }
+            }
+        }
+        return sharded;
     }
 
     /**
@@ -128,6 +671,14 @@ public class Pool {
      * shutdown.
      */
     public void shutdown() throws IOException {
+        synchronized (this) {
+            if (pubSubGroup != null) {
+                pubSubGroup.shutdown();
+            }
+            if (maintenance != null) {
+                maintenance.shutdownNow();
+            }
+        }
         client.shutdown();
     }
 }
@@ -22,187 +22,302 @@ import jresp.Responses;
 import jresp.protocol.Ary;
 import jresp.protocol.BulkStr;
 import jresp.protocol.EndOfResponses;
+import jresp.protocol.Int;
 import jresp.protocol.RespType;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PubSubConnection {
-    private static final BulkStr MESSAGE = new BulkStr("message");
-    private static final BulkStr PMESSAGE = new BulkStr("pmessage");
+    private static final int TYPE_UNKNOWN = 0;
+    private static final int TYPE_MESSAGE = 1;
+    private static final int TYPE_PMESSAGE = 2;
+    private static final int TYPE_SUBSCRIBE = 3;
+    private static final int TYPE_PSUBSCRIBE = 4;
+    private static final int TYPE_UNSUBSCRIBE = 5;
+    private static final int TYPE_PUNSUBSCRIBE = 6;
+    private static final int TYPE_SMESSAGE = 7;
+    private static final int TYPE_SSUBSCRIBE = 8;
+    private static final int TYPE_SUNSUBSCRIBE = 9;
+
     private static final BulkStr SUBSCRIBE = new BulkStr("subscribe");
     private static final BulkStr PSUBSCRIBE = new BulkStr("psubscribe");
     private static final BulkStr UNSUBSCRIBE = new BulkStr("unsubscribe");
     private static final BulkStr PUNSUBSCRIBE = new BulkStr("punsubscribe");
+    private static final BulkStr SSUBSCRIBE = new BulkStr("ssubscribe");
+    private static final BulkStr SUNSUBSCRIBE = new BulkStr("sunsubscribe");
+    private static final BulkStr CLIENT = new BulkStr("CLIENT");
+    private static final BulkStr ID = new BulkStr("ID");
+
+    static final long UNKNOWN_CLIENT_ID = -1;
 
+    /**
+     * Either a dedicated connection, or a shared connection that receives messages as RESP3 pushes
+     */
     private Connection connection;
+    private SingleCommandConnection shared;
 
-    private Map<BulkStr, Responses> subscriptions = new HashMap<>();
-    private Map<BulkStr, Responses> psubscriptions = new HashMap<>();
+    /**
+     * Subscribers, these are looked-up without locking and called outside of any lock
+     */
+    private final Map<RespType, Responses> subscriptions = new ConcurrentHashMap<>();
+    private final Map<RespType, Responses> psubscriptions = new ConcurrentHashMap<>();
+    private final Map<RespType, Responses> ssubscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * The CLIENT ID of a dedicated connection, this is needed to redirect client-side caching invalidations to it.  -1
+     * if not known.
+     */
+    private final CompletableFuture<Long> clientId = new CompletableFuture<>();
 
     PubSubConnection(Connection connection) throws IOException, ConnectionException {
         this.connection = connection;
         this.connection.start(this::incoming);
+        this.connection.write(new Ary(CLIENT, ID));
     }
 
-    public void subscribe(String channel, Responses responses) throws PubSubException {
-        BulkStr channelResp = new BulkStr(channel);
-        synchronized (subscriptions) {
-            if (subscriptions.containsKey(channelResp)) {
-                throw new PubSubException("Already subscribed to: " + channel);
-            } else {
-                subscriptions.put(channelResp, responses);
-            }
+    /**
+     * With RESP3 subscriptions can share a connection with other commands
+     */
+    PubSubConnection(SingleCommandConnection shared) {
+        this.shared = shared;
+        this.shared.addPushListener(this::incoming);
+        this.clientId.complete(UNKNOWN_CLIENT_ID);
+    }
+
+    CompletableFuture<Long> clientId() {
+        return clientId;
+    }
+
+    private void send(RespType command) {
+        if (shared != null) {
+            shared.writeWithoutResponse(command);
+        } else {
+            connection.write(command);
         }
-        connection.write(new Ary(Arrays.asList(SUBSCRIBE, channelResp)));
+    }
+
+    public void subscribe(String channel, Responses responses) throws PubSubException {
+        subscribe(Collections.singletonMap(channel, responses));
+    }
+
+    /**
+     * Subscribe to many channels with a single SUBSCRIBE command
+     */
+    public void subscribe(Map<String, Responses> channels) throws PubSubException {
+        addAll(SUBSCRIBE, subscriptions, channels);
     }
 
     public void unsubscribe(String channel) throws PubSubException {
-        BulkStr channelResp = new BulkStr(channel);
-        synchronized (subscriptions) {
-            if (!subscriptions.containsKey(channelResp)) {
-                throw new PubSubException("Not subscribed to: " + channel);
-            }
-        }
-        connection.write(new Ary(Arrays.asList(UNSUBSCRIBE, channelResp)));
+        unsubscribe(Collections.singleton(channel));
+    }
+
+    public void unsubscribe(Collection<String> channels) throws PubSubException {
+        removeAll(UNSUBSCRIBE, subscriptions, channels);
     }
 
     public void psubscribe(String pattern, Responses responses) throws PubSubException {
-        BulkStr patternResp = new BulkStr(pattern);
-        synchronized (psubscriptions) {
-            if (psubscriptions.containsKey(patternResp)) {
-                throw new PubSubException("Already subscribed to: " + pattern);
-            } else {
-                psubscriptions.put(patternResp, responses);
+        psubscribe(Collections.singletonMap(pattern, responses));
+    }
+
+    /**
+     * Subscribe to many patterns with a single PSUBSCRIBE command
+     */
+    public void psubscribe(Map<String, Responses> patterns) throws PubSubException {
+        addAll(PSUBSCRIBE, psubscriptions, patterns);
+    }
+
+    public void punsubscribe(String pattern) throws PubSubException {
+        punsubscribe(Collections.singleton(pattern));
+    }
+
+    public void punsubscribe(Collection<String> patterns) throws PubSubException {
+        removeAll(PUNSUBSCRIBE, psubscriptions, patterns);
+    }
+
+    public void ssubscribe(String channel, Responses responses) throws PubSubException {
+        ssubscribe(Collections.singletonMap(channel, responses));
+    }
+
+    /**
+     * Subscribe to many shard channels with a single SSUBSCRIBE command.  With Redis Cluster these must all hash to
+     * the same slot, see ShardedPubSub.
+     */
+    public void ssubscribe(Map<String, Responses> channels) throws PubSubException {
+        addAll(SSUBSCRIBE, ssubscriptions, channels);
+    }
+
+    public void sunsubscribe(String channel) throws PubSubException {
+        sunsubscribe(Collections.singleton(channel));
+    }
+
+    public void sunsubscribe(Collection<String> channels) throws PubSubException {
+        removeAll(SUNSUBSCRIBE, ssubscriptions, channels);
+    }
+
+    private void addAll(BulkStr command, Map<RespType, Responses> registry, Map<String, Responses> names)
+            throws PubSubException {
+        if (names.isEmpty()) {
+            return;
+        }
+        List<RespType> ary = new ArrayList<>(names.size() + 1);
+        ary.add(command);
+        for (Map.Entry<String, Responses> entry : names.entrySet()) {
+            BulkStr name = BulkStr.get(entry.getKey());
+            if (registry.putIfAbsent(name, entry.getValue()) != null) {
+                // Undo the ones already added, so this either subscribes to all or none
+                ary.subList(1, ary.size()).forEach(registry::remove);
+                throw new PubSubException("Already subscribed to: " + entry.getKey());
             }
+            ary.add(name);
         }
-        connection.write(new Ary(Arrays.asList(PSUBSCRIBE, patternResp)));
+        send(new Ary(ary));
     }
 
-    public void punsubscribe(String pattern) throws PubSubException {
-        BulkStr patternResp = new BulkStr(pattern);
-        synchronized (psubscriptions) {
-            if (!psubscriptions.containsKey(patternResp)) {
-                throw new PubSubException("Not subscribed to: " + pattern);
+    private void removeAll(BulkStr command, Map<RespType, Responses> registry, Collection<String> names)
+            throws PubSubException {
+        if (names.isEmpty()) {
+            return;
+        }
+        List<RespType> ary = new ArrayList<>(names.size() + 1);
+        ary.add(command);
+        for (String nameStr : names) {
+            BulkStr name = BulkStr.get(nameStr);
+            if (!registry.containsKey(name)) {
+                throw new PubSubException("Not subscribed to: " + nameStr);
             }
+            ary.add(name);
         }
-        connection.write(new Ary(Arrays.asList(PUNSUBSCRIBE, patternResp)));
+        send(new Ary(ary));
     }
 
     /**
-     * Processes and routes an incoming message
+     * Processes and routes an incoming message.  The message type is recognised by its length and first byte, rather
+     * than comparing it to each known type in turn.
      */
     public void incoming(RespType rawMessage) {
         if (rawMessage instanceof EndOfResponses) {
+            clientId.complete(UNKNOWN_CLIENT_ID);
             endAllResponses();
+        } else if (!(rawMessage instanceof Ary)) {
+            // The reply to CLIENT ID, or an error if this version of Redis doesn't support it
+            clientId.complete(rawMessage instanceof Int ? (Long) rawMessage.unwrap() : UNKNOWN_CLIENT_ID);
         } else {
-            List<RespType> message = ((Ary) rawMessage).raw();
-            Iterator<RespType> i = message.iterator();
-            RespType msgType = i.next();
-            if (msgType.equals(MESSAGE)) {
-                incomingMessage(i);
-            } else if (msgType.equals(PMESSAGE)) {
-                incomingPMessage(i);
-            } else if (msgType.equals(SUBSCRIBE)) {
-                incomingSubscribe(i);
-            } else if (msgType.equals(PSUBSCRIBE)) {
-                incomingPSubscribe(i);
-            } else if (msgType.equals(UNSUBSCRIBE)) {
-                incomingUnsubscribe(i);
-            } else if (msgType.equals(PUNSUBSCRIBE)) {
-                incomingPUnsubscribe(i);
+            Ary ary = (Ary) rawMessage;
+            List<RespType> message = ary.raw();
+            switch (messageType(message.get(0))) {
+                case TYPE_MESSAGE:
+                    incomingMessage(subscriptions, message);
+                    break;
+                case TYPE_PMESSAGE:
+                    incomingPMessage(ary, message);
+                    break;
+                case TYPE_SMESSAGE:
+                    incomingMessage(ssubscriptions, message);
+                    break;
+                case TYPE_SUBSCRIBE:
+                    incomingSubscribe(subscriptions, message);
+                    break;
+                case TYPE_PSUBSCRIBE:
+                    incomingSubscribe(psubscriptions, message);
+                    break;
+                case TYPE_SSUBSCRIBE:
+                    incomingSubscribe(ssubscriptions, message);
+                    break;
+                case TYPE_UNSUBSCRIBE:
+                    incomingUnsubscribe(subscriptions, message);
+                    break;
+                case TYPE_PUNSUBSCRIBE:
+                    incomingUnsubscribe(psubscriptions, message);
+                    break;
+                case TYPE_SUNSUBSCRIBE:
+                    incomingUnsubscribe(ssubscriptions, message);
+                    break;
+                default:
+                    // Not a pub-sub message, e.g. a RESP3 push for some other purpose
             }
         }
     }
 
+    private static int messageType(RespType type) {
+        byte[] raw = (type instanceof BulkStr) ? ((BulkStr) type).raw() : null;
+        if (raw == null) {
+            return TYPE_UNKNOWN;
+        }
+        switch (raw.length) {
+            case 7:
+                return raw[0] == 'm' ? TYPE_MESSAGE : TYPE_UNKNOWN;
+            case 8:
+                return raw[0] == 'p' ? TYPE_PMESSAGE : raw[0] == 's' ? TYPE_SMESSAGE : TYPE_UNKNOWN;
+            case 9:
+                return raw[0] == 's' ? TYPE_SUBSCRIBE : TYPE_UNKNOWN;
+            case 10:
+                return raw[0] == 'p' ? TYPE_PSUBSCRIBE : raw[0] == 's' ? TYPE_SSUBSCRIBE : TYPE_UNKNOWN;
+            case 11:
+                return raw[0] == 'u' ? TYPE_UNSUBSCRIBE : TYPE_UNKNOWN;
+            case 12:
+                return raw[0] == 'p' ? TYPE_PUNSUBSCRIBE : raw[0] == 's' ? TYPE_SUNSUBSCRIBE : TYPE_UNKNOWN;
+            default:
+                return TYPE_UNKNOWN;
+        }
+    }
+
     /**
      * If the connection is closed, this signals to all subscriptions that the connection has been closed.
      * Any pending async requests will then end (e.g. a channel can be closed).
      */
     private void endAllResponses() {
-        synchronized (psubscriptions) {
-            psubscriptions.values().forEach(responses -> responses.responseReceived(new EndOfResponses()));
-        }
-
-        synchronized (subscriptions) {
-            subscriptions.values().forEach(responses -> responses.responseReceived(new EndOfResponses()));
-        }
+        EndOfResponses end = new EndOfResponses();
+        psubscriptions.values().forEach(responses -> responses.responseReceived(end));
+        ssubscriptions.values().forEach(responses -> responses.responseReceived(end));
+        subscriptions.values().forEach(responses -> responses.responseReceived(end));
     }
 
-    private void incomingPUnsubscribe(Iterator<RespType> i) {
-        BulkStr pattern = (BulkStr)i.next();
-
-        Responses resps;
-        synchronized (psubscriptions) {
-            resps = psubscriptions.remove(pattern);
+    private void incomingUnsubscribe(Map<RespType, Responses> registry, List<RespType> message) {
+        Responses resps = registry.remove(message.get(1));
+        if (resps != null) {
+            resps.responseReceived(new EndOfResponses());
         }
-
-        resps.responseReceived(new EndOfResponses());
     }
 
-    private void incomingUnsubscribe(Iterator<RespType> i) {
-        BulkStr channel = (BulkStr)i.next();
-
-        Responses resps;
-        synchronized (subscriptions) {
-            resps = subscriptions.remove(channel);
-        }
-
-        resps.responseReceived(new EndOfResponses());
-    }
-
-    private void incomingPSubscribe(Iterator<RespType> i) {
-        BulkStr pattern = (BulkStr)i.next();
-
-        synchronized (psubscriptions) {
-            Responses responses = psubscriptions.get(pattern);
-            if (responses == null) {
-                throw new IllegalStateException("Not a recognised pattern: " + pattern);
-            }
-            responses.responseReceived(pattern);
-        }
-    }
-
-    private void incomingSubscribe(Iterator<RespType> i) {
-        BulkStr channel = (BulkStr)i.next();
-
-        synchronized (subscriptions) {
-            Responses responses = subscriptions.get(channel);
-            if (responses == null) {
-                throw new IllegalStateException("Not a recognised channel: " + channel);
-            }
-            responses.responseReceived(channel);
+    private void incomingSubscribe(Map<RespType, Responses> registry, List<RespType> message) {
+        RespType name = message.get(1);
+        Responses responses = registry.get(name);
+        if (responses == null) {
+            throw new IllegalStateException("Not a recognised channel or pattern: " + name);
         }
+        responses.responseReceived(name);
     }
 
-    private void incomingPMessage(Iterator<RespType> i) {
-        BulkStr pattern = (BulkStr)i.next();
-        BulkStr channel = (BulkStr)i.next();
-
-        Ary ary = new Ary(Arrays.asList(channel, i.next()));
-
-        synchronized (psubscriptions) {
-            Responses responses = psubscriptions.get(pattern);
-            if (responses == null) {
-                throw new IllegalStateException("Not believed to be subscribed to: " + pattern);
-            }
-            responses.responseReceived(ary);
+    /**
+     * A pmessage is [pmessage, pattern, channel, payload], subscribers receive [channel, payload].  The incoming array
+     * is trimmed and passed on, rather than allocating another.
+     */
+    private void incomingPMessage(Ary ary, List<RespType> message) {
+        RespType pattern = message.get(1);
+        Responses responses = psubscriptions.get(pattern);
+        if (responses == null) {
+            throw new IllegalStateException("Not believed to be subscribed to: " + pattern);
         }
+        message.subList(0, 2).clear();
+        responses.responseReceived(ary);
     }
 
-    private void incomingMessage(Iterator<RespType> i) {
-        BulkStr channel = (BulkStr)i.next();
-
-        synchronized (subscriptions) {
-            Responses responses = subscriptions.get(channel);
-            if (responses == null) {
-                throw new IllegalStateException("Not believed to be subscribed to: " + channel);
-            }
-            responses.responseReceived(i.next());
+    /**
+     * A message or smessage is [type, channel, payload], subscribers receive the payload
+     */
+    private void incomingMessage(Map<RespType, Responses> registry, List<RespType> message) {
+        RespType channel = message.get(1);
+        Responses responses = registry.get(channel);
+        if (responses == null) {
+            throw new IllegalStateException("Not believed to be subscribed to: " + channel);
         }
+        responses.responseReceived(message.get(2));
     }
 
     public boolean isShutdown() {
-        return connection.isShutdown();
+        return (shared != null) ? shared.isShutdown() : connection.isShutdown();
     }
 }
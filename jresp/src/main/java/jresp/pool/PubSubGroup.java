@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.ConnectionException;
+import jresp.Responses;
+import jresp.protocol.EndOfResponses;
+import jresp.protocol.RespType;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Subscriptions spread over a number of pub-sub connections, each channel or pattern is assigned to a connection by
+ * its hash.  Should a connection be lost, its subscriptions are restored on a new connection in the background.
+ *
+ * Subscribers are only sent EndOfResponses when they unsubscribe, or when the pool is shutdown.
+ */
+public class PubSubGroup {
+    private static final long RESTORE_RETRY_INTERVAL = 1000;
+
+    private final Pool pool;
+
+    /**
+     * The pool's maintenance thread, restores are run here rather than on the connection's thread
+     */
+    private final ScheduledExecutorService executor;
+
+    private final Shard[] shards;
+
+    private volatile boolean shutdown = false;
+
+    PubSubGroup(Pool pool, int connections) {
+        this.pool = pool;
+        this.executor = pool.startMaintenance();
+        this.shards = new Shard[connections];
+        for (int i = 0; i < connections; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public String toString() {
+        return String.format("%s[shards=%s]", getClass().getName(), Arrays.toString(shards));
+    }
+
+    private Shard shardFor(String name) {
+        return shards[Math.floorMod(name.hashCode(), shards.length)];
+    }
+
+    public void subscribe(String channel, Responses responses)
+            throws IOException, ConnectionException, PubSubException {
+        subscribe(Collections.singletonMap(channel, responses));
+    }
+
+    /**
+     * Subscribe to many channels, with one SUBSCRIBE command per connection
+     */
+    public void subscribe(Map<String, Responses> channels) throws IOException, ConnectionException, PubSubException {
+        for (Map.Entry<Shard, Map<String, Responses>> entry : byShard(channels).entrySet()) {
+            entry.getKey().subscribe(false, entry.getValue());
+        }
+    }
+
+    public void unsubscribe(String channel) throws PubSubException {
+        unsubscribe(Collections.singleton(channel));
+    }
+
+    public void unsubscribe(Collection<String> channels) throws PubSubException {
+        for (Map.Entry<Shard, Map<String, Responses>> entry : byShard(channels).entrySet()) {
+            entry.getKey().unsubscribe(false, entry.getValue().keySet());
+        }
+    }
+
+    public void psubscribe(String pattern, Responses responses)
+            throws IOException, ConnectionException, PubSubException {
+        psubscribe(Collections.singletonMap(pattern, responses));
+    }
+
+    /**
+     * Subscribe to many patterns, with one PSUBSCRIBE command per connection
+     */
+    public void psubscribe(Map<String, Responses> patterns) throws IOException, ConnectionException, PubSubException {
+        for (Map.Entry<Shard, Map<String, Responses>> entry : byShard(patterns).entrySet()) {
+            entry.getKey().subscribe(true, entry.getValue());
+        }
+    }
+
+    public void punsubscribe(String pattern) throws PubSubException {
+        punsubscribe(Collections.singleton(pattern));
+    }
+
+    public void punsubscribe(Collection<String> patterns) throws PubSubException {
+        for (Map.Entry<Shard, Map<String, Responses>> entry : byShard(patterns).entrySet()) {
+            entry.getKey().unsubscribe(true, entry.getValue().keySet());
+        }
+    }
+
+    private Map<Shard, Map<String, Responses>> byShard(Map<String, Responses> names) {
+        Map<Shard, Map<String, Responses>> result = new LinkedHashMap<>();
+        names.forEach((name, responses) ->
+                result.computeIfAbsent(shardFor(name), s -> new LinkedHashMap<>()).put(name, responses));
+        return result;
+    }
+
+    private Map<Shard, Map<String, Responses>> byShard(Collection<String> names) {
+        Map<Shard, Map<String, Responses>> result = new LinkedHashMap<>();
+        names.forEach(name -> result.computeIfAbsent(shardFor(name), s -> new LinkedHashMap<>()).put(name, null));
+        return result;
+    }
+
+    /**
+     * Stop restoring subscriptions, in preparation for the connections being closed
+     */
+    void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * A subscription to a channel or pattern, which may outlive the connection it was made on
+     */
+    private static class Subscription {
+        private final Responses responses;
+
+        /**
+         * The connection this is currently subscribed on
+         */
+        private volatile PubSubConnection connection;
+
+        Subscription(Responses responses) {
+            this.responses = responses;
+        }
+    }
+
+    private class Shard {
+        private PubSubConnection connection;
+
+        private final Map<String, Subscription> channels = new ConcurrentHashMap<>();
+        private final Map<String, Subscription> patterns = new ConcurrentHashMap<>();
+
+        private final AtomicBoolean restoreScheduled = new AtomicBoolean();
+
+        public String toString() {
+            return String.format("Shard[channels=%d,patterns=%d]", channels.size(), patterns.size());
+        }
+
+        /**
+         * The connection for this shard, opening a new one if required.  With RESP3, and only one shard, subscriptions
+         * share the pool's shared connection.
+         */
+        private PubSubConnection connection() throws IOException, ConnectionException {
+            if (connection == null || connection.isShutdown()) {
+                if (shards.length == 1 && pool.getShared().getProtocol() == 3) {
+                    connection = pool.getPubSub();
+                } else {
+                    connection = new PubSubConnection(pool.getDedicated());
+                }
+            }
+            return connection;
+        }
+
+        synchronized void subscribe(boolean pattern, Map<String, Responses> names)
+                throws IOException, ConnectionException, PubSubException {
+            Map<String, Subscription> registry = pattern ? patterns : channels;
+            for (String name : names.keySet()) {
+                if (registry.containsKey(name)) {
+                    throw new PubSubException("Already subscribed to: " + name);
+                }
+            }
+
+            PubSubConnection con = connection();
+            Map<String, Responses> listeners = new LinkedHashMap<>();
+            names.forEach((name, responses) -> {
+                Subscription sub = new Subscription(responses);
+                sub.connection = con;
+                registry.put(name, sub);
+                listeners.put(name, listener(registry, name, sub, con, false));
+            });
+            try {
+                send(con, pattern, listeners);
+            } catch (PubSubException e) {
+                names.keySet().forEach(registry::remove);
+                throw e;
+            }
+        }
+
+        synchronized void unsubscribe(boolean pattern, Collection<String> names) throws PubSubException {
+            Map<String, Subscription> registry = pattern ? patterns : channels;
+            for (String name : names) {
+                if (!registry.containsKey(name)) {
+                    throw new PubSubException("Not subscribed to: " + name);
+                }
+            }
+
+            // Removed from the registry first, so the resulting EndOfResponses are passed on
+            Map<PubSubConnection, List<String>> byConnection = new HashMap<>();
+            for (String name : names) {
+                Subscription sub = registry.remove(name);
+                if (sub.connection.isShutdown()) {
+                    // Lost before it could be restored, so there's nothing to unsubscribe from
+                    sub.responses.responseReceived(new EndOfResponses());
+                } else {
+                    byConnection.computeIfAbsent(sub.connection, c -> new ArrayList<>()).add(name);
+                }
+            }
+            for (Map.Entry<PubSubConnection, List<String>> entry : byConnection.entrySet()) {
+                if (pattern) {
+                    entry.getKey().punsubscribe(entry.getValue());
+                } else {
+                    entry.getKey().unsubscribe(entry.getValue());
+                }
+            }
+        }
+
+        private void send(PubSubConnection con, boolean pattern, Map<String, Responses> listeners)
+                throws PubSubException {
+            if (pattern) {
+                con.psubscribe(listeners);
+            } else {
+                con.subscribe(listeners);
+            }
+        }
+
+        /**
+         * Passes messages to the subscriber, unless the connection has been lost in which case the subscription is
+         * restored.  A restored subscription's confirmation is not passed on, the subscriber has already had one.
+         */
+        private Responses listener(Map<String, Subscription> registry, String name, Subscription sub,
+                                   PubSubConnection con, boolean restored) {
+            boolean[] skip = {restored};
+            return resp -> {
+                if (resp instanceof EndOfResponses) {
+                    if (registry.get(name) != sub) {
+                        // Unsubscribed
+                        sub.responses.responseReceived(resp);
+                    } else if (sub.connection == con) {
+                        lost(registry, name, sub);
+                    }
+                } else if (skip[0]) {
+                    skip[0] = false;
+                } else {
+                    sub.responses.responseReceived(resp);
+                }
+            };
+        }
+
+        private void lost(Map<String, Subscription> registry, String name, Subscription sub) {
+            if (!shutdown && scheduleRestore(0)) {
+                return;
+            }
+            registry.remove(name, sub);
+            sub.responses.responseReceived(new EndOfResponses());
+        }
+
+        /**
+         * Returns false if the pool is being shutdown
+         */
+        private boolean scheduleRestore(long delay) {
+            if (restoreScheduled.compareAndSet(false, true)) {
+                try {
+                    executor.schedule(this::restore, delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    restoreScheduled.set(false);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Re-subscribe, in bulk, everything that was subscribed on a lost connection
+         */
+        private void restore() {
+            synchronized (this) {
+                restoreScheduled.set(false);
+                if (shutdown) {
+                    return;
+                }
+                try {
+                    PubSubConnection con = connection();
+                    resubscribe(con, false, channels);
+                    resubscribe(con, true, patterns);
+                } catch (IOException | ConnectionException | PubSubException e) {
+                    // Redis may be unavailable, try again shortly
+                    scheduleRestore(RESTORE_RETRY_INTERVAL);
+                }
+            }
+        }
+
+        private void resubscribe(PubSubConnection con, boolean pattern, Map<String, Subscription> registry)
+                throws PubSubException {
+            Map<String, Responses> listeners = new LinkedHashMap<>();
+            registry.forEach((name, sub) -> {
+                if (sub.connection != con) {
+                    sub.connection = con;
+                    listeners.put(name, listener(registry, name, sub, con, true));
+                }
+            });
+            send(con, pattern, listeners);
+        }
+    }
+}
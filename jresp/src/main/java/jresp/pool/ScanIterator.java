@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
+import jresp.protocol.EndOfResponses;
+import jresp.protocol.Err;
+import jresp.protocol.RespType;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over the elements returned by a cursor-based command: SCAN, SSCAN, HSCAN or ZSCAN.  The next page is
+ * requested as soon as the previous one is taken by the iterating thread, so the round-trip overlaps with the
+ * processing of the current page.  At most one page per connection is fetched ahead.
+ *
+ * Given several connections (e.g. one per Redis Cluster node, for SCAN) they are each scanned in parallel, and their
+ * pages returned in whichever order they arrive.
+ *
+ * For HSCAN and ZSCAN the elements alternate between field (or member) and value (or score).  Redis may return an
+ * element more than once, as described in the documentation of SCAN.
+ */
+public class ScanIterator implements Iterator<RespType> {
+    private static final BulkStr START = new BulkStr("0");
+
+    private static final long PAGE_TIMEOUT = 30000;
+
+    private final List<RespType> command;
+    private final List<RespType> options;
+
+    private final BlockingQueue<Page> pages = new LinkedBlockingQueue<>();
+
+    /**
+     * The number of connections that have not yet returned their final page
+     */
+    private int remaining;
+
+    private Iterator<RespType> current = Collections.emptyIterator();
+
+    /**
+     * @param command the command and any arguments that come before the cursor, e.g. [HSCAN, key]
+     * @param options any arguments that come after the cursor, e.g. [COUNT, 1000]
+     */
+    public ScanIterator(SingleCommandConnection connection, List<RespType> command, List<RespType> options) {
+        this(Collections.singletonList(connection), command, options);
+    }
+
+    public ScanIterator(Collection<SingleCommandConnection> connections, List<RespType> command,
+                        List<RespType> options) {
+        this.command = command;
+        this.options = options;
+        this.remaining = connections.size();
+        for (SingleCommandConnection connection : connections) {
+            fetch(connection, START);
+        }
+    }
+
+    private void fetch(SingleCommandConnection connection, RespType cursor) {
+        List<RespType> ary = new ArrayList<>(command.size() + 1 + options.size());
+        ary.addAll(command);
+        ary.add(cursor);
+        ary.addAll(options);
+        connection.write(new Ary(ary), resp -> pages.add(new Page(connection, resp)));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (remaining == 0) {
+                return false;
+            }
+            current = take().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public RespType next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Take the next page to arrive, requesting the page after it before it's returned.  Each page is [cursor,
+     * [elements...]], a cursor of zero means the scan of that connection has finished.
+     */
+    private List<RespType> take() {
+        Page page;
+        try {
+            page = pages.poll(PAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (page == null) {
+            throw new IllegalStateException("Timed out waiting for the next page of a scan");
+        } else if (page.response instanceof Err) {
+            throw new IllegalStateException("Scan failed: " + page.response.unwrap());
+        } else if (page.response instanceof EndOfResponses) {
+            throw new IllegalStateException("Connection closed during scan");
+        }
+
+        List<RespType> reply = ((Ary) page.response).raw();
+        RespType cursor = reply.get(0);
+        if (cursor.equals(START)) {
+            remaining--;
+        } else {
+            fetch(page.connection, cursor);
+        }
+        return ((Ary) reply.get(1)).raw();
+    }
+
+    private static class Page {
+        private final SingleCommandConnection connection;
+        private final RespType response;
+
+        Page(SingleCommandConnection connection, RespType response) {
+            this.connection = connection;
+            this.response = response;
+        }
+    }
+}
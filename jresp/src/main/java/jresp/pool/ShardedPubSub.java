@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.ConnectionException;
+import jresp.Responses;
+import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
+import jresp.protocol.EndOfResponses;
+import jresp.protocol.Err;
+import jresp.protocol.RespType;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sharded pub-sub, as introduced in Redis 7.  Each shard channel belongs to a hash slot, subscriptions and publishes
+ * are sent to the node that owns that slot (see ClusterNodes), so with Redis Cluster the traffic is spread across the
+ * nodes.
+ *
+ * A publish that is redirected with MOVED updates the owner of that slot and is resent.  If Redis moves a slot
+ * elsewhere it ends the subscriptions to its channels, as does the loss of a connection, subscribers receive
+ * EndOfResponses.
+ */
+public class ShardedPubSub {
+    private static final BulkStr SPUBLISH = new BulkStr("SPUBLISH");
+
+    private final Pool pool;
+
+    private final ClusterNodes nodes;
+
+    /**
+     * The pool's maintenance thread, redirected publishes are resent from here
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Dedicated pub-sub connections to nodes other than the pool's own server
+     */
+    private final Map<InetSocketAddress, PubSubConnection> subscribers = new HashMap<>();
+
+    /**
+     * The connection each shard channel is subscribed on
+     */
+    private final Map<String, PubSubConnection> subscribed = new ConcurrentHashMap<>();
+
+    ShardedPubSub(Pool pool) {
+        this.pool = pool;
+        this.nodes = pool.getClusterNodes();
+        this.executor = pool.startMaintenance();
+    }
+
+    public String toString() {
+        return String.format("%s[subscribers=%s,subscribed=%d]",
+                getClass().getName(), subscribers.keySet(), subscribed.size());
+    }
+
+    public void ssubscribe(String channel, Responses responses)
+            throws IOException, ConnectionException, PubSubException {
+        ssubscribe(Collections.singletonMap(channel, responses));
+    }
+
+    /**
+     * Subscribe to many shard channels, with one SSUBSCRIBE command per slot as Redis Cluster requires
+     */
+    public synchronized void ssubscribe(Map<String, Responses> channels)
+            throws IOException, ConnectionException, PubSubException {
+        for (String channel : channels.keySet()) {
+            if (subscribed.containsKey(channel)) {
+                throw new PubSubException("Already subscribed to: " + channel);
+            }
+        }
+
+        Map<Integer, Map<String, Responses>> bySlot = new LinkedHashMap<>();
+        channels.forEach((channel, responses) -> bySlot
+                .computeIfAbsent(HashSlots.slot(channel), s -> new LinkedHashMap<>())
+                .put(channel, responses));
+
+        for (Map.Entry<Integer, Map<String, Responses>> entry : bySlot.entrySet()) {
+            PubSubConnection con = subscriber(nodes.owner(entry.getKey()));
+            Map<String, Responses> listeners = new LinkedHashMap<>();
+            entry.getValue().forEach((channel, responses) -> {
+                subscribed.put(channel, con);
+                listeners.put(channel, listener(channel, con, responses));
+            });
+            con.ssubscribe(listeners);
+        }
+    }
+
+    public void sunsubscribe(String channel) throws PubSubException {
+        sunsubscribe(Collections.singleton(channel));
+    }
+
+    public synchronized void sunsubscribe(Collection<String> channels) throws PubSubException {
+        Map<PubSubConnection, List<String>> byConnection = new HashMap<>();
+        for (String channel : channels) {
+            PubSubConnection con = subscribed.get(channel);
+            if (con == null) {
+                throw new PubSubException("Not subscribed to: " + channel);
+            }
+            byConnection.computeIfAbsent(con, c -> new ArrayList<>()).add(channel);
+        }
+        for (Map.Entry<PubSubConnection, List<String>> entry : byConnection.entrySet()) {
+            entry.getKey().sunsubscribe(entry.getValue());
+        }
+    }
+
+    private Responses listener(String channel, PubSubConnection con, Responses responses) {
+        return resp -> {
+            if (resp instanceof EndOfResponses) {
+                subscribed.remove(channel, con);
+            }
+            responses.responseReceived(resp);
+        };
+    }
+
+    /**
+     * Publish a message to a shard channel, the response is the number of subscribers that received it
+     */
+    public void spublish(String channel, RespType message, Responses responses)
+            throws IOException, ConnectionException {
+        int slot = HashSlots.slot(channel);
+        Ary command = new Ary(SPUBLISH, BulkStr.get(channel), message);
+        nodes.connection(nodes.owner(slot)).write(command, resp -> {
+            if (!(resp instanceof Err) || !nodes.isMoved((Err) resp)) {
+                responses.responseReceived(resp);
+                return;
+            }
+            // Possibly back to the pool's own server, which is null
+            InetSocketAddress movedTo = nodes.movedTo((Err) resp);
+            nodes.moved(slot, movedTo);
+            // Not on this thread, opening a connection to the new owner may block
+            executor.execute(() -> {
+                try {
+                    nodes.connection(movedTo).write(command, responses);
+                } catch (IOException | ConnectionException e) {
+                    responses.responseReceived(resp);
+                }
+            });
+        });
+    }
+
+    /**
+     * Re-read the owner of each slot, e.g. after the cluster has been resharded.  Existing subscriptions are not
+     * moved.
+     */
+    public void refresh() throws IOException, ConnectionException {
+        nodes.refresh();
+    }
+
+    private synchronized PubSubConnection subscriber(InetSocketAddress node) throws IOException, ConnectionException {
+        if (node == null) {
+            return pool.getPubSub();
+        }
+        PubSubConnection con = subscribers.get(node);
+        if (con == null || con.isShutdown()) {
+            con = new PubSubConnection(pool.getDedicated(node.getHostString(), node.getPort()));
+            subscribers.put(node, con);
+        }
+        return con;
+    }
+}
@@ -18,14 +18,22 @@ package jresp.pool;
 
 import jresp.Connection;
 import jresp.ConnectionException;
+import jresp.ReplyDecoder;
 import jresp.Responses;
+import jresp.metrics.Metrics;
 import jresp.protocol.ClientErr;
 import jresp.protocol.EndOfResponses;
+import jresp.protocol.Push;
 import jresp.protocol.RespType;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A connection used solely for commands that have a single response to each request
@@ -35,18 +43,64 @@ public class SingleCommandConnection {
 
     private final Deque<Responses> responseQueue = new ArrayDeque<>();
 
+    /**
+     * When metrics are enabled, the time each command in the response queue was queued
+     */
+    private final TimestampQueue queuedAt = new TimestampQueue();
+    private final Deque<RespType> queuedCommands = new ArrayDeque<>();
+
+    /**
+     * The number of replies expected, including those already received, so each can be numbered for
+     * Connection.expect.  Guarded by responseQueue.
+     */
+    private long replies;
+
+    private final Metrics metrics;
+
+    private final boolean timed;
+
+    /**
+     * Receivers of RESP3 push messages, these are not responses to any particular command
+     */
+    private final List<Responses> pushListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * An optional cache of replies to read commands, see NearCache
+     */
+    private volatile NearCache nearCache;
+
+    /**
+     * The SHA1s of the Lua scripts known to have been sent via this connection, and therefore cached by the server
+     */
+    private final Set<String> scripts = ConcurrentHashMap.newKeySet();
+
     public SingleCommandConnection(Connection connection) throws IOException, ConnectionException {
         this.connection = connection;
+        this.metrics = connection.getMetrics();
+        this.timed = metrics.isEnabled();
         this.connection.start(this::dispatcher);
+        this.replies = connection.repliesRead();
     }
 
     private void dispatcher(RespType resp) {
-        if (resp instanceof EndOfResponses) {
+        if (resp instanceof Push) {
+            long start = timed ? System.nanoTime() : 0;
+            pushListeners.forEach(listener -> listener.responseReceived(resp));
+            if (timed) {
+                metrics.callback(connection.getId(), System.nanoTime() - start);
+            }
+        } else if (resp instanceof EndOfResponses) {
             synchronized (responseQueue) {
                 responseQueue.forEach(responder -> responder.responseReceived(resp));
+                queuedAt.clear();
+                queuedCommands.clear();
             }
+            pushListeners.forEach(listener -> listener.responseReceived(resp));
         } else {
             Responses respondTo = null;
+            RespType command = null;
+            long start = 0;
+            long queued = 0;
             synchronized (responseQueue) {
                 if (responseQueue.isEmpty()) {
                     if (resp instanceof ClientErr) {
@@ -57,22 +111,181 @@ public class SingleCommandConnection {
                     }
                 } else {
                     respondTo = responseQueue.pop();
+                    if (timed) {
+                        start = System.nanoTime();
+                        command = queuedCommands.pop();
+                        queued = queuedAt.pop();
+                    }
                 }
             }
             if (respondTo != null) {
+                if (timed) {
+                    // Not while holding the lock, as this walks the reply and may wait for the slow log
+                    metrics.commandLatency(connection.getId(), command, resp, start - queued);
+                    // So the watchdog can report which command a stalled callback belongs to
+                    connection.dispatching(command);
+                }
                 respondTo.responseReceived(resp);
+                if (timed) {
+                    connection.dispatching(null);
+                    metrics.callback(connection.getId(), System.nanoTime() - start);
+                }
             }
         }
     }
 
+    /**
+     * Must be called while holding the lock on responseQueue, after adding to it
+     */
+    private void queued(RespType command) {
+        if (timed) {
+            queuedAt.add(System.nanoTime());
+            queuedCommands.add(command);
+            metrics.responseQueueDepth(connection.getId(), responseQueue.size());
+        }
+    }
+
+    private void queued(List<RespType> commands) {
+        if (timed) {
+            long now = System.nanoTime();
+            for (RespType command : commands) {
+                queuedAt.add(now);
+                queuedCommands.add(command);
+            }
+            metrics.responseQueueDepth(connection.getId(), responseQueue.size());
+        }
+    }
+
     public void write(RespType command, Responses responses) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            responses = cache.intercept(this, command, responses);
+            if (responses == null) {
+                return;
+            }
+        }
+        synchronized (responseQueue) {
+            responseQueue.add(responses);
+            replies++;
+            queued(command);
+            connection.write(command);
+        }
+    }
+
+    /**
+     * As write, but the reply is decoded by the decoder as it is read, and received as a Decoded (or an Err if Redis
+     * replied with an error).  This bypasses any near cache.
+     */
+    public void write(RespType command, ReplyDecoder<?> decoder, Responses responses) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.written(command);
+        }
         synchronized (responseQueue) {
             responseQueue.add(responses);
+            connection.expect(++replies, decoder);
+            queued(command);
             connection.write(command);
         }
     }
 
+    /**
+     * Write a batch of commands as one contiguous write, each command has the responses at the same position
+     */
+    void write(List<RespType> commands, List<Responses> responses) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            List<RespType> uncachedCommands = new ArrayList<>(commands.size());
+            List<Responses> uncachedResponses = new ArrayList<>(responses.size());
+            for (int i = 0; i < commands.size(); i++) {
+                Responses r = cache.intercept(this, commands.get(i), responses.get(i));
+                if (r != null) {
+                    uncachedCommands.add(commands.get(i));
+                    uncachedResponses.add(r);
+                }
+            }
+            commands = uncachedCommands;
+            responses = uncachedResponses;
+        }
+        if (commands.isEmpty()) {
+            return;
+        }
+        synchronized (responseQueue) {
+            responseQueue.addAll(responses);
+            replies += responses.size();
+            queued(commands);
+            connection.writeAll(commands);
+        }
+    }
+
+    /**
+     * Write a batch of commands as one contiguous write, bypassing any cache.  This is for transactions, where every
+     * command must be sent to the server.
+     */
+    void writeTransaction(List<RespType> commands, List<Responses> responses) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            commands.forEach(cache::written);
+        }
+        synchronized (responseQueue) {
+            responseQueue.addAll(responses);
+            replies += responses.size();
+            queued(commands);
+            connection.writeAll(commands);
+        }
+    }
+
+    /**
+     * Send a command that has no response of its own, i.e. one where the server replies with push messages only.
+     * This is only valid when RESP3 is in use, e.g. SUBSCRIBE.
+     */
+    public void writeWithoutResponse(RespType command) {
+        connection.write(command);
+    }
+
+    /**
+     * Listen to RESP3 push messages received on this connection.  The listener will also be notified when the
+     * connection is closed.
+     */
+    public void addPushListener(Responses listener) {
+        pushListeners.add(listener);
+    }
+
+    public void removePushListener(Responses listener) {
+        pushListeners.remove(listener);
+    }
+
+    public boolean isScriptLoaded(String sha) {
+        return scripts.contains(sha);
+    }
+
+    public void scriptLoaded(String sha) {
+        scripts.add(sha);
+    }
+
+    /**
+     * The server no longer has this script, e.g. after SCRIPT FLUSH or a fail-over
+     */
+    public void scriptUnloaded(String sha) {
+        scripts.remove(sha);
+    }
+
+    void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * The version of RESP negotiated for this connection
+     */
+    public int getProtocol() {
+        return connection.getProtocol();
+    }
+
     public boolean isShutdown() {
         return connection.isShutdown();
     }
+
+    public void stop() throws IOException {
+        connection.stop();
+    }
 }
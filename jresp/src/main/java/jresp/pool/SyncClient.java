@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.ConnectionException;
+import jresp.Responses;
+import jresp.protocol.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A blocking facade over a pool's shared connection.  Each call writes its command to the shared connection, then
+ * parks the calling thread until the reply arrives, so commands from many threads are still pipelined together.
+ *
+ * Parking uses LockSupport rather than a lock or latch, and no monitor is held while parked, so this is cheap for
+ * virtual threads, which are unmounted from their carrier while they wait.
+ */
+public class SyncClient {
+    private static final long DEFAULT_TIMEOUT = 5000;
+
+    private static final BulkStr GET = BulkStr.get("GET");
+    private static final BulkStr SET = BulkStr.get("SET");
+    private static final BulkStr DEL = BulkStr.get("DEL");
+    private static final BulkStr INCR = BulkStr.get("INCR");
+    private static final BulkStr EXISTS = BulkStr.get("EXISTS");
+    private static final BulkStr EXPIRE = BulkStr.get("EXPIRE");
+    private static final BulkStr HGET = BulkStr.get("HGET");
+    private static final BulkStr HSET = BulkStr.get("HSET");
+    private static final BulkStr HGETALL = BulkStr.get("HGETALL");
+    private static final BulkStr PUBLISH = BulkStr.get("PUBLISH");
+    private static final BulkStr PING = BulkStr.get("PING");
+
+    private final Pool pool;
+
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    public SyncClient(Pool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * How long, in milliseconds, to wait for each reply
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Send any command, and wait for its reply.  An error reply is thrown as a CommandException.
+     */
+    public RespType send(RespType command) throws IOException, ConnectionException, CommandException {
+        Reply reply = new Reply();
+        pool.getShared().write(command, reply);
+        return reply.await(TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    public RespType send(String command, String... args) throws IOException, ConnectionException, CommandException {
+        RespType[] ary = new RespType[args.length + 1];
+        ary[0] = BulkStr.get(command);
+        for (int i = 0; i < args.length; i++) {
+            ary[i + 1] = new BulkStr(args[i]);
+        }
+        return send(new Ary(ary));
+    }
+
+    public String get(String key) throws IOException, ConnectionException, CommandException {
+        return (String) send(new Ary(GET, new BulkStr(key))).unwrap();
+    }
+
+    public void set(String key, String value) throws IOException, ConnectionException, CommandException {
+        send(new Ary(SET, new BulkStr(key), new BulkStr(value)));
+    }
+
+    public long del(String... keys) throws IOException, ConnectionException, CommandException {
+        RespType[] ary = new RespType[keys.length + 1];
+        ary[0] = DEL;
+        for (int i = 0; i < keys.length; i++) {
+            ary[i + 1] = new BulkStr(keys[i]);
+        }
+        return (Long) send(new Ary(ary)).unwrap();
+    }
+
+    public long incr(String key) throws IOException, ConnectionException, CommandException {
+        return (Long) send(new Ary(INCR, new BulkStr(key))).unwrap();
+    }
+
+    public boolean exists(String key) throws IOException, ConnectionException, CommandException {
+        return (Long) send(new Ary(EXISTS, new BulkStr(key))).unwrap() > 0;
+    }
+
+    /**
+     * Returns false if the key doesn't exist
+     */
+    public boolean expire(String key, long seconds) throws IOException, ConnectionException, CommandException {
+        return (Long) send(new Ary(EXPIRE, new BulkStr(key), new BulkStr(Long.toString(seconds)))).unwrap() > 0;
+    }
+
+    public String hget(String key, String field) throws IOException, ConnectionException, CommandException {
+        return (String) send(new Ary(HGET, new BulkStr(key), new BulkStr(field))).unwrap();
+    }
+
+    public void hset(String key, String field, String value)
+            throws IOException, ConnectionException, CommandException {
+        send(new Ary(HSET, new BulkStr(key), new BulkStr(field), new BulkStr(value)));
+    }
+
+    /**
+     * With RESP2 the reply is a list of alternating fields and values, with RESP3 it's a map
+     */
+    public Map<String, String> hgetall(String key) throws IOException, ConnectionException, CommandException {
+        RespType reply = send(new Ary(HGETALL, new BulkStr(key)));
+        Map<String, String> result = new HashMap<>();
+        if (reply instanceof Dict) {
+            ((Dict) reply).raw().forEach((field, value) ->
+                    result.put((String) field.unwrap(), (String) value.unwrap()));
+        } else {
+            List<RespType> elements = ((Ary) reply).raw();
+            for (int i = 0; i < elements.size(); i += 2) {
+                result.put((String) elements.get(i).unwrap(), (String) elements.get(i + 1).unwrap());
+            }
+        }
+        return result;
+    }
+
+    public long publish(String channel, String message) throws IOException, ConnectionException, CommandException {
+        return (Long) send(new Ary(PUBLISH, new BulkStr(channel), new BulkStr(message))).unwrap();
+    }
+
+    public String ping() throws IOException, ConnectionException, CommandException {
+        return (String) send(new Ary(PING)).unwrap();
+    }
+
+    /**
+     * Receives the reply on the event loop thread, and unparks the thread waiting for it
+     */
+    private static final class Reply implements Responses {
+        private final Thread waiter = Thread.currentThread();
+
+        private volatile RespType response;
+
+        @Override
+        public void responseReceived(RespType response) {
+            this.response = response;
+            LockSupport.unpark(waiter);
+        }
+
+        RespType await(long timeoutNanos) throws ConnectionException, CommandException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            RespType resp;
+            while ((resp = response) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new ConnectionException(String.format("No reply within %dms",
+                            TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new ConnectionException(new InterruptedException());
+                }
+            }
+
+            if (resp instanceof Err) {
+                throw new CommandException((String) resp.unwrap());
+            } else if (resp instanceof EndOfResponses) {
+                throw new ConnectionException("Connection closed before the reply was received");
+            } else if (resp instanceof ClientErr) {
+                throw new ConnectionException("Connection failed: " + resp.unwrap());
+            }
+            return resp;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import java.util.Arrays;
+
+/**
+ * A FIFO queue of primitive longs, to avoid boxing a timestamp for every command.  Not thread-safe.
+ */
+class TimestampQueue {
+    private long[] values = new long[64];
+    private int head = 0;
+    private int size = 0;
+
+    void add(long value) {
+        if (size == values.length) {
+            long[] grown = new long[values.length * 2];
+            int tail = values.length - head;
+            System.arraycopy(values, head, grown, 0, tail);
+            System.arraycopy(values, 0, grown, tail, head);
+            values = grown;
+            head = 0;
+        }
+        values[(head + size) % values.length] = value;
+        size++;
+    }
+
+    /**
+     * Removes the oldest value, the queue must not be empty
+     */
+    long pop() {
+        long value = values[head];
+        head = (head + 1) % values.length;
+        size--;
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, 0);
+        head = 0;
+        size = 0;
+    }
+}
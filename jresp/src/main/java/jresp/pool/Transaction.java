@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.Responses;
+import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
+import jresp.protocol.Err;
+import jresp.protocol.RespType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A transaction that can be used with the shared connection.  The commands are buffered client-side, then sent as
+ * MULTI, the commands, and EXEC in one contiguous write so no other commands can be interleaved.  Each command's
+ * responses receive the corresponding element of the EXEC reply.
+ *
+ * If the transaction is aborted each command receives either the error from queueing it, or the reply to EXEC (e.g.
+ * EXECABORT).
+ */
+public class Transaction extends Pipeline {
+    private static final BulkStr MULTI = new BulkStr("MULTI");
+    private static final BulkStr EXEC = new BulkStr("EXEC");
+
+    private static final Responses IGNORE = resp -> {
+        // errors will be reported by EXEC
+    };
+
+    private Responses execResponses = IGNORE;
+
+    public Transaction(SingleCommandConnection connection) {
+        super(connection);
+    }
+
+    /**
+     * Send the transaction, the responses will receive the reply to EXEC
+     */
+    public void exec(Responses execResponses) {
+        if (size() == 0) {
+            execResponses.responseReceived(new Ary(Collections.emptyList()));
+        } else {
+            this.execResponses = execResponses;
+            flush();
+            this.execResponses = IGNORE;
+        }
+    }
+
+    @Override
+    protected void write(List<RespType> commands, List<Responses> responses) {
+        int size = commands.size();
+        RespType[] queueErrors = new RespType[size];
+        Responses execResponses = this.execResponses;
+
+        List<RespType> allCommands = new ArrayList<>(size + 2);
+        List<Responses> allResponses = new ArrayList<>(size + 2);
+
+        allCommands.add(new Ary(MULTI));
+        allResponses.add(IGNORE);
+        for (int i = 0; i < size; i++) {
+            int idx = i;
+            allCommands.add(commands.get(i));
+            allResponses.add(resp -> {
+                if (resp instanceof Err) {
+                    queueErrors[idx] = resp;
+                }
+            });
+        }
+        allCommands.add(new Ary(EXEC));
+        allResponses.add(resp -> {
+            List<RespType> results = (resp instanceof Ary) ? ((Ary) resp).raw() : null;
+            for (int i = 0; i < size; i++) {
+                if (results != null) {
+                    responses.get(i).responseReceived(results.get(i));
+                } else {
+                    responses.get(i).responseReceived(queueErrors[i] != null ? queueErrors[i] : resp);
+                }
+            }
+            execResponses.responseReceived(resp);
+        });
+
+        connection.writeTransaction(allCommands, allResponses);
+    }
+}
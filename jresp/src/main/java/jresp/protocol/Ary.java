@@ -20,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class Ary implements RespType {
@@ -39,13 +40,22 @@ public class Ary implements RespType {
 
     @Override
     public void writeBytes(Deque<ByteBuffer> out) {
-        byte[] header = Resp.longToByteArray(payload.size());
+        byte[] header = Resp.longToByteArray(payload == null ? -1 : payload.size());
         int size = 1 + header.length + 2;
         ByteBuffer o = Resp.buffer(out, size);
-        o.put((byte)'*');
+        o.put(marker());
         o.put(header);
         o.put(Resp.CRLF);
-        payload.stream().forEach(x -> x.writeBytes(out));
+        if (payload != null) {
+            payload.stream().forEach(x -> x.writeBytes(out));
+        }
+    }
+
+    /**
+     * The type marker, RESP3 has a number of types that are encoded the same way as arrays
+     */
+    protected byte marker() {
+        return '*';
     }
 
     public List<RespType> raw() {
@@ -54,19 +64,23 @@ public class Ary implements RespType {
 
     @Override
     public Object unwrap() {
+        if (payload == null) {
+            return null;
+        }
         return payload.stream().map(RespType::unwrap).collect(Collectors.toList());
     }
 
     @Override
     public int hashCode() {
-        return payload.hashCode();
+        return Objects.hashCode(payload);
     }
 
     @Override
     public boolean equals(Object o) {
-        if (o instanceof Ary) {
+        // Equal if encoded the same way, e.g. a command from a CommandTemplate and the same command built by hand
+        if (o instanceof Ary && ((Ary) o).marker() == marker()) {
             Ary a = (Ary)o;
-            return payload.equals(a.payload);
+            return Objects.equals(payload, a.payload);
         } else {
             return false;
         }
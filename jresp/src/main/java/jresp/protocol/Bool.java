@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+
+/**
+ * A RESP3 boolean
+ */
+public class Bool implements RespType {
+    public static final Bool TRUE = new Bool(true);
+    public static final Bool FALSE = new Bool(false);
+
+    private boolean payload;
+
+    private Bool(boolean payload) {
+        this.payload = payload;
+    }
+
+    public static Bool get(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public String toString() {
+        return String.format("%s[%s]", getClass().getName(), payload);
+    }
+
+    @Override
+    public void writeBytes(Deque<ByteBuffer> out) {
+        ByteBuffer o = Resp.buffer(out, 4);
+        o.put((byte) '#');
+        o.put((byte) (payload ? 't' : 'f'));
+        o.put(Resp.CRLF);
+    }
+
+    @Override
+    public Object unwrap() {
+        return payload;
+    }
+
+    @Override
+    public int hashCode() {
+        return Boolean.hashCode(payload);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof Bool) {
+            Bool b = (Bool)o;
+            return payload == b.payload;
+        } else {
+            return false;
+        }
+    }
+}
@@ -21,10 +21,15 @@ import java.nio.ByteBuffer;
 import java.util.*;
 
 public class BulkStr implements RespType {
-    private static final Map<String, BulkStr> cache = Collections.synchronizedMap(new HashMap<>());
+    private static final InternCache cache = new InternCache();
 
     private byte[] payload;
 
+    /**
+     * Cached hash code, these are frequently used as keys (e.g. pub-sub channels), zero if not yet calculated
+     */
+    private int hash;
+
     public BulkStr(String s) {
         try {
             payload = s.getBytes("UTF-8");
@@ -41,13 +46,25 @@ public class BulkStr implements RespType {
         this.payload = null;
     }
 
+    BulkStr(byte[] s, int hash) {
+        payload = s;
+        this.hash = hash;
+    }
+
+    /**
+     * A shared instance, for strings that are used many times, e.g. command names or channel names.  Long strings are
+     * not shared.
+     */
     public static BulkStr get(String str) {
-        BulkStr val = cache.get(str);
-        if (val == null) {
-            val = new BulkStr(str);
-            cache.put(str, val);
-        }
-        return val;
+        return cache.get(str);
+    }
+
+    /**
+     * A shared instance with a copy of these bytes, the same as get would return for the string they encode.  Long
+     * strings are not shared.
+     */
+    public static BulkStr intern(byte[] bytes, int offset, int length) {
+        return cache.intern(bytes, offset, length);
     }
 
     public String toString() {
@@ -76,6 +93,10 @@ public class BulkStr implements RespType {
         o.put(Resp.CRLF);
     }
 
+    /**
+     * The bytes of this string, these may be shared (see get and intern, and the channel names of decoded pub-sub
+     * messages) so must not be modified
+     */
     public byte[] raw() {
         return payload;
     }
@@ -94,7 +115,12 @@ public class BulkStr implements RespType {
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(payload);
+        int h = hash;
+        if (h == 0 && payload != null) {
+            h = Arrays.hashCode(payload);
+            hash = h;
+        }
+        return h;
     }
 
     @Override
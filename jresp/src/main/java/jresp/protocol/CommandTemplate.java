@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A command whose name (e.g. SET, or CLIENT LIST) is encoded once, so that only the arguments need to be encoded
+ * each time it is sent.
+ */
+public class CommandTemplate {
+    /**
+     * Prefixes, including the array header, are kept for commands with up to this many elements
+     */
+    private static final int CACHED_PREFIXES = 16;
+
+    private final List<RespType> name;
+
+    private final byte[] encodedName;
+
+    private final byte[][] prefixes;
+
+    public CommandTemplate(String... words) {
+        List<RespType> name = new ArrayList<>(words.length);
+        Deque<ByteBuffer> out = new ArrayDeque<>();
+        for (String word : words) {
+            BulkStr bulkStr = BulkStr.get(word);
+            name.add(bulkStr);
+            bulkStr.writeBytes(out);
+        }
+        this.name = name;
+        this.encodedName = toBytes(out);
+
+        this.prefixes = new byte[CACHED_PREFIXES][];
+        for (int i = words.length; i < CACHED_PREFIXES; i++) {
+            prefixes[i] = prefix(i);
+        }
+    }
+
+    private static byte[] toBytes(Deque<ByteBuffer> out) {
+        int size = out.stream().mapToInt(ByteBuffer::position).sum();
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        for (ByteBuffer bb : out) {
+            bb.flip();
+            bytes.put(bb);
+        }
+        return bytes.array();
+    }
+
+    private byte[] prefix(int elements) {
+        byte[] header = Resp.longToByteArray(elements);
+        byte[] prefix = new byte[1 + header.length + 2 + encodedName.length];
+        ByteBuffer.wrap(prefix)
+                .put((byte) '*')
+                .put(header)
+                .put(Resp.CRLF)
+                .put(encodedName);
+        return prefix;
+    }
+
+    public List<RespType> getName() {
+        return name;
+    }
+
+    /**
+     * The command with these arguments.  It is an array of the name and the arguments, as any other command would be.
+     */
+    public Ary command(List<RespType> args) {
+        List<RespType> payload = new ArrayList<>(name.size() + args.size());
+        payload.addAll(name);
+        payload.addAll(args);
+        return new Command(payload, args);
+    }
+
+    public Ary command(RespType... args) {
+        return command(Arrays.asList(args));
+    }
+
+    public String toString() {
+        return String.format("%s%s", getClass().getName(), name);
+    }
+
+    private class Command extends Ary {
+        private final List<RespType> args;
+
+        private Command(List<RespType> payload, List<RespType> args) {
+            super(payload);
+            this.args = args;
+        }
+
+        @Override
+        public void writeBytes(Deque<ByteBuffer> out) {
+            int elements = name.size() + args.size();
+            byte[] prefix = elements < CACHED_PREFIXES ? prefixes[elements] : prefix(elements);
+            Resp.buffer(out, prefix.length).put(prefix);
+            for (RespType arg : args) {
+                arg.writeBytes(out);
+            }
+        }
+    }
+}
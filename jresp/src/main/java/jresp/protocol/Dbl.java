@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.protocol;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+
+/**
+ * A RESP3 double
+ */
+public class Dbl implements RespType {
+    private double payload;
+
+    public Dbl(double payload) {
+        this.payload = payload;
+    }
+
+    public static Dbl parse(String str) {
+        switch (str) {
+            case "inf":
+                return new Dbl(Double.POSITIVE_INFINITY);
+            case "-inf":
+                return new Dbl(Double.NEGATIVE_INFINITY);
+            case "nan":
+                return new Dbl(Double.NaN);
+            default:
+                return new Dbl(Double.parseDouble(str));
+        }
+    }
+
+    public String toString() {
+        return String.format("%s[%s]", getClass().getName(), payload);
+    }
+
+    @Override
+    public void writeBytes(Deque<ByteBuffer> out) {
+        String str;
+        if (payload == Double.POSITIVE_INFINITY) {
+            str = "inf";
+        } else if (payload == Double.NEGATIVE_INFINITY) {
+            str = "-inf";
+        } else if (Double.isNaN(payload)) {
+            str = "nan";
+        } else {
+            str = Double.toString(payload);
+        }
+
+        try {
+            byte[] bytes = str.getBytes("UTF-8");
+            int size = 1 + bytes.length + 2;
+            ByteBuffer o = Resp.buffer(out, size);
+            o.put((byte) ',');
+            o.put(bytes);
+            o.put(Resp.CRLF);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Object unwrap() {
+        return payload;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(payload);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof Dbl) {
+            Dbl d = (Dbl)o;
+            return Double.compare(payload, d.payload) == 0;
+        } else {
+            return false;
+        }
+    }
+}
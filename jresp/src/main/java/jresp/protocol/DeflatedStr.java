@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * A bulk string that is compressed as it is written, straight into the outgoing buffers.  The compressed value has a
+ * six byte header: zero, 'z', then the uncompressed length as a big-endian int; followed by the raw DEFLATE data.
+ *
+ * If compressing doesn't make it smaller, it is written uncompressed instead.
+ */
+public class DeflatedStr implements RespType {
+    public static final byte TAG = 'z';
+
+    public static final int HEADER_LENGTH = 6;
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Deflaters hold native memory, so are reused rather than created for each value
+     */
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(6, true));
+
+    private final byte[] payload;
+    private final int level;
+
+    public DeflatedStr(byte[] payload, int level) {
+        this.payload = payload;
+        this.level = level;
+    }
+
+    public String toString() {
+        return String.format("%s[%d bytes]", getClass().getName(), payload.length);
+    }
+
+    @Override
+    public void writeBytes(Deque<ByteBuffer> out) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(payload);
+        deflater.finish();
+
+        List<ByteBuffer> chunks = new ArrayList<>();
+        int length = HEADER_LENGTH;
+        while (!deflater.finished()) {
+            ByteBuffer chunk = ByteBuffer.allocate(Math.min(CHUNK_SIZE, payload.length));
+            int n = deflater.deflate(chunk.array());
+            chunk.position(n);
+            chunks.add(chunk);
+            length += n;
+            if (length >= payload.length) {
+                // Not worth it
+                new BulkStr(payload).writeBytes(out);
+                return;
+            }
+        }
+
+        byte[] header = Resp.longToByteArray(length);
+        ByteBuffer o = Resp.buffer(out, 1 + header.length + 2 + HEADER_LENGTH);
+        o.put((byte) '$');
+        o.put(header);
+        o.put(Resp.CRLF);
+        o.put((byte) 0);
+        o.put(TAG);
+        o.putInt(payload.length);
+        out.addAll(chunks);
+        Resp.buffer(out, 2).put(Resp.CRLF);
+    }
+
+    /**
+     * The uncompressed value
+     */
+    public byte[] raw() {
+        return payload;
+    }
+
+    @Override
+    public Object unwrap() {
+        return new BulkStr(payload).unwrap();
+    }
+}
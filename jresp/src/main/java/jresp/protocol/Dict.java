@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A RESP3 map.  Order is preserved.
+ */
+public class Dict implements RespType {
+    private Map<RespType, RespType> payload;
+
+    public Dict(Map<RespType, RespType> payload) {
+        this.payload = payload;
+    }
+
+    public String toString() {
+        return String.format("%s[%s]", getClass().getName(), payload);
+    }
+
+    @Override
+    public void writeBytes(Deque<ByteBuffer> out) {
+        byte[] header = Resp.longToByteArray(payload.size());
+        int size = 1 + header.length + 2;
+        ByteBuffer o = Resp.buffer(out, size);
+        o.put((byte) '%');
+        o.put(header);
+        o.put(Resp.CRLF);
+        payload.forEach((k, v) -> {
+            k.writeBytes(out);
+            v.writeBytes(out);
+        });
+    }
+
+    public Map<RespType, RespType> raw() {
+        return payload;
+    }
+
+    @Override
+    public Object unwrap() {
+        Map<Object, Object> map = new LinkedHashMap<>(payload.size() * 2);
+        payload.forEach((k, v) -> map.put(k.unwrap(), v.unwrap()));
+        return map;
+    }
+
+    @Override
+    public int hashCode() {
+        return payload.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof Dict) {
+            Dict d = (Dict)o;
+            return payload.equals(d.payload);
+        } else {
+            return false;
+        }
+    }
+}
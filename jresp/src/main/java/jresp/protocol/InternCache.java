@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of short BulkStrs, so that the same command names, keys and channel names are neither encoded nor
+ * decoded, nor held in memory, many times over.  A string and the bytes it's encoded as share the same instance.
+ *
+ * It's a fixed-size table indexed by hash, with the two most recently used entries for each.  Reads and writes are
+ * lock-free; an entry is replaced, rather than the table grown, when a third arrives.  Racing writers may lose an
+ * entry, which costs no more than a miss.
+ */
+final class InternCache {
+    /**
+     * Longer strings are not cached, they're unlikely to be repeated and are expensive to compare
+     */
+    static final int MAX_LENGTH = 128;
+
+    private static final int SIZE = 4096;
+
+    private static final class Entry {
+        private final String string;
+        private final BulkStr bulkStr;
+
+        private Entry(String string, BulkStr bulkStr) {
+            this.string = string;
+            this.bulkStr = bulkStr;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> strings = new AtomicReferenceArray<>(SIZE);
+
+    private final AtomicReferenceArray<BulkStr> bulkStrs = new AtomicReferenceArray<>(SIZE);
+
+    /**
+     * The first of the two slots for this hash
+     */
+    private static int slot(int hash) {
+        int h = hash ^ (hash >>> 16);
+        return (h & (SIZE / 2 - 1)) << 1;
+    }
+
+    BulkStr get(String string) {
+        if (string.length() > MAX_LENGTH) {
+            return new BulkStr(string);
+        }
+        int slot = slot(string.hashCode());
+        Entry first = strings.get(slot);
+        if (first != null && first.string.equals(string)) {
+            return first.bulkStr;
+        }
+        Entry second = strings.get(slot + 1);
+        if (second != null && second.string.equals(string)) {
+            return second.bulkStr;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        BulkStr bulkStr = intern(bytes, 0, bytes.length);
+        strings.lazySet(slot + 1, first);
+        strings.lazySet(slot, new Entry(string, bulkStr));
+        return bulkStr;
+    }
+
+    BulkStr intern(byte[] bytes, int offset, int length) {
+        if (length > MAX_LENGTH) {
+            byte[] payload = new byte[length];
+            System.arraycopy(bytes, offset, payload, 0, length);
+            return new BulkStr(payload);
+        }
+        // The same as Arrays.hashCode, so it's also the BulkStr's hash code
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        int slot = slot(hash);
+        BulkStr first = bulkStrs.get(slot);
+        if (matches(first, hash, bytes, offset, length)) {
+            return first;
+        }
+        BulkStr second = bulkStrs.get(slot + 1);
+        if (matches(second, hash, bytes, offset, length)) {
+            return second;
+        }
+        byte[] payload = new byte[length];
+        System.arraycopy(bytes, offset, payload, 0, length);
+        BulkStr bulkStr = new BulkStr(payload, hash);
+        bulkStrs.lazySet(slot + 1, first);
+        bulkStrs.lazySet(slot, bulkStr);
+        return bulkStr;
+    }
+
+    private static boolean matches(BulkStr bulkStr, int hash, byte[] bytes, int offset, int length) {
+        if (bulkStr == null || bulkStr.hashCode() != hash) {
+            return false;
+        }
+        byte[] payload = bulkStr.raw();
+        if (payload.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (payload[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+
+/**
+ * The RESP3 null, this replaces the null bulk string and null array of RESP2
+ */
+public class Null implements RespType {
+    public static final Null INSTANCE = new Null();
+
+    private Null() {
+    }
+
+    public String toString() {
+        return getClass().getName();
+    }
+
+    @Override
+    public void writeBytes(Deque<ByteBuffer> out) {
+        ByteBuffer o = Resp.buffer(out, 3);
+        o.put((byte) '_');
+        o.put(Resp.CRLF);
+    }
+
+    @Override
+    public Object unwrap() {
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.protocol;
+
+import java.util.List;
+
+/**
+ * A RESP3 push message, sent by the server out-of-band (i.e. not in response to a particular command).  Used for
+ * pub/sub messages and client-side caching invalidation.
+ *
+ * The first element is the kind of message, e.g. "message" or "invalidate".
+ */
+public class Push extends Ary {
+    public Push(List<RespType> payload) {
+        super(payload);
+    }
+
+    @Override
+    protected byte marker() {
+        return '>';
+    }
+}
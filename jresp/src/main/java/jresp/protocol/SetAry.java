@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.protocol;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * A RESP3 set, encoded as an array but with no duplicate elements.
+ */
+public class SetAry extends Ary {
+    public SetAry(List<RespType> payload) {
+        super(payload);
+    }
+
+    @Override
+    protected byte marker() {
+        return '~';
+    }
+
+    @Override
+    public Object unwrap() {
+        LinkedHashSet<Object> set = new LinkedHashSet<>();
+        raw().forEach(x -> set.add(x.unwrap()));
+        return set;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A RESP3 verbatim string, a bulk string with a three character format (e.g. "txt" or "mkd").
+ */
+public class VerbatimStr implements RespType {
+    private String format;
+    private byte[] payload;
+
+    public VerbatimStr(String format, byte[] payload) {
+        this.format = format;
+        this.payload = payload;
+    }
+
+    public String toString() {
+        return String.format("%s[%s,%s]", getClass().getName(), format, Arrays.toString(payload));
+    }
+
+    @Override
+    public void writeBytes(Deque<ByteBuffer> out) {
+        byte[] formatBytes = format.getBytes(StandardCharsets.UTF_8);
+        byte[] header = Resp.longToByteArray(formatBytes.length + 1 + payload.length);
+        int size = 1 + header.length + 2 + formatBytes.length + 1 + payload.length + 2;
+
+        ByteBuffer o = Resp.buffer(out, size);
+        o.put((byte) '=');
+        o.put(header);
+        o.put(Resp.CRLF);
+        o.put(formatBytes);
+        o.put((byte) ':');
+        o.put(payload);
+        o.put(Resp.CRLF);
+    }
+
+    public String format() {
+        return format;
+    }
+
+    public byte[] raw() {
+        return payload;
+    }
+
+    @Override
+    public Object unwrap() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * format.hashCode() + Arrays.hashCode(payload);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof VerbatimStr) {
+            VerbatimStr vs = (VerbatimStr)o;
+            return format.equals(vs.format) && Arrays.equals(payload, vs.payload);
+        } else {
+            return false;
+        }
+    }
+}
@@ -18,19 +18,32 @@ package jresp.state;
 
 import jresp.RespDecoder;
 import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
 import jresp.protocol.RespType;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class AryState implements State {
+    /**
+     * The first element of pub-sub messages, the channel and pattern names that follow are interned
+     */
+    private static final Set<RespType> PUB_SUB_KINDS = new HashSet<>(Arrays.asList(
+            new BulkStr("message"), new BulkStr("pmessage"), new BulkStr("smessage"),
+            new BulkStr("subscribe"), new BulkStr("psubscribe"), new BulkStr("ssubscribe"),
+            new BulkStr("unsubscribe"), new BulkStr("punsubscribe"), new BulkStr("sunsubscribe")));
+
     private RespDecoder parent;
 
     private IntState intState;
     private Integer aryLength = null;
     private List<RespType> ary = null;
     private State nextState = null;
+    private boolean pubSub = false;
 
     public AryState(RespDecoder parent) {
         this.parent = parent;
@@ -43,6 +56,13 @@ public class AryState implements State {
             if (aryLength == null) {
                 if (intState.decode(in)) {
                     aryLength = (int) intState.finishInt();
+                    if (aryLength < 0) {
+                        //
+                        // A null array, e.g. a blocking command that timed-out
+                        //
+                        return true;
+                    }
+                    aryLength = elements(aryLength);
                     ary = new ArrayList<>(aryLength);
                     if (aryLength == 0) {
                         //
@@ -57,9 +77,16 @@ public class AryState implements State {
             }
             if (nextState == null) {
                 nextState = parent.nextState((char) in.get());
+                if (pubSub && ary.size() < aryLength - 1 && nextState instanceof BulkStrState) {
+                    // A channel or pattern, rather than the payload or count at the end
+                    ((BulkStrState) nextState).intern();
+                }
             }
             if (nextState.decode(in)) {
                 ary.add(nextState.finish());
+                if (ary.size() == 1) {
+                    pubSub = aryLength >= 3 && PUB_SUB_KINDS.contains(ary.get(0));
+                }
                 if (ary.size() == aryLength) {
                     return true;
                 } else {
@@ -72,8 +99,27 @@ public class AryState implements State {
         }
     }
 
+    /**
+     * Continue from a header that has already been read, of at least one element
+     */
+    void header(int length) {
+        aryLength = elements(length);
+        ary = new ArrayList<>(aryLength);
+    }
+
+    /**
+     * The number of elements that follow a header of the given length
+     */
+    protected int elements(int length) {
+        return length;
+    }
+
     @Override
     public RespType finish() {
-        return new Ary(ary);
+        return finish(ary);
+    }
+
+    protected RespType finish(List<RespType> elements) {
+        return new Ary(elements);
     }
 }
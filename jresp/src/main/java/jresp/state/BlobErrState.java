@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.state;
+
+import jresp.RespDecoder;
+import jresp.protocol.Err;
+import jresp.protocol.RespType;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A RESP3 blob error, an error encoded like a bulk string.  These are treated the same as simple errors.
+ */
+public class BlobErrState extends BulkStrState {
+    public BlobErrState(RespDecoder parent) {
+        super(parent);
+    }
+
+    @Override
+    protected boolean shared() {
+        return false;
+    }
+
+    @Override
+    protected RespType finish(byte[] bytes) {
+        return new Err(new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -16,6 +16,7 @@
 
 package jresp.state;
 
+import jresp.ReplyDecoder;
 import jresp.RespDecoder;
 import jresp.protocol.BulkStr;
 import jresp.protocol.RespType;
@@ -32,6 +33,11 @@ public class BulkStrState implements State {
     private byte[] buffer = null;
     private int idx = 0;
 
+    /**
+     * Whether this string is to be interned, see intern
+     */
+    private boolean intern = false;
+
     public BulkStrState(RespDecoder parent) {
         this.parent = parent;
         this.intState = parent.intDecoder();
@@ -41,6 +47,7 @@ public class BulkStrState implements State {
         intState.reset();
         stringLength = null;
         idx = 0;
+        intern = false;
 
         if (buffer != null && buffer.length > MAXIMUM_SIZE) {
             buffer = null;
@@ -89,9 +96,43 @@ public class BulkStrState implements State {
             return new BulkStr();
         } else {
             int strLen = stringLength - 2; // To account for CRLF
+            if (intern && shared()) {
+                return BulkStr.intern(buffer, 0, strLen);
+            }
             byte[] result = new byte[strLen];
             System.arraycopy(buffer, 0, result, 0, strLen);
-            return new BulkStr(result);
+            return finish(result);
+        }
+    }
+
+    /**
+     * Pass the string to a decoder, without copying it
+     */
+    <T> T finish(ReplyDecoder<T> decoder) {
+        if (stringLength < 0) {
+            return decoder.nullReply();
+        } else {
+            return decoder.bulkStr(buffer, 0, stringLength - 2);
         }
     }
+
+    /**
+     * Share this string rather than copying it, so that repeated ones (e.g. the channel names of pub-sub messages) are
+     * the same instance.  Only short strings are shared.
+     */
+    public BulkStrState intern() {
+        intern = true;
+        return this;
+    }
+
+    /**
+     * Whether strings of this type can be shared, see intern
+     */
+    protected boolean shared() {
+        return true;
+    }
+
+    protected RespType finish(byte[] bytes) {
+        return new BulkStr(bytes);
+    }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.state;
+
+import jresp.RespDecoder;
+import jresp.protocol.Dict;
+import jresp.protocol.RespType;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A RESP3 map, the header is the number of entries, each entry being a key followed by a value
+ */
+public class DictState extends AryState {
+    public DictState(RespDecoder parent) {
+        super(parent);
+    }
+
+    @Override
+    protected int elements(int length) {
+        return length * 2;
+    }
+
+    @Override
+    protected RespType finish(List<RespType> elements) {
+        Map<RespType, RespType> map = new LinkedHashMap<>(elements.size());
+        for (int i = 0; i < elements.size(); i += 2) {
+            map.put(elements.get(i), elements.get(i + 1));
+        }
+        return new Dict(map);
+    }
+}
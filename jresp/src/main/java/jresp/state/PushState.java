@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.state;
+
+import jresp.RespDecoder;
+import jresp.protocol.Push;
+import jresp.protocol.RespType;
+
+import java.util.List;
+
+public class PushState extends AryState {
+    public PushState(RespDecoder parent) {
+        super(parent);
+    }
+
+    @Override
+    protected RespType finish(List<RespType> elements) {
+        return new Push(elements);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.state;
+
+import jresp.RespDecoder;
+import jresp.ReplyDecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An array, set or map, each element is passed to the ReplyDecoder's aggregate as it is read.  If the decoder doesn't
+ * handle aggregates it's read into a RespType as usual.
+ */
+public class TypedAryState extends TypedState {
+    private final RespDecoder parent;
+    private final ReplyDecoder<?> decoder;
+    private final ReplyDecoder.Kind kind;
+
+    private final IntState intState;
+    private int length = -1;
+
+    private ReplyDecoder.Aggregate<?> aggregate;
+    private ReplyDecoder<?> elements;
+    private int count = 0;
+
+    private TypedScalarState scalar;
+    private TypedState nextState;
+
+    /**
+     * Used instead, if the decoder doesn't handle aggregates
+     */
+    private AryState fallback;
+
+    private Object value;
+
+    /**
+     * Thrown by the decoder, the rest of the aggregate is still read but not decoded
+     */
+    private RuntimeException failure;
+
+    TypedAryState(RespDecoder parent, ReplyDecoder<?> decoder, ReplyDecoder.Kind kind) {
+        this.parent = parent;
+        this.decoder = decoder;
+        this.kind = kind;
+        this.intState = parent.intDecoder();
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in) {
+        if (fallback != null) {
+            return fallback.decode(in);
+        }
+        while (true) {
+            if (length < 0) {
+                if (!intState.decode(in)) {
+                    return false;
+                }
+                int header = (int) intState.finishInt();
+                if (header < 0) {
+                    try {
+                        value = decoder.nullReply();
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    return true;
+                }
+                length = kind == ReplyDecoder.Kind.MAP ? header * 2 : header;
+                try {
+                    aggregate = decoder.aggregate(kind, length);
+                    elements = aggregate == null ? null : aggregate.elements();
+                } catch (RuntimeException e) {
+                    failure = e;
+                    aggregate = null;
+                }
+                if (aggregate == null) {
+                    fallback = fallback(header);
+                    return length == 0 || fallback.decode(in);
+                }
+                if (length == 0) {
+                    return true;
+                }
+            }
+            if (in.remaining() == 0) {
+                return false;
+            }
+            if (nextState == null) {
+                char token = (char) in.get();
+                if (scalar == null) {
+                    scalar = new TypedScalarState();
+                }
+                nextState = TypedState.of(parent, token, elements, scalar);
+            }
+            if (nextState.decode(in)) {
+                if (failure == null) {
+                    try {
+                        aggregate.add(nextState.value());
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                nextState = null;
+                if (++count == length) {
+                    return true;
+                }
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Continue reading as a RespType, the header having already been read.  An empty aggregate is complete already.
+     */
+    private AryState fallback(int header) {
+        AryState state;
+        switch (kind) {
+            case SET:
+                state = new SetAryState(parent);
+                break;
+            case MAP:
+                state = new DictState(parent);
+                break;
+            default:
+                state = new AryState(parent);
+        }
+        state.header(header);
+        return state;
+    }
+
+    @Override
+    Object value() {
+        if (failure != null) {
+            throw failure;
+        } else if (fallback != null) {
+            return decoder.other(fallback.finish());
+        } else if (aggregate != null) {
+            return aggregate.finish();
+        } else {
+            return value;
+        }
+    }
+}
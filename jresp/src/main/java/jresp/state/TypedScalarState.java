@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.state;
+
+import jresp.ReplyDecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a single value with the usual state, then passes it to a ReplyDecoder without creating a RespType where
+ * possible
+ */
+public class TypedScalarState extends TypedState {
+    private State state;
+    private char token;
+    private ReplyDecoder<?> decoder;
+
+    public TypedScalarState reset(State state, char token, ReplyDecoder<?> decoder) {
+        this.state = state;
+        this.token = token;
+        this.decoder = decoder;
+        return this;
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in) {
+        return state.decode(in);
+    }
+
+    @Override
+    Object value() {
+        switch (token) {
+            case '$':
+                return ((BulkStrState) state).finish(decoder);
+            case '+':
+                return decoder.simpleStr(((SimpleStrState) state).bufferAsString());
+            case ':':
+                return decoder.integer(((IntState) state).finishInt());
+            case '_':
+                return decoder.nullReply();
+            default:
+                return decoder.other(state.finish());
+        }
+    }
+}
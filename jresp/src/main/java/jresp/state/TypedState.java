@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.state;
+
+import jresp.RespDecoder;
+import jresp.ReplyDecoder;
+import jresp.protocol.ClientErr;
+import jresp.protocol.Decoded;
+import jresp.protocol.RespType;
+
+/**
+ * Decodes a reply with a ReplyDecoder, rather than into RespType objects
+ */
+public abstract class TypedState implements State {
+    /**
+     * The decoded value
+     */
+    abstract Object value();
+
+    /**
+     * A decoder that fails, e.g. on a value it can't parse, fails only this reply; not the connection, nor the
+     * thread reading it
+     */
+    @Override
+    public RespType finish() {
+        try {
+            return new Decoded(value());
+        } catch (RuntimeException e) {
+            return new ClientErr(e);
+        }
+    }
+
+    /**
+     * The state to decode a value starting with the given token, the scalar state is reused if possible
+     */
+    public static TypedState of(RespDecoder parent, char token, ReplyDecoder<?> decoder, TypedScalarState scalar) {
+        switch (token) {
+            case '*':
+                return new TypedAryState(parent, decoder, ReplyDecoder.Kind.ARRAY);
+            case '~':
+                return new TypedAryState(parent, decoder, ReplyDecoder.Kind.SET);
+            case '%':
+                return new TypedAryState(parent, decoder, ReplyDecoder.Kind.MAP);
+            default:
+                return scalar.reset(parent.nextState(token), token, decoder);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.state;
+
+import jresp.RespDecoder;
+import jresp.protocol.RespType;
+import jresp.protocol.VerbatimStr;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A RESP3 verbatim string, the first four bytes are the format followed by a colon
+ */
+public class VerbatimStrState extends BulkStrState {
+    public VerbatimStrState(RespDecoder parent) {
+        super(parent);
+    }
+
+    @Override
+    protected boolean shared() {
+        return false;
+    }
+
+    @Override
+    protected RespType finish(byte[] bytes) {
+        String format = new String(bytes, 0, 3, StandardCharsets.UTF_8);
+        return new VerbatimStr(format, Arrays.copyOfRange(bytes, 4, bytes.length));
+    }
+}
@@ -20,6 +20,7 @@ import jresp.protocol.*;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -116,6 +117,266 @@ public class RespDecoderTest {
         assertEquals(expected, out.get(0).unwrap());
     }
 
+    @Test
+    public void testNullAry() throws Exception {
+        Ary ary = new Ary((List<RespType>) null);
+        Collection<ByteBuffer> encoded = encode(ary);
+
+        List<RespType> out = decode(encoded);
+
+        assertEquals(ary, out.get(0));
+        assertNull(out.get(0).unwrap());
+    }
+
+    @Test
+    public void testResp3Scalars() throws Exception {
+        List<RespType> scalars = Arrays.asList(
+                new Dbl(1.5),
+                Dbl.parse("inf"),
+                Bool.TRUE,
+                Bool.FALSE,
+                Null.INSTANCE,
+                new BigNum(new BigInteger("3492890328409238509324850943850943825024385")),
+                new VerbatimStr("txt", "Some string".getBytes("UTF-8")));
+
+        List<RespType> out = decode(encode(scalars));
+
+        assertEquals(scalars, out);
+        assertEquals("Some string", out.get(6).unwrap());
+        assertNull(out.get(4).unwrap());
+    }
+
+    @Test
+    public void testResp3Aggregates() throws Exception {
+        Map<RespType, RespType> map = new LinkedHashMap<>();
+        map.put(new BulkStr("first"), new Int(1));
+        map.put(new BulkStr("second"), new Ary(new BulkStr("nested"), new Dbl(2.5)));
+        Dict dict = new Dict(map);
+        SetAry set = new SetAry(Arrays.asList(new BulkStr("a"), new BulkStr("b")));
+        Push push = new Push(Arrays.asList(new BulkStr("message"), new BulkStr("channel"), new BulkStr("payload")));
+
+        List<RespType> out = decode(encode(Arrays.asList(dict, set, push)));
+
+        assertEquals(dict, out.get(0));
+        assertEquals(set, out.get(1));
+        assertEquals(push, out.get(2));
+        assertTrue(out.get(2) instanceof Push);
+
+        Map<Object, Object> expected = new LinkedHashMap<>();
+        expected.put("first", 1L);
+        expected.put("second", Arrays.asList("nested", 2.5));
+        assertEquals(expected, out.get(0).unwrap());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a", "b")), out.get(1).unwrap());
+    }
+
+    @Test
+    public void testBlobErr() throws Exception {
+        ByteBuffer in = ByteBuffer.wrap("!21\r\nSYNTAX invalid syntax\r\n".getBytes("UTF-8"));
+
+        List<RespType> out = decode(Collections.singletonList(in));
+
+        assertEquals(Err.class, out.get(0).getClass());
+        assertEquals("SYNTAX invalid syntax", out.get(0).unwrap());
+    }
+
+    @Test
+    public void testSharedStrings() throws Exception {
+        Ary message = new Ary(new BulkStr("message"), new BulkStr("channel"), new BulkStr("payload"));
+        List<RespType> out = decode(encode(Arrays.asList(message, message)));
+
+        List<RespType> first = ((Ary) out.get(0)).raw();
+        List<RespType> second = ((Ary) out.get(1)).raw();
+        assertEquals(message, out.get(0));
+        assertSame(first.get(1), second.get(1));
+        assertSame(BulkStr.get("channel"), first.get(1));
+
+        // Only the channel names of pub-sub messages, not their payloads or other replies
+        assertNotSame(first.get(2), second.get(2));
+        Ary reply = new Ary(new BulkStr("field"), new BulkStr("channel"), new BulkStr("value"));
+        List<RespType> replies = decode(encode(Arrays.asList(reply, reply)));
+        assertNotSame(((Ary) replies.get(0)).raw().get(1), ((Ary) replies.get(1)).raw().get(1));
+
+        // Long strings are not shared
+        String longStr = String.join("", Collections.nCopies(200, "x"));
+        List<RespType> longOut = decode(encode(Arrays.asList(new BulkStr(longStr), new BulkStr(longStr))));
+        assertEquals(longStr, longOut.get(0).unwrap());
+        assertNotSame(longOut.get(0), longOut.get(1));
+
+        // Nor other types encoded the same way
+        VerbatimStr verbatim = new VerbatimStr("txt", "text".getBytes());
+        List<RespType> verbatimOut = decode(encode(Arrays.asList(verbatim, verbatim)));
+        assertEquals(VerbatimStr.class, verbatimOut.get(0).getClass());
+        assertNotSame(verbatimOut.get(0), verbatimOut.get(1));
+    }
+
+    private static byte[] bytes(Collection<ByteBuffer> buffers) {
+        ByteBuffer all = ByteBuffer.allocate(buffers.stream().mapToInt(ByteBuffer::remaining).sum());
+        buffers.forEach(all::put);
+        return all.array();
+    }
+
+    @Test
+    public void testCommandTemplate() throws Exception {
+        CommandTemplate template = new CommandTemplate("CLIENT", "SETNAME");
+        Ary command = template.command(new BulkStr("test"));
+        Ary expected = new Ary(new BulkStr("CLIENT"), new BulkStr("SETNAME"), new BulkStr("test"));
+
+        assertEquals(expected, command);
+        assertEquals(expected.hashCode(), command.hashCode());
+        assertArrayEquals(bytes(encode(expected)), bytes(encode(command)));
+        assertEquals(expected, decode(encode(command)).get(0));
+
+        // More arguments than have a cached prefix
+        List<RespType> args = IntStream.range(0, 20).mapToObj(i -> new BulkStr(Integer.toString(i)))
+                .collect(Collectors.toList());
+        List<RespType> elements = new ArrayList<>(template.getName());
+        elements.addAll(args);
+        assertArrayEquals(bytes(encode(new Ary(elements))), bytes(encode(template.command(args))));
+    }
+
+    @Test
+    public void testTypedReplies() throws Exception {
+        Ary hash = new Ary(new BulkStr("a"), new BulkStr("1"), new BulkStr("b"), new BulkStr("2"));
+        decoder.expect(1, ReplyDecoders.STRING_MAP);
+        decoder.expect(2, ReplyDecoders.LONG);
+        decoder.expect(4, ReplyDecoders.STRING_LIST);
+        decoder.expect(5, ReplyDecoders.LONG);
+
+        List<RespType> out = decode(encode(Arrays.asList(
+                hash, new BulkStr("-42"), hash, new Ary(new BulkStr("x"), new BulkStr()), new Err("WRONGTYPE"))));
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a", "1");
+        expected.put("b", "2");
+        assertEquals(Decoded.class, out.get(0).getClass());
+        assertEquals(expected, out.get(0).unwrap());
+        assertEquals(-42L, out.get(1).unwrap());
+        assertEquals(hash, out.get(2));
+        assertEquals(Arrays.asList("x", null), out.get(3).unwrap());
+        // Errors are never decoded
+        assertEquals(Err.class, out.get(4).getClass());
+    }
+
+    @Test
+    public void testTypedRepliesSplit() throws Exception {
+        Dict dict = new Dict(Collections.singletonMap(new BulkStr("field"), new BulkStr("value")));
+        Push push = new Push(Arrays.asList(new BulkStr("invalidate"), new Ary(new BulkStr("key"))));
+        decoder.expect(1, ReplyDecoders.STRING_MAP);
+
+        // One byte at a time, with a RESP3 push first, which isn't counted as a reply
+        List<ByteBuffer> bytes = new ArrayList<>();
+        for (ByteBuffer bb : encode(Arrays.asList(push, dict))) {
+            while (bb.hasRemaining()) {
+                bytes.add(ByteBuffer.wrap(new byte[]{bb.get()}));
+            }
+        }
+        List<RespType> out = decode(bytes);
+
+        assertEquals(push, out.get(0));
+        assertEquals(Collections.singletonMap("field", "value"), out.get(1).unwrap());
+        assertEquals(1, decoder.replies());
+    }
+
+    @Test
+    public void testTypedFallback() throws Exception {
+        // LONG doesn't handle aggregates, so they are read as usual
+        decoder.expect(1, ReplyDecoders.LONG);
+        decoder.expect(2, ReplyDecoders.STRING);
+
+        List<RespType> out = decode(encode(Arrays.asList(new Ary(new Int(1)), new Ary(new Int(2)))));
+
+        assertNull(out.get(0).unwrap());
+        assertEquals("[2]", out.get(1).unwrap());
+    }
+
+    @Test
+    public void testTypedFailure() throws Exception {
+        // Fails on "bad", wherever it is in the reply
+        ReplyDecoder<Object> failing = new ReplyDecoder<Object>() {
+            @Override
+            public Object bulkStr(byte[] bytes, int offset, int length) {
+                String value = new String(bytes, offset, length);
+                if (value.equals("bad")) {
+                    throw new IllegalArgumentException(value);
+                }
+                return value;
+            }
+
+            @Override
+            public Object simpleStr(String value) {
+                return value;
+            }
+
+            @Override
+            public Object integer(long value) {
+                return value;
+            }
+
+            @Override
+            public Object nullReply() {
+                return null;
+            }
+
+            @Override
+            public Object other(RespType value) {
+                return value.unwrap();
+            }
+
+            @Override
+            public Aggregate<Object> aggregate(Kind kind, int length) {
+                List<Object> elements = new ArrayList<>();
+                ReplyDecoder<Object> self = this;
+                return new Aggregate<Object>() {
+                    @Override
+                    public ReplyDecoder<?> elements() {
+                        return self;
+                    }
+
+                    @Override
+                    public void add(Object element) {
+                        elements.add(element);
+                    }
+
+                    @Override
+                    public Object finish() {
+                        return elements;
+                    }
+                };
+            }
+        };
+        decoder.expect(1, failing);
+        decoder.expect(2, failing);
+        decoder.expect(3, failing);
+
+        Ary nested = new Ary(new BulkStr("a"), new Ary(new BulkStr("bad"), new BulkStr("b")), new BulkStr("c"));
+        List<RespType> out = decode(encode(Arrays.asList(
+                new BulkStr("bad"), nested, new Ary(new BulkStr("a"), new BulkStr("b")), new BulkStr("after"))));
+
+        // Only the replies that failed, the rest are still read
+        assertEquals(4, out.size());
+        assertEquals(ClientErr.class, out.get(0).getClass());
+        assertTrue(out.get(0).unwrap() instanceof IllegalArgumentException);
+        assertEquals(ClientErr.class, out.get(1).getClass());
+        assertEquals(Arrays.asList("a", "b"), out.get(2).unwrap());
+        assertEquals("after", out.get(3).unwrap());
+    }
+
+    @Test
+    public void testParseLong() throws Exception {
+        assertEquals(Long.valueOf(Long.MIN_VALUE), parse(Long.toString(Long.MIN_VALUE)));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), parse(Long.toString(Long.MAX_VALUE)));
+        assertEquals(Long.valueOf(0), parse("0"));
+        assertNull(parse("9223372036854775808"));
+        assertNull(parse("-"));
+        assertNull(parse("1.5"));
+        assertNull(parse(""));
+    }
+
+    private static Long parse(String s) {
+        byte[] bytes = s.getBytes();
+        return ReplyDecoders.parseLong(bytes, 0, bytes.length);
+    }
+
     @Test
     public void millionOks() throws Exception {
         List<RespType> oks = IntStream.range(0, 1_000_000).mapToObj(x -> new SimpleStr("OK")).collect(Collectors.toList());
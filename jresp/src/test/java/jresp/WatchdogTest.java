@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp;
+
+import jresp.metrics.InMemoryMetrics;
+import jresp.metrics.Stall;
+import jresp.pool.SingleCommandConnection;
+import jresp.protocol.BulkStr;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class WatchdogTest extends JRESPTest {
+    private InMemoryMetrics metrics;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        metrics = new InMemoryMetrics();
+        client.setMetrics(metrics);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    @Test
+    public void stalledCallbackTest() throws Exception {
+        client.setStallThreshold(50);
+        SingleCommandConnection con = new SingleCommandConnection(client.makeConnection());
+
+        latch = new CountDownLatch(1);
+        con.write(command("ECHO", new BulkStr("slow")), resp -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            latch.countDown();
+        });
+        await();
+
+        List<Stall> stalls = metrics.getStalls();
+        assertEquals(1, stalls.size());
+        Stall stall = stalls.get(0);
+        assertTrue(stall.isCallback());
+        assertEquals(command("ECHO", new BulkStr("slow")), stall.getCommand());
+        assertTrue(stall.getNanos() >= 50000000L);
+        assertTrue(Arrays.stream(stall.getStack()).anyMatch(e -> e.getMethodName().equals("sleep")));
+    }
+
+    @Test
+    public void callbackExecutorTest() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        client.setCallbackExecutor(executor);
+        SingleCommandConnection blocked = new SingleCommandConnection(client.makeConnection());
+        SingleCommandConnection other = new SingleCommandConnection(client.makeConnection());
+
+        CountDownLatch release = new CountDownLatch(1);
+        blocked.write(ping(), resp -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // The other connection, served by the same event loop, isn't held-up
+        latch = new CountDownLatch(1);
+        other.write(ping(), resp -> latch.countDown());
+        await();
+
+        // Callbacks of the blocked connection are still run in order
+        List<Integer> order = new ArrayList<>();
+        latch = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            int n = i;
+            blocked.write(ping(), resp -> {
+                order.add(n);
+                latch.countDown();
+            });
+        }
+        release.countDown();
+        await();
+        assertEquals(Arrays.asList(0, 1, 2), order);
+
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.async;
+
+import jresp.JRESPTest;
+import jresp.pool.CommandException;
+import jresp.pool.Pool;
+import jresp.protocol.Ary;
+import jresp.protocol.RespType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class AsyncClientTest extends JRESPTest {
+    private Pool pool;
+
+    private AsyncClient async;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        pool = new Pool(client);
+        async = new AsyncClient(pool);
+        async.send(flushDB()).get(5, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    @Test
+    public void sendTest() throws Exception {
+        assertEquals("OK", async.send("SET", "ASYNC-KEY", "A").get(5, TimeUnit.SECONDS).unwrap());
+        assertEquals("A", async.send(get("ASYNC-KEY")).get(5, TimeUnit.SECONDS).unwrap());
+    }
+
+    @Test
+    public void errorTest() throws Exception {
+        async.send("SET", "ASYNC-STRING", "A").get(5, TimeUnit.SECONDS);
+        try {
+            async.send("INCR", "ASYNC-STRING").get(5, TimeUnit.SECONDS);
+            fail("Expected an error reply");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandException);
+        }
+    }
+
+    @Test
+    public void scanTest() throws Exception {
+        Set<String> members = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            members.add(Integer.toString(i));
+            async.send(sadd("ASYNC-SET", Integer.toString(i)));
+        }
+        async.send(ping()).get(5, TimeUnit.SECONDS);
+
+        TestSubscriber subscriber = new TestSubscriber();
+        async.scan("SSCAN", "ASYNC-SET").subscribe(subscriber);
+
+        Set<String> scanned = new HashSet<>();
+        RespType item;
+        while ((item = subscriber.next()) != null) {
+            scanned.add((String) item.unwrap());
+        }
+        assertEquals(members, scanned);
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void subscribeBackpressureTest() throws Exception {
+        async.setBufferSize(10);
+        TestSubscriber subscriber = new TestSubscriber();
+        async.subscribe("ASYNC-CHANNEL").subscribe(subscriber);
+
+        // Wait for the subscription to be in place
+        while ((Long) async.send(publish("ASYNC-CHANNEL", "-1")).get(5, TimeUnit.SECONDS).unwrap() == 0) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 100; i++) {
+            async.send(publish("ASYNC-CHANNEL", Integer.toString(i)));
+        }
+        async.send(ping()).get(5, TimeUnit.SECONDS);
+
+        // Nothing is delivered until requested, then everything is delivered in order
+        Thread.sleep(100);
+        assertTrue(subscriber.items.isEmpty());
+        assertEquals("-1", payload(subscriber.next()));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), payload(subscriber.next()));
+        }
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void monitorTest() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        async.monitor().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        RespType line = null;
+        for (int i = 0; i < 100 && line == null; i++) {
+            async.send("GET", "ASYNC-MONITORED").get(5, TimeUnit.SECONDS);
+            line = subscriber.items.poll(50, TimeUnit.MILLISECONDS);
+        }
+        assertNotNull(line);
+        assertTrue(((String) line.unwrap()).contains("ASYNC-MONITORED"));
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void xreadgroupTest() throws Exception {
+        async.send("XGROUP", "CREATE", "ASYNC-STREAM", "GROUP", "$", "MKSTREAM").get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 5; i++) {
+            async.send("XADD", "ASYNC-STREAM", "*", "n", Integer.toString(i));
+        }
+
+        TestSubscriber subscriber = new TestSubscriber();
+        async.xreadgroup("GROUP", "CONSUMER", "ASYNC-STREAM", 2).subscribe(subscriber);
+        for (int i = 0; i < 5; i++) {
+            List<RespType> entry = ((Ary) subscriber.next()).raw();
+            assertEquals(Integer.toString(i), ((Ary) entry.get(1)).raw().get(1).unwrap());
+        }
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void xreadgroupPendingTest() throws Exception {
+        async.send("XGROUP", "CREATE", "ASYNC-PENDING", "GROUP", "$", "MKSTREAM").get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 5; i++) {
+            async.send("XADD", "ASYNC-PENDING", "*", "n", Integer.toString(i));
+        }
+        // Read, but not acknowledged, so they're pending for this consumer
+        async.send("XREADGROUP", "GROUP", "GROUP", "CONSUMER", "COUNT", "5", "STREAMS", "ASYNC-PENDING", ">")
+                .get(5, TimeUnit.SECONDS);
+        for (int i = 5; i < 7; i++) {
+            async.send("XADD", "ASYNC-PENDING", "*", "n", Integer.toString(i));
+        }
+
+        TestSubscriber subscriber = new TestSubscriber();
+        async.xreadgroup("GROUP", "CONSUMER", "ASYNC-PENDING", 2).subscribe(subscriber);
+        Set<Object> ids = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            List<RespType> entry = ((Ary) subscriber.next()).raw();
+            assertTrue(ids.add(entry.get(0).unwrap()));
+            assertEquals(Integer.toString(i), ((Ary) entry.get(1)).raw().get(1).unwrap());
+        }
+
+        // Each only once, the pending entries aren't read again
+        subscriber.subscription.request(1);
+        assertNull(subscriber.items.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(subscriber.error);
+        subscriber.subscription.cancel();
+    }
+
+    private static String payload(RespType message) {
+        return (String) ((Ary) message).raw().get(2).unwrap();
+    }
+
+    /**
+     * Requests one item at a time, when the test asks for it
+     */
+    private static class TestSubscriber implements Subscriber<RespType> {
+        private final BlockingQueue<RespType> items = new LinkedBlockingQueue<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(RespType item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        /**
+         * The next item, or null if the stream completes first
+         */
+        RespType next() throws InterruptedException {
+            subscription.request(1);
+            for (int i = 0; i < 500; i++) {
+                RespType item = items.poll(10, TimeUnit.MILLISECONDS);
+                if (item != null) {
+                    return item;
+                } else if (error != null) {
+                    throw new AssertionError("Failed", error);
+                } else if (completed.getCount() == 0) {
+                    return items.poll();
+                }
+            }
+            throw new AssertionError("Nothing received");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.codec;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CodecsTest {
+    private static final TaggedCodec<String> UPPER = new TaggedCodec<>((byte) 'u', new Codec<String>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.toUpperCase().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes, int offset, int length) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8).toLowerCase();
+        }
+    });
+
+    @Test
+    public void taggedTest() throws Exception {
+        byte[] encoded = UPPER.encode("value");
+        assertEquals(7, encoded.length);
+        assertEquals('u', TaggedCodec.tagOf(encoded, 0, encoded.length));
+        assertEquals("value", UPPER.decode(encoded, 0, encoded.length));
+
+        byte[] plain = Codecs.UTF8.encode("value");
+        assertEquals(-1, TaggedCodec.tagOf(plain, 0, plain.length));
+    }
+
+    @Test
+    public void unionTest() throws Exception {
+        Codec<Object> union = TaggedCodec.union(Codecs.UTF8, Collections.singletonMap((byte) 'u', UPPER));
+
+        // Part of a larger buffer, as when decoding a reply
+        byte[] buffer = new byte[20];
+        byte[] encoded = UPPER.encode("tagged");
+        System.arraycopy(encoded, 0, buffer, 5, encoded.length);
+        assertEquals("tagged", union.decode(buffer, 5, encoded.length));
+
+        byte[] plain = Codecs.UTF8.encode("PLAIN");
+        assertEquals("PLAIN", union.decode(plain, 0, plain.length));
+
+        // Has the header, but wasn't written by that codec
+        TaggedCodec<String> failing = new TaggedCodec<>((byte) 'f', new Codec<String>() {
+            @Override
+            public byte[] encode(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String decode(byte[] bytes, int offset, int length) {
+                throw new IllegalArgumentException("Not mine");
+            }
+        });
+        Codec<Object> failingUnion = TaggedCodec.union(Codecs.BYTES, Collections.singletonMap((byte) 'f', failing));
+        byte[] binary = {0, 'f', 1, 2};
+        assertArrayEquals(binary, (byte[]) failingUnion.decode(binary, 0, binary.length));
+    }
+
+    @Test
+    public void bytesTest() throws Exception {
+        byte[] buffer = {1, 2, 3, 4};
+        assertArrayEquals(new byte[]{2, 3}, Codecs.BYTES.decode(buffer, 1, 2));
+    }
+}
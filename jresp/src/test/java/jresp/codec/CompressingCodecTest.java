@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.codec;
+
+import jresp.protocol.BulkStr;
+import jresp.protocol.DeflatedStr;
+import jresp.protocol.RespType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressingCodecTest {
+    private static final CompressingCodec<String> CODEC = new CompressingCodec<>(Codecs.UTF8, 100);
+
+    private static String repetitive(int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append("redis-async ");
+        }
+        return sb.substring(0, length);
+    }
+
+    /**
+     * The bytes of the bulk string that would be sent, without the RESP header
+     */
+    private static byte[] written(RespType resp) {
+        Deque<ByteBuffer> out = new ArrayDeque<>();
+        resp.writeBytes(out);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteBuffer bb : out) {
+            bb.flip();
+            bytes.write(bb.array(), bb.arrayOffset(), bb.limit());
+        }
+        String all = new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+        int crlf = all.indexOf("\r\n");
+        int length = Integer.parseInt(all.substring(1, crlf));
+        assertEquals(crlf + 2 + length + 2, all.length());
+        return all.substring(crlf + 2, crlf + 2 + length).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void thresholdTest() throws Exception {
+        assertEquals(BulkStr.class, CODEC.toResp(repetitive(99)).getClass());
+        assertEquals(DeflatedStr.class, CODEC.toResp(repetitive(100)).getClass());
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        // Larger than one chunk
+        String value = repetitive(100000);
+        byte[] bytes = written(CODEC.toResp(value));
+        assertTrue(bytes.length < 10000);
+        assertTrue(CompressingCodec.isCompressed(bytes, 0, bytes.length));
+        assertEquals(value, CODEC.decode(bytes, 0, bytes.length));
+
+        byte[] encoded = CODEC.encode(value);
+        assertArrayEquals(bytes, encoded);
+
+        byte[] plain = Codecs.UTF8.encode("plain");
+        assertEquals("plain", CODEC.decode(plain, 0, plain.length));
+    }
+
+    @Test
+    public void incompressibleTest() throws Exception {
+        byte[] random = new byte[1000];
+        new Random(1).nextBytes(random);
+        byte[] bytes = written(CODEC.compress(random));
+        assertArrayEquals(random, bytes);
+    }
+
+    @Test
+    public void unionTest() throws Exception {
+        Codec<Object> union = TaggedCodec.union(Codecs.UTF8, Collections.emptyMap());
+        String value = repetitive(1000);
+        byte[] bytes = written(CODEC.toResp(value));
+
+        // Part of a larger buffer, as when decoding a reply
+        byte[] buffer = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, buffer, 5, bytes.length);
+        assertEquals(value, union.decode(buffer, 5, bytes.length));
+
+        // Not valid DEFLATE data, so left as it is
+        byte[] corrupt = Arrays.copyOf(bytes, 20);
+        Arrays.fill(corrupt, DeflatedStr.HEADER_LENGTH, corrupt.length, (byte) -1);
+        assertEquals(new String(corrupt, StandardCharsets.UTF_8), union.decode(corrupt, 0, corrupt.length));
+
+        // Nor are sizes that can't be right, and aren't allocated
+        byte[] negative = {0, 'z', -1, -1, -1, -1, 1, 2};
+        assertArrayEquals(negative, CompressingCodec.inflate(negative, 0, negative.length));
+        byte[] huge = {0, 'z', 0x7f, -1, -1, -1, 1, 2};
+        assertArrayEquals(huge, CompressingCodec.inflate(huge, 0, huge.length));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.metrics;
+
+import jresp.JRESPTest;
+import jresp.pool.Pool;
+import jresp.pool.SingleCommandConnection;
+import jresp.protocol.Ary;
+import jresp.protocol.BulkStr;
+import jresp.protocol.Int;
+import jresp.protocol.RespType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest extends JRESPTest {
+    private static final int NUM_COMMANDS = 1000;
+
+    private InMemoryMetrics metrics;
+
+    private Pool pool;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        metrics = new InMemoryMetrics();
+        client.setMetrics(metrics);
+        pool = new Pool(client);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    @Test
+    public void histogramTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertEquals(5000500.0, histogram.getMean(), 0.1);
+
+        // Within the 1/16th precision of the buckets
+        assertEquals(5000000, histogram.getPercentile(50), 5000000 / 16);
+        assertEquals(9900000, histogram.getPercentile(99), 9900000 / 16);
+        assertEquals(10000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void bucketTest() {
+        for (long value : new long[]{0, 1, 15, 16, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.highestValue(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValue(bucket - 1) < value);
+        }
+    }
+
+    @Test
+    public void connectionMetricsTest() throws Exception {
+        SingleCommandConnection con = pool.getShared();
+        latch = new CountDownLatch(NUM_COMMANDS);
+        for (int i = 0; i < NUM_COMMANDS; i++) {
+            con.write(ping(), resp -> latch.countDown());
+        }
+        await();
+
+        assertTrue(metrics.getCommands() >= NUM_COMMANDS);
+        assertTrue(metrics.getLatency().getCount() >= NUM_COMMANDS);
+        assertTrue(metrics.getLatency().getPercentile(50) > 0);
+        assertTrue(metrics.getCallbacks().getCount() >= NUM_COMMANDS);
+        assertTrue(metrics.getBytesWritten() > 0);
+        assertTrue(metrics.getBytesRead() > 0);
+        assertTrue(metrics.getLoopIterations().getCount() > 0);
+        assertTrue(metrics.commandsPerSecond() > 0);
+
+        assertEquals(1, metrics.getConnections().size());
+        InMemoryMetrics.ConnectionMetrics conMetrics = metrics.getConnection(metrics.getConnections().iterator().next());
+        assertEquals(NUM_COMMANDS, conMetrics.getLatency().getCount());
+        assertTrue(conMetrics.getMaxResponseQueueDepth() > 0);
+    }
+
+    @Test
+    public void commandGroupsTest() throws Exception {
+        Map<String, String> groups = new HashMap<>();
+        groups.put("PING", "connection");
+        groups.put("SET", "string");
+        groups.put("GET", "string");
+        metrics.setCommandGroups(groups);
+        metrics.setSlowLogSize(5);
+
+        SingleCommandConnection con = pool.getShared();
+        latch = new CountDownLatch(NUM_COMMANDS * 2 + 1);
+        con.write(set("METRICS-KEY", "VALUE"), resp -> latch.countDown());
+        for (int i = 0; i < NUM_COMMANDS; i++) {
+            con.write(ping(), resp -> latch.countDown());
+            con.write(get("METRICS-KEY"), resp -> latch.countDown());
+        }
+        con.write(command("ECHO", new BulkStr("hello")), resp -> latch.countDown());
+        await();
+
+        Map<String, InMemoryMetrics.CommandMetrics> byGroup = metrics.getCommandGroups();
+        assertEquals(NUM_COMMANDS, byGroup.get("connection").getLatency().getCount());
+        assertEquals(NUM_COMMANDS + 1, byGroup.get("string").getLatency().getCount());
+        assertEquals(5, byGroup.get("string").getReplySize().getPercentile(50));
+        assertTrue(byGroup.containsKey("other"));
+
+        List<InMemoryMetrics.SlowCommand> slow = metrics.getSlowCommands();
+        assertEquals(5, slow.size());
+        for (int i = 1; i < slow.size(); i++) {
+            assertTrue(slow.get(i - 1).getNanos() >= slow.get(i).getNanos());
+        }
+    }
+
+    @Test
+    public void replySizeTest() {
+        assertEquals(5, InMemoryMetrics.replySize(new BulkStr("hello")));
+        assertEquals(0, InMemoryMetrics.replySize(new BulkStr()));
+        assertEquals(13, InMemoryMetrics.replySize(new Ary(new BulkStr("hello"), new Int(1))));
+    }
+
+    @Test
+    public void truncateTest() {
+        byte[] large = new byte[1000];
+        Arrays.fill(large, (byte) 'x');
+        List<RespType> args = new ArrayList<>();
+        args.add(new BulkStr("SET"));
+        args.add(new BulkStr("KEY"));
+        args.add(new BulkStr(large));
+        List<RespType> truncated = ((Ary) InMemoryMetrics.truncate(new Ary(args))).raw();
+        assertEquals(3, truncated.size());
+        assertEquals(new BulkStr("KEY"), truncated.get(1));
+        assertTrue(((String) truncated.get(2).unwrap()).endsWith("... (872 more bytes)"));
+
+        for (int i = 0; i < 100; i++) {
+            args.add(new BulkStr("ARG"));
+        }
+        truncated = ((Ary) InMemoryMetrics.truncate(new Ary(args))).raw();
+        assertEquals(32, truncated.size());
+        assertEquals(new BulkStr("... (72 more arguments)"), truncated.get(31));
+    }
+}
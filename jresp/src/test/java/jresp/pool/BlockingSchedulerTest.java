@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.pool;
+
+import jresp.JRESPTest;
+import jresp.protocol.BulkStr;
+import jresp.protocol.Err;
+import jresp.protocol.RespType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockingSchedulerTest extends JRESPTest {
+    private Pool pool;
+    private BlockingScheduler scheduler;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        pool = new Pool(client);
+        pool.setBlockingConnections(1);
+        scheduler = pool.getBlockingScheduler();
+
+        latch = new CountDownLatch(1);
+        pool.getShared().write(flushDB(), resp -> latch.countDown());
+        await();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    @Test
+    public void coalescedWaitersTest() throws Exception {
+        List<Object> responses = new CopyOnWriteArrayList<>();
+        latch = new CountDownLatch(3);
+
+        for (String key : Arrays.asList("BLOCK-A", "BLOCK-B", "BLOCK-A")) {
+            scheduler.submit("BLPOP", Collections.singletonList(new BulkStr(key)), 0, resp -> {
+                responses.add(resp.unwrap());
+                latch.countDown();
+            });
+        }
+
+        SingleCommandConnection shared = pool.getShared();
+        shared.write(rpush("BLOCK-A", "1"), NULL_RESPONSES);
+        shared.write(rpush("BLOCK-B", "2"), NULL_RESPONSES);
+        shared.write(rpush("BLOCK-A", "3"), NULL_RESPONSES);
+
+        await();
+
+        assertEquals(3, responses.size());
+        assertEquals(Arrays.asList("BLOCK-A", "1"), responses.get(0));
+        assertTrue(responses.containsAll(Arrays.asList(Arrays.asList("BLOCK-B", "2"), Arrays.asList("BLOCK-A", "3"))));
+    }
+
+    @Test
+    public void timeoutTest() throws Exception {
+        RespType[] responses = new RespType[1];
+        latch = new CountDownLatch(1);
+
+        scheduler.submit("BRPOP", Collections.singletonList(new BulkStr("BLOCK-TIMEOUT")), 1, resp -> {
+            responses[0] = resp;
+            latch.countDown();
+        });
+
+        await();
+
+        assertNull(responses[0].unwrap());
+    }
+
+    @Test
+    public void wrongTypeTest() throws Exception {
+        RespType[] responses = new RespType[2];
+        latch = new CountDownLatch(1);
+        pool.getShared().write(set("BLOCK-STRING", "value"), resp -> latch.countDown());
+        await();
+
+        CountDownLatch popped = new CountDownLatch(1);
+        scheduler.submit("BLPOP", Collections.singletonList(new BulkStr("BLOCK-WAIT")), 0, resp -> {
+            responses[0] = resp;
+            popped.countDown();
+        });
+
+        latch = new CountDownLatch(1);
+        scheduler.submit("BLPOP", Collections.singletonList(new BulkStr("BLOCK-STRING")), 0, resp -> {
+            responses[1] = resp;
+            latch.countDown();
+        });
+        await();
+
+        assertTrue(responses[1] instanceof Err);
+        assertNull(responses[0]);
+
+        latch = popped;
+        pool.getShared().write(rpush("BLOCK-WAIT", "1"), NULL_RESPONSES);
+        await();
+
+        assertEquals(Arrays.asList("BLOCK-WAIT", "1"), responses[0].unwrap());
+    }
+}
@@ -16,6 +16,7 @@
 
 package jresp.pool;
 
+import jresp.ConnectionException;
 import jresp.JRESPTest;
 import jresp.protocol.RespType;
 import org.junit.After;
@@ -26,6 +27,7 @@ import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class BorrowedConnectionTest extends JRESPTest {
     private Pool pool;
@@ -59,4 +61,54 @@ public class BorrowedConnectionTest extends JRESPTest {
 
         assertEquals(Arrays.asList("BLPOPTESTKEY", "TESTVAL"), responses[0].unwrap());
     }
+
+    @Test
+    public void warmUpTest() throws Exception {
+        Pool warmPool = new Pool(client);
+        warmPool.setMinIdle(3);
+        warmPool.warmUp();
+
+        assertEquals(3, warmPool.idleCount());
+
+        SingleCommandConnection borrowedCon = warmPool.getBorrowed();
+        assertEquals(2, warmPool.idleCount());
+
+        warmPool.returnBorrowed(borrowedCon);
+        assertEquals(3, warmPool.idleCount());
+    }
+
+    @Test
+    public void idleTimeoutTest() throws Exception {
+        // No minimum idle, nor warming up, so only the idle timeout starts the maintenance
+        Pool idlePool = new Pool(client);
+        idlePool.setIdleTimeout(100);
+
+        idlePool.returnBorrowed(idlePool.getBorrowed());
+        assertEquals(1, idlePool.idleCount());
+
+        // Evicted on the next maintenance run
+        Thread.sleep(2500);
+        assertEquals(0, idlePool.idleCount());
+    }
+
+    @Test(expected = ConnectionException.class)
+    public void maxTotalTest() throws Exception {
+        Pool smallPool = new Pool(client);
+        smallPool.setMaxTotal(1);
+        smallPool.setBorrowTimeout(100);
+
+        smallPool.getBorrowed();
+        smallPool.getBorrowed();
+    }
+
+    @Test
+    public void maxTotalReuseTest() throws Exception {
+        Pool smallPool = new Pool(client);
+        smallPool.setMaxTotal(1);
+
+        SingleCommandConnection first = smallPool.getBorrowed();
+        smallPool.returnBorrowed(first);
+
+        assertSame(first, smallPool.getBorrowed());
+    }
 }
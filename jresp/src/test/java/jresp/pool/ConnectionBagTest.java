@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jresp.pool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectionBagTest {
+    private static final int THREADS = 16;
+    private static final int ITEMS = 8;
+    private static final int CYCLES = 200_000;
+
+    private ConnectionBag<Integer> bag;
+
+    @Before
+    public void setup() {
+        bag = new ConnectionBag<>();
+    }
+
+    @Test
+    public void borrowAndReturn() throws Exception {
+        bag.add(1);
+        bag.add(2);
+
+        Integer first = bag.borrow();
+        Integer second = bag.borrow();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNotEquals(first, second);
+        assertNull(bag.borrow());
+        assertEquals(0, bag.idleCount());
+
+        bag.requite(first);
+        assertEquals(1, bag.idleCount());
+        assertEquals(first, bag.borrow());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void returnNotBorrowed() throws Exception {
+        bag.add(1);
+        bag.requite(1);
+    }
+
+    @Test
+    public void removedNotBorrowed() throws Exception {
+        bag.add(1);
+        assertTrue(bag.remove(1));
+        assertNull(bag.borrow());
+        assertEquals(0, bag.size());
+    }
+
+    @Test
+    public void waitForReturn() throws Exception {
+        bag.add(1);
+        Integer borrowed = bag.borrow();
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor.schedule(() -> bag.requite(borrowed), 50, TimeUnit.MILLISECONDS);
+
+        assertEquals(borrowed, bag.borrow(5, TimeUnit.SECONDS));
+        assertNull(bag.borrow(10, TimeUnit.MILLISECONDS));
+
+        executor.shutdown();
+    }
+
+    /**
+     * Many threads repeatedly borrowing and returning a small number of items, an item must never be borrowed by two
+     * threads at once.
+     */
+    @Test
+    public void exclusiveUnderContention() throws Exception {
+        for (int i = 0; i < ITEMS; i++) {
+            bag.add(i);
+        }
+        AtomicInteger[] holders = new AtomicInteger[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            holders[i] = new AtomicInteger();
+        }
+
+        run(() -> {
+            Integer item = bag.borrow(5, TimeUnit.SECONDS);
+            assertNotNull(item);
+            assertEquals(1, holders[item].incrementAndGet());
+            holders[item].decrementAndGet();
+            bag.requite(item);
+        });
+
+        assertEquals(ITEMS, bag.idleCount());
+    }
+
+    /**
+     * Compares the bag against the previous approach of synchronized HashSets.
+     */
+    @Test
+    public void contentionBenchmark() throws Exception {
+        for (int i = 0; i < ITEMS; i++) {
+            bag.add(i);
+        }
+        long bagTime = run(() -> {
+            Integer item = bag.borrow(5, TimeUnit.SECONDS);
+            bag.requite(item);
+        });
+
+        SynchronizedSets sets = new SynchronizedSets();
+        for (int i = 0; i < ITEMS; i++) {
+            sets.borrowable.add(i);
+        }
+        long setsTime = run(() -> {
+            Integer item = sets.borrow();
+            sets.requite(item);
+        });
+
+        System.out.printf("%d threads, %d borrows each: bag %.2fms, synchronized sets %.2fms%n",
+                THREADS, CYCLES, bagTime / 1000000.0, setsTime / 1000000.0);
+    }
+
+    private interface Cycle {
+        void run() throws Exception;
+    }
+
+    private static long run(Cycle cycle) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?>[] futures = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                futures[t] = executor.submit(() -> {
+                    start.await();
+                    for (int n = 0; n < CYCLES; n++) {
+                        cycle.run();
+                    }
+                    return null;
+                });
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - startTime;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The equivalent of the original Pool implementation
+     */
+    private static class SynchronizedSets {
+        private final Set<Integer> borrowable = new HashSet<>();
+        private final Set<Integer> borrowed = new HashSet<>();
+
+        synchronized Integer borrow() throws InterruptedException {
+            while (true) {
+                Iterator<Integer> i = borrowable.iterator();
+                if (i.hasNext()) {
+                    Integer item = i.next();
+                    i.remove();
+                    borrowed.add(item);
+                    return item;
+                }
+                wait();
+            }
+        }
+
+        synchronized void requite(Integer item) {
+            borrowed.remove(item);
+            borrowable.add(item);
+            notifyAll();
+        }
+    }
+}
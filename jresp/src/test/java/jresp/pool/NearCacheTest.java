@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.JRESPTest;
+import jresp.protocol.RespType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class NearCacheTest extends JRESPTest {
+    private Pool pool;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    private SingleCommandConnection startTracking(int protocol) throws Exception {
+        client.setProtocol(protocol);
+        pool = new Pool(client);
+        pool.setNearCacheSize(100);
+
+        SingleCommandConnection sharedConnection = pool.getShared();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pool.getNearCache().isAttached(sharedConnection)) {
+            assertTrue("Tracking not enabled", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            sharedConnection = pool.getShared();
+        }
+
+        latch = new CountDownLatch(1);
+        sharedConnection.write(flushDB(), resp -> latch.countDown());
+        await();
+
+        return sharedConnection;
+    }
+
+    private Object send(SingleCommandConnection con, RespType command) throws Exception {
+        Object[] result = new Object[1];
+        latch = new CountDownLatch(1);
+        con.write(command, resp -> {
+            result[0] = resp.unwrap();
+            latch.countDown();
+        });
+        await();
+        return result[0];
+    }
+
+    private void invalidationTest(int protocol) throws Exception {
+        SingleCommandConnection sharedConnection = startTracking(protocol);
+        NearCache cache = pool.getNearCache();
+
+        send(sharedConnection, set("CACHED", "ONE"));
+        assertEquals("ONE", send(sharedConnection, get("CACHED")));
+        assertEquals("ONE", send(sharedConnection, get("CACHED")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        long invalidations = cache.getInvalidations();
+        SingleCommandConnection other = pool.getBorrowed();
+        try {
+            send(other, set("CACHED", "TWO"));
+        } finally {
+            pool.returnBorrowed(other);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getInvalidations() == invalidations) {
+            assertTrue("No invalidation received", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        assertEquals("TWO", send(sharedConnection, get("CACHED")));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void resp2InvalidationTest() throws Exception {
+        invalidationTest(2);
+    }
+
+    @Test
+    public void resp3InvalidationTest() throws Exception {
+        invalidationTest(3);
+    }
+
+    @Test
+    public void readOwnWritesTest() throws Exception {
+        SingleCommandConnection sharedConnection = startTracking(2);
+
+        send(sharedConnection, set("CACHED", "ONE"));
+        assertEquals("ONE", send(sharedConnection, get("CACHED")));
+
+        // No waiting for the invalidation from Redis
+        sharedConnection.write(set("CACHED", "TWO"), NULL_RESPONSES);
+        assertEquals("TWO", send(sharedConnection, get("CACHED")));
+    }
+
+    @Test
+    public void unrelatedWritesTest() throws Exception {
+        SingleCommandConnection sharedConnection = startTracking(2);
+        NearCache cache = pool.getNearCache();
+
+        send(sharedConnection, set("CACHED", "ONE"));
+
+        // Writes to other keys while the read is in-flight don't stop it being cached
+        latch = new CountDownLatch(2);
+        sharedConnection.write(get("CACHED"), resp -> latch.countDown());
+        sharedConnection.write(set("OTHER", "TWO"), resp -> latch.countDown());
+        await();
+
+        assertEquals("ONE", send(sharedConnection, get("CACHED")));
+        assertEquals(1, cache.getHits());
+
+        // But a write to the same key does
+        latch = new CountDownLatch(2);
+        sharedConnection.write(get("OTHER"), resp -> latch.countDown());
+        sharedConnection.write(set("OTHER", "THREE"), resp -> latch.countDown());
+        await();
+
+        assertEquals("THREE", send(sharedConnection, get("OTHER")));
+    }
+}
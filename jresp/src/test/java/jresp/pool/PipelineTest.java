@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.JRESPTest;
+import jresp.protocol.BulkStr;
+import jresp.protocol.Err;
+import jresp.protocol.RespType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PipelineTest extends JRESPTest {
+    private Pool pool;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        pool = new Pool(client);
+        latch = new CountDownLatch(1);
+        pool.getShared().write(flushDB(), resp -> latch.countDown());
+        await();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    @Test
+    public void orderedResultsTest() throws Exception {
+        Pipeline pipeline = new Pipeline(pool.getShared());
+        List<RespType> results = Collections.synchronizedList(new ArrayList<>());
+        latch = new CountDownLatch(3);
+
+        pipeline.add(set("PIPELINE-KEY", "A"), resp -> {
+            results.add(resp);
+            latch.countDown();
+        });
+        pipeline.add(get("PIPELINE-KEY"), resp -> {
+            results.add(resp);
+            latch.countDown();
+        });
+        pipeline.add(ping(), resp -> {
+            results.add(resp);
+            latch.countDown();
+        });
+        assertEquals(3, pipeline.size());
+
+        pipeline.flush();
+        assertEquals(0, pipeline.size());
+        await();
+
+        assertEquals("OK", results.get(0).unwrap());
+        assertEquals("A", results.get(1).unwrap());
+        assertEquals("PONG", results.get(2).unwrap());
+    }
+
+    @Test
+    public void transactionTest() throws Exception {
+        Transaction transaction = new Transaction(pool.getShared());
+        RespType[] results = new RespType[3];
+        latch = new CountDownLatch(3);
+
+        transaction.add(set("TRANSACTION-KEY", "1"), resp -> {
+            results[0] = resp;
+            latch.countDown();
+        });
+        transaction.add(command("INCR", new BulkStr("TRANSACTION-KEY")), resp -> {
+            results[1] = resp;
+            latch.countDown();
+        });
+        transaction.exec(resp -> {
+            results[2] = resp;
+            latch.countDown();
+        });
+        await();
+
+        assertEquals("OK", results[0].unwrap());
+        assertEquals(2L, results[1].unwrap());
+        assertEquals(Arrays.asList("OK", 2L), results[2].unwrap());
+    }
+
+    @Test
+    public void abortedTransactionTest() throws Exception {
+        Transaction transaction = new Transaction(pool.getShared());
+        RespType[] results = new RespType[3];
+        latch = new CountDownLatch(3);
+
+        transaction.add(set("TRANSACTION-KEY", "1"), resp -> {
+            results[0] = resp;
+            latch.countDown();
+        });
+        transaction.add(command("INCR"), resp -> {
+            results[1] = resp;
+            latch.countDown();
+        });
+        transaction.exec(resp -> {
+            results[2] = resp;
+            latch.countDown();
+        });
+        await();
+
+        assertTrue(results[0] instanceof Err);
+        assertTrue(results[1] instanceof Err);
+        assertTrue(results[2] instanceof Err);
+        assertNotEquals(results[1], results[2]);
+    }
+
+    @Test
+    public void bulkLoadBenchmark() throws Exception {
+        int numCommands = 100000;
+        SingleCommandConnection sharedConnection = pool.getShared();
+
+        long start = System.nanoTime();
+        latch = new CountDownLatch(numCommands);
+        for (int i = 0; i < numCommands; i++) {
+            sharedConnection.write(set("INDIVIDUAL-" + i, Integer.toString(i)), resp -> latch.countDown());
+        }
+        await();
+        System.out.printf("Individually: %d SETs done in %.2fms%n", numCommands, (System.nanoTime() - start) / 1000000.0);
+
+        start = System.nanoTime();
+        latch = new CountDownLatch(numCommands);
+        Pipeline pipeline = new Pipeline(sharedConnection);
+        for (int i = 0; i < numCommands; i++) {
+            pipeline.add(set("PIPELINED-" + i, Integer.toString(i)), resp -> latch.countDown());
+        }
+        pipeline.flush();
+        await();
+        System.out.printf("Pipelined: %d SETs done in %.2fms%n", numCommands, (System.nanoTime() - start) / 1000000.0);
+    }
+}
@@ -16,6 +16,7 @@
 
 package jresp.pool;
 
+import jresp.Client;
 import jresp.JRESPTest;
 import org.junit.After;
 import org.junit.Before;
@@ -23,10 +24,12 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class PubSubConnectionTest extends JRESPTest {
     private Pool pool;
@@ -74,4 +77,84 @@ public class PubSubConnectionTest extends JRESPTest {
 
         assertEquals(Arrays.asList("ahoy", "slightly longer string", "1"), responses);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void pSubscribeTest() throws Exception {
+        List<Object> responses = new ArrayList<>();
+        latch = new CountDownLatch(1);
+
+        con.psubscribe("TEST-PATTERN-*", resp -> {
+            responses.add(resp.unwrap());
+            latch.countDown();
+        });
+
+        await();
+        assertEquals(Collections.singletonList("TEST-PATTERN-*"), responses);
+        responses.clear();
+        latch = new CountDownLatch(2);
+
+        SingleCommandConnection sharedConnection = pool.getShared();
+        sharedConnection.write(publish("TEST-PATTERN-1", "ahoy"), NULL_RESPONSES);
+        sharedConnection.write(publish("TEST-PATTERN-2", "there"), NULL_RESPONSES);
+
+        await();
+
+        assertEquals(Arrays.asList(Arrays.asList("TEST-PATTERN-1", "ahoy"), Arrays.asList("TEST-PATTERN-2", "there")),
+                responses);
+    }
+
+    @Test
+    public void throughputBenchmark() throws Exception {
+        int numMessages = 50000;
+        latch = new CountDownLatch(1);
+        con.subscribe("TEST-THROUGHPUT", resp -> latch.countDown());
+        await();
+
+        latch = new CountDownLatch(numMessages);
+        long start = System.nanoTime();
+        SingleCommandConnection sharedConnection = pool.getShared();
+        for (int i = 0; i < numMessages; i++) {
+            sharedConnection.write(publish("TEST-THROUGHPUT", Integer.toString(i)), NULL_RESPONSES);
+        }
+        await();
+        System.out.printf("Received %d messages in %.2fms%n", numMessages, (System.nanoTime() - start) / 1000000.0);
+    }
+
+    @Test
+    public void resp3PubSubTest() throws Exception {
+        Client resp3Client = new Client("localhost", 6379);
+        resp3Client.setDb(2);
+        resp3Client.setProtocol(3);
+        Pool resp3Pool = new Pool(resp3Client);
+        try {
+            PubSubConnection resp3Con = resp3Pool.getPubSub();
+            List<String> responses = new ArrayList<>();
+            latch = new CountDownLatch(1);
+
+            resp3Con.subscribe("TEST-CHANNEL-3", resp -> {
+                responses.add((String) resp.unwrap());
+                latch.countDown();
+            });
+
+            await();
+            responses.clear();
+            latch = new CountDownLatch(3);
+
+            // Under RESP3 the shared connection carries both the subscription and ordinary commands
+            SingleCommandConnection sharedConnection = resp3Pool.getShared();
+            sharedConnection.write(publish("TEST-CHANNEL-3", "one"), NULL_RESPONSES);
+            sharedConnection.write(ping(), resp -> {
+                responses.add((String) resp.unwrap());
+                latch.countDown();
+            });
+            sharedConnection.write(publish("TEST-CHANNEL-3", "two"), NULL_RESPONSES);
+
+            await();
+
+            assertEquals(3, responses.size());
+            assertTrue(responses.containsAll(Arrays.asList("one", "PONG", "two")));
+        } finally {
+            resp3Pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.JRESPTest;
+import jresp.Responses;
+import jresp.protocol.BulkStr;
+import jresp.protocol.RespType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PubSubGroupTest extends JRESPTest {
+    private static final int NUM_CHANNELS = 20;
+
+    private Pool pool;
+
+    private PubSubGroup group;
+
+    private Map<String, List<Object>> received;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        pool = new Pool(client);
+        pool.setPubSubConnections(4);
+        group = pool.getPubSubGroup();
+        received = new HashMap<>();
+
+        Map<String, Responses> subscriptions = new HashMap<>();
+        latch = new CountDownLatch(NUM_CHANNELS);
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            String channel = "GROUP-CHANNEL-" + i;
+            List<Object> messages = Collections.synchronizedList(new ArrayList<>());
+            received.put(channel, messages);
+            subscriptions.put(channel, resp -> {
+                messages.add(resp.unwrap());
+                latch.countDown();
+            });
+        }
+        group.subscribe(subscriptions);
+
+        // Each subscriber's first response is the confirmation
+        await();
+        received.values().forEach(List::clear);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        pool.shutdown();
+    }
+
+    private void publishToAll(String message) throws Exception {
+        latch = new CountDownLatch(NUM_CHANNELS);
+        SingleCommandConnection sharedConnection = pool.getShared();
+        for (String channel : received.keySet()) {
+            sharedConnection.write(publish(channel, message), NULL_RESPONSES);
+        }
+        await();
+    }
+
+    @Test
+    public void shardedSubscriptionTest() throws Exception {
+        publishToAll("hello");
+
+        received.values().forEach(messages -> assertEquals(Collections.singletonList("hello"), messages));
+    }
+
+    /**
+     * The number of channels with a subscriber, according to Redis
+     */
+    private int numSubscribers() throws Exception {
+        List<RespType> args = new ArrayList<>();
+        args.add(new BulkStr("NUMSUB"));
+        received.keySet().forEach(channel -> args.add(new BulkStr(channel)));
+
+        latch = new CountDownLatch(1);
+        List<?>[] reply = new List<?>[1];
+        pool.getShared().write(command("PUBSUB", args.toArray(new RespType[args.size()])), resp -> {
+            reply[0] = (List<?>) resp.unwrap();
+            latch.countDown();
+        });
+        await();
+
+        int subscribed = 0;
+        for (int i = 1; i < reply[0].size(); i += 2) {
+            if (((Long) reply[0].get(i)) > 0) {
+                subscribed++;
+            }
+        }
+        return subscribed;
+    }
+
+    @Test
+    public void restoreTest() throws Exception {
+        latch = new CountDownLatch(1);
+        pool.getShared().write(command("CLIENT", new BulkStr("KILL"), new BulkStr("TYPE"), new BulkStr("pubsub")),
+                resp -> latch.countDown());
+        await();
+
+        // Wait until the subscriptions have been restored, then everything should be received as before
+        long deadline = System.currentTimeMillis() + 5000;
+        while (numSubscribers() < NUM_CHANNELS) {
+            assertTrue("Subscriptions not restored", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        publishToAll("again");
+
+        received.values().forEach(messages -> assertEquals(Collections.singletonList("again"), messages));
+    }
+
+    @Test
+    public void unsubscribeTest() throws Exception {
+        List<Object> messages = received.get("GROUP-CHANNEL-0");
+        group.unsubscribe("GROUP-CHANNEL-0");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (messages.isEmpty()) {
+            assertTrue("Not unsubscribed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList(null), messages);
+    }
+}
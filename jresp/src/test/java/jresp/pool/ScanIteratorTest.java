@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.JRESPTest;
+import jresp.protocol.BulkStr;
+import jresp.protocol.RespType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ScanIteratorTest extends JRESPTest {
+    private static final int NUM_MEMBERS = 1000;
+
+    private Pool pool;
+
+    private Set<String> members;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        pool = new Pool(client);
+        members = new HashSet<>();
+        latch = new CountDownLatch(1);
+        pool.getShared().write(flushDB(), NULL_RESPONSES);
+        Pipeline pipeline = new Pipeline(pool.getShared());
+        for (int i = 0; i < NUM_MEMBERS; i++) {
+            members.add("MEMBER-" + i);
+            pipeline.add(sadd("SCAN-SET", "MEMBER-" + i), NULL_RESPONSES);
+        }
+        pipeline.add(ping(), resp -> latch.countDown());
+        pipeline.flush();
+        await();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    @Test
+    public void sscanTest() throws Exception {
+        ScanIterator iterator = new ScanIterator(pool.getShared(),
+                Arrays.asList(new BulkStr("SSCAN"), new BulkStr("SCAN-SET")),
+                Arrays.asList(new BulkStr("COUNT"), new BulkStr("10")));
+
+        Set<String> scanned = new HashSet<>();
+        while (iterator.hasNext()) {
+            scanned.add((String) iterator.next().unwrap());
+        }
+        assertEquals(members, scanned);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void scanAllNodesTest() throws Exception {
+        ScanIterator iterator = new ScanIterator(pool.getClusterNodes().masterConnections(),
+                Collections.singletonList(new BulkStr("SCAN")),
+                Collections.<RespType>emptyList());
+
+        List<Object> keys = new ArrayList<>();
+        iterator.forEachRemaining(key -> keys.add(key.unwrap()));
+        assertEquals(Collections.singletonList("SCAN-SET"), keys);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void errorTest() throws Exception {
+        ScanIterator iterator = new ScanIterator(pool.getShared(),
+                Collections.singletonList(new BulkStr("SSCAN")),
+                Collections.<RespType>emptyList());
+        iterator.hasNext();
+    }
+}
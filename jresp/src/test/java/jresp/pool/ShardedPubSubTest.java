@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.JRESPTest;
+import jresp.Responses;
+import jresp.protocol.BulkStr;
+import jresp.protocol.Err;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ShardedPubSubTest extends JRESPTest {
+    private Pool pool;
+
+    private ShardedPubSub sharded;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        pool = new Pool(client);
+        sharded = pool.getShardedPubSub();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        pool.shutdown();
+    }
+
+    @Test
+    public void slotTest() throws Exception {
+        assertEquals(0x31C3, HashSlots.crc16("123456789".getBytes("UTF-8"), 0, 9));
+        assertEquals(12182, HashSlots.slot("foo"));
+        assertEquals(HashSlots.slot("user1000"), HashSlots.slot("{user1000}.following"));
+        assertEquals(HashSlots.slot("{user1000}.following"), HashSlots.slot("{user1000}.followers"));
+        // Empty hash tags are ignored
+        assertEquals(HashSlots.slot("{}.following"), HashSlots.slot("{}.following"));
+        assertNotEquals(HashSlots.slot("{}.following"), HashSlots.slot("{}.followers"));
+    }
+
+    @Test
+    public void movedTest() throws Exception {
+        ClusterNodes nodes = pool.getClusterNodes();
+        assertFalse(nodes.isMoved(new Err("ERR unknown command")));
+        assertFalse(nodes.isMoved(new Err("MOVED 3999")));
+
+        Err elsewhere = new Err("MOVED 3999 10.0.0.2:6380");
+        assertTrue(nodes.isMoved(elsewhere));
+        assertEquals(InetSocketAddress.createUnresolved("10.0.0.2", 6380), nodes.movedTo(elsewhere));
+
+        // Back to the pool's own server, which is null as with owner
+        Err home = new Err(String.format("MOVED 3999 %s:%d", client.getHostname(), client.getPort()));
+        assertTrue(nodes.isMoved(home));
+        assertNull(nodes.movedTo(home));
+    }
+
+    @Test
+    public void publishTest() throws Exception {
+        List<Object> messages = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Responses> subscriptions = new HashMap<>();
+        latch = new CountDownLatch(2);
+        for (String channel : Arrays.asList("SHARD-CHANNEL-A", "SHARD-CHANNEL-B")) {
+            subscriptions.put(channel, resp -> {
+                messages.add(resp.unwrap());
+                latch.countDown();
+            });
+        }
+        sharded.ssubscribe(subscriptions);
+
+        // Each subscriber's first response is the confirmation
+        await();
+        messages.clear();
+
+        latch = new CountDownLatch(2);
+        sharded.spublish("SHARD-CHANNEL-A", new BulkStr("hello"), NULL_RESPONSES);
+        sharded.spublish("SHARD-CHANNEL-B", new BulkStr("world"), NULL_RESPONSES);
+        await();
+
+        assertEquals(new HashSet<>(Arrays.asList("hello", "world")), new HashSet<>(messages));
+
+        latch = new CountDownLatch(2);
+        messages.clear();
+        sharded.sunsubscribe(subscriptions.keySet());
+        await();
+
+        assertEquals(Arrays.asList(null, null), messages);
+    }
+}
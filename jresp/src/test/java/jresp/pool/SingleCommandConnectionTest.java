@@ -17,17 +17,22 @@
 package jresp.pool;
 
 import jresp.JRESPTest;
+import jresp.ReplyDecoders;
 import jresp.protocol.Ary;
 import jresp.protocol.BulkStr;
+import jresp.protocol.Decoded;
 import jresp.protocol.RespType;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.stream.IntStream;
 
+import static org.junit.Assert.assertEquals;
+
 public class SingleCommandConnectionTest extends JRESPTest {
     private SingleCommandConnection con;
 
@@ -95,4 +100,26 @@ public class SingleCommandConnectionTest extends JRESPTest {
         });
         await();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void decodedTest() throws Exception {
+        int n = 1000;
+        List<RespType> responses = Collections.synchronizedList(new ArrayList<>());
+        latch = new CountDownLatch(n * 2);
+        IntStream.range(0, n).forEach(x -> {
+            // Interleaved, so the decoded replies have to be matched to the right commands
+            con.write(new Ary(new BulkStr("ECHO"), new BulkStr(Integer.toString(x))), ReplyDecoders.LONG, resp -> {
+                responses.add(resp);
+                latch.countDown();
+            });
+            con.write(new Ary(new BulkStr("ECHO"), new BulkStr("plain")), resp -> latch.countDown());
+        });
+        await();
+
+        assertEquals(n, responses.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(Decoded.class, responses.get(i).getClass());
+            assertEquals((long) i, responses.get(i).unwrap());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Ben Ashford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jresp.pool;
+
+import jresp.JRESPTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SyncClientTest extends JRESPTest {
+    private Pool pool;
+
+    private SyncClient sync;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+
+        pool = new Pool(client);
+        sync = new SyncClient(pool);
+        sync.send(flushDB());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        super.teardown();
+    }
+
+    @Test
+    public void basicCommandsTest() throws Exception {
+        assertEquals("PONG", sync.ping());
+        assertNull(sync.get("SYNC-KEY"));
+        sync.set("SYNC-KEY", "A");
+        assertEquals("A", sync.get("SYNC-KEY"));
+        assertTrue(sync.exists("SYNC-KEY"));
+        assertTrue(sync.expire("SYNC-KEY", 100));
+        assertEquals(1, sync.del("SYNC-KEY", "SYNC-MISSING"));
+        assertFalse(sync.exists("SYNC-KEY"));
+        assertEquals(1, sync.incr("SYNC-COUNTER"));
+        assertEquals(2, sync.incr("SYNC-COUNTER"));
+    }
+
+    @Test
+    public void hashTest() throws Exception {
+        sync.hset("SYNC-HASH", "a", "1");
+        sync.hset("SYNC-HASH", "b", "2");
+        assertEquals("1", sync.hget("SYNC-HASH", "a"));
+
+        Map<String, String> hash = sync.hgetall("SYNC-HASH");
+        assertEquals(2, hash.size());
+        assertEquals("2", hash.get("b"));
+    }
+
+    @Test
+    public void errorTest() throws Exception {
+        sync.set("SYNC-STRING", "A");
+        try {
+            sync.incr("SYNC-STRING");
+            fail("Expected a CommandException");
+        } catch (CommandException e) {
+            assertTrue(e.getMessage().contains("not an integer"));
+        }
+
+        // The connection is still usable afterwards
+        assertEquals("A", sync.send("GET", "SYNC-STRING").unwrap());
+    }
+
+    @Test
+    public void concurrentCallersTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                results.add(executor.submit(() -> sync.incr("SYNC-CONCURRENT")));
+            }
+            for (Future<Long> result : results) {
+                result.get();
+            }
+            assertEquals("1000", sync.get("SYNC-CONCURRENT"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Uses a virtual thread per caller where the JVM supports them (Java 21+), otherwise a large platform thread pool.
+     */
+    @Test
+    public void syncBenchmark() throws Exception {
+        int numCommands = 100000;
+        SingleCommandConnection sharedConnection = pool.getShared();
+
+        long start = System.nanoTime();
+        latch = new CountDownLatch(numCommands);
+        for (int i = 0; i < numCommands; i++) {
+            sharedConnection.write(set("ASYNC-" + i, Integer.toString(i)), resp -> latch.countDown());
+        }
+        await();
+        System.out.printf("Callbacks: %d SETs done in %.2fms%n", numCommands, (System.nanoTime() - start) / 1000000.0);
+
+        ExecutorService executor = callerExecutor();
+        try {
+            start = System.nanoTime();
+            List<Future<?>> results = new ArrayList<>(numCommands);
+            for (int i = 0; i < numCommands; i++) {
+                String n = Integer.toString(i);
+                results.add(executor.submit(() -> {
+                    sync.set("SYNC-" + n, n);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            System.out.printf("Blocking: %d SETs done in %.2fms%n", numCommands, (System.nanoTime() - start) / 1000000.0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static ExecutorService callerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(256);
+        }
+    }
+}
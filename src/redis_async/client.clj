@@ -18,10 +18,14 @@
             [clojure.string :as s]
             [clojure.core.async :as a]
             [cheshire.core :as json]
+            [redis-async.codec :as codec]
             [redis-async.core :refer :all]
             [redis-async.protocol :as protocol])
-  (:import [jresp Connection]
-           [jresp.pool PubSubConnection]))
+  (:import [jresp Connection Responses]
+           [jresp.protocol CommandTemplate]
+           [jresp.metrics InMemoryMetrics InMemoryMetrics$CommandMetrics
+            InMemoryMetrics$SlowCommand LatencyHistogram Stall]
+           [jresp.pool ClusterNodes Pool PubSubGroup ScanIterator ShardedPubSub]))
 
 ;; Internal utilities
 
@@ -124,42 +128,266 @@
 ;; Blocking commands
 
 (defn- blocking-command [cmd pool & params]
-  (let [con   (get-connection pool :borrowed)
-        ret-c (->> params
-                   (command->resp cmd)
-                   (send con))]
+  (let [con     (get-connection pool :borrowed)
+        payload (command->resp cmd params)
+        ret-c   (if-let [codec (current-codec pool)]
+                  (send-decoded con payload (codec/reply-decoder codec))
+                  (send con payload))]
     (a/go
       (let [res (a/<! ret-c)]
         (finish-connection pool con)
         res))))
 
-(def blpop (partial blocking-command "BLPOP"))
-(def brpop (partial blocking-command "BRPOP"))
+(defn- multiplexed-blocking-command
+  "BLPOP and BRPOP can wait on many keys at once, so waiters are coalesced onto
+   a few shared connections rather than each borrowing their own"
+  [cmd pool & params]
+  (send-blocking (get-connection pool :blocking)
+                 cmd
+                 (map coerce-to-string (butlast params))
+                 (last params)
+                 (current-codec pool)))
+
+(def blpop (partial multiplexed-blocking-command "BLPOP"))
+(def brpop (partial multiplexed-blocking-command "BRPOP"))
 (def brpoplpush (partial blocking-command "BRPOPLPUSH"))
 
 ;; Pub-sub
 
-(def ^:private pub-sub-channel-size 16)
-
-(defn subscribe [pool channel]
-  (let [^PubSubConnection con (get-connection pool :pub-sub)
-        ch                    (a/chan pub-sub-channel-size (drop 1))]
-    (.subscribe con channel (make-stream-response-handler ch))
-    ch))
+(def ^:private default-subscription-opts
+  {:buffer-size 1024
+   :overflow    :drop-oldest})
+
+(defn pub-sub-dropped
+  "The number of messages dropped for each subscribed channel or pattern due to
+   a full buffer"
+  [^Pool pool]
+  (into {} (.getDroppedMessages pool)))
+
+(defn- make-subscription-handler
+  "Make a response handler that writes messages to a channel with a bounded
+   buffer.  Should the buffer be full the overflow policy applies:
+
+   :drop-oldest - the oldest buffered message is dropped
+   :drop-newest - the incoming message is dropped
+   :disconnect  - the subscription is ended and the channel closed
+   :block       - wait for space in the buffer, this stops the thread that
+                  reads from all connections, so should be used with care.
+
+   The first response, the confirmation of the subscription, is skipped."
+  [^Pool pool name ch {:keys [overflow]} unsubscribe-f]
+  (let [confirmed    (volatile! false)
+        disconnected (volatile! false)
+        dropped      (.droppedMessages pool name)]
+    (reify Responses
+      (responseReceived [this resp]
+        (cond
+          (is-end-of-channel? resp)
+          (a/close! ch)
+
+          (not @confirmed)
+          (vreset! confirmed true)
+
+          @disconnected
+          nil
+
+          (a/offer! ch resp)
+          nil
+
+          :else
+          (case overflow
+            :drop-oldest (do
+                           (a/poll! ch)
+                           (.increment dropped)
+                           (when-not (a/offer! ch resp)
+                             (.increment dropped)))
+            :drop-newest (.increment dropped)
+            :disconnect  (do
+                           (vreset! disconnected true)
+                           (.increment dropped)
+                           (a/close! ch)
+                           ;; Not on this thread, it's busy delivering messages
+                           (future (unsubscribe-f pool name)))
+            :block       (a/>!! ch resp)))))))
+
+(declare unsubscribe punsubscribe sunsubscribe)
+
+(defn- subscribe-channels
+  "Subscribe to many channels or patterns at once, returns a map of each to a
+   channel of messages"
+  [pool con-type names opts subscribe-f unsubscribe-f]
+  (let [opts (merge default-subscription-opts opts)
+        chs  (into {} (map (fn [n] [n (a/chan (:buffer-size opts))]) names))]
+    (subscribe-f (get-connection pool con-type)
+                 (into {} (map (fn [[n ch]]
+                                 [n (make-subscription-handler pool n ch opts unsubscribe-f)])
+                               chs)))
+    chs))
+
+(defn subscribe-all
+  "Subscribe to many channels, sent as one SUBSCRIBE for each pub-sub
+   connection.  Returns a map of channel name to a channel of messages.
+
+   Each channel has a buffer of :buffer-size messages (default 1024), the
+   :overflow option (default :drop-oldest) controls what happens when it's full,
+   see pub-sub-dropped for the number of messages dropped."
+  ([pool channels]
+   (subscribe-all pool channels {}))
+  ([pool channels opts]
+   (subscribe-channels pool :pub-sub channels opts
+                       (fn [^PubSubGroup con ^java.util.Map handlers]
+                         (.subscribe con handlers))
+                       unsubscribe)))
+
+(defn subscribe
+  ([pool channel]
+   (subscribe pool channel {}))
+  ([pool channel opts]
+   (get (subscribe-all pool [channel] opts) channel)))
+
+(defn unsubscribe-all [pool channels]
+  (let [^PubSubGroup con (get-connection pool :pub-sub)]
+    (.unsubscribe con ^java.util.Collection (vec channels))))
 
 (defn unsubscribe [pool channel]
-  (let [^PubSubConnection con (get-connection pool :pub-sub)]
-    (.unsubscribe con channel)))
+  (let [^PubSubGroup con (get-connection pool :pub-sub)]
+    (.unsubscribe con ^String channel)))
+
+(defn psubscribe-all
+  "Subscribe to many patterns, sent as one PSUBSCRIBE for each pub-sub
+   connection.  Returns a map of pattern to a channel of messages.  Takes the
+   same options as subscribe-all."
+  ([pool patterns]
+   (psubscribe-all pool patterns {}))
+  ([pool patterns opts]
+   (subscribe-channels pool :pub-sub patterns opts
+                       (fn [^PubSubGroup con ^java.util.Map handlers]
+                         (.psubscribe con handlers))
+                       punsubscribe)))
+
+(defn psubscribe
+  ([pool pattern]
+   (psubscribe pool pattern {}))
+  ([pool pattern opts]
+   (get (psubscribe-all pool [pattern] opts) pattern)))
+
+(defn punsubscribe-all [pool patterns]
+  (let [^PubSubGroup con (get-connection pool :pub-sub)]
+    (.punsubscribe con ^java.util.Collection (vec patterns))))
 
-(defn psubscribe [pool pattern]
-  (let [^PubSubConnection con (get-connection pool :pub-sub)
-        ch                    (a/chan pub-sub-channel-size (drop 1))]
-    (.psubscribe con pattern (make-stream-response-handler ch))
+(defn punsubscribe [pool pattern]
+  (let [^PubSubGroup con (get-connection pool :pub-sub)]
+    (.punsubscribe con ^String pattern)))
+
+;; Sharded pub-sub, each shard channel is routed to the node that owns its slot
+
+(defn ssubscribe-all
+  "Subscribe to many shard channels, sent as one SSUBSCRIBE for each hash slot.
+   Returns a map of shard channel name to a channel of messages.  Takes the
+   same options as subscribe-all."
+  ([pool channels]
+   (ssubscribe-all pool channels {}))
+  ([pool channels opts]
+   (subscribe-channels pool :sharded-pub-sub channels opts
+                       (fn [^ShardedPubSub con ^java.util.Map handlers]
+                         (.ssubscribe con handlers))
+                       sunsubscribe)))
+
+(defn ssubscribe
+  ([pool channel]
+   (ssubscribe pool channel {}))
+  ([pool channel opts]
+   (get (ssubscribe-all pool [channel] opts) channel)))
+
+(defn sunsubscribe-all [pool channels]
+  (let [^ShardedPubSub con (get-connection pool :sharded-pub-sub)]
+    (.sunsubscribe con ^java.util.Collection (vec channels))))
+
+(defn sunsubscribe [pool channel]
+  (let [^ShardedPubSub con (get-connection pool :sharded-pub-sub)]
+    (.sunsubscribe con ^String channel)))
+
+(defn spublish
+  "Post a message to a shard channel, sent to the node that owns its slot"
+  [pool channel message]
+  (send-spublish (get-connection pool :sharded-pub-sub)
+                 (coerce-to-string channel)
+                 (coerce-to-string message)))
+
+;; Cursor-based iteration
+
+(def ^:private default-scan-opts
+  {:count       100
+   :buffer-size 1024})
+
+(defn- scan-options [{:keys [match count type]}]
+  (cond-> []
+    match (conj "MATCH" match)
+    count (conj "COUNT" (str count))
+    type  (conj "TYPE" type)))
+
+(defn scan-iterator
+  "A java.util.Iterator over every element of a SCAN, or of an SSCAN, HSCAN or
+   ZSCAN if a key is given.  The next page is fetched while the current one is
+   processed.  Without a key, every node of a Redis Cluster is scanned in
+   parallel.  Options are :match, :count and, for SCAN only, :type."
+  ^ScanIterator [^Pool pool command key opts]
+  (let [^ClusterNodes nodes (.getClusterNodes pool)
+        prefix              (if key [command key] [command])]
+    (ScanIterator. ^java.util.Collection (if key
+                                            [(.connectionFor nodes key)]
+                                            (.masterConnections nodes))
+                   ^java.util.List (mapv protocol/->resp prefix)
+                   ^java.util.List (mapv protocol/->resp (scan-options opts)))))
+
+(defn- scan-chan* [pool command key pairs? opts]
+  (let [opts             (merge default-scan-opts opts)
+        ch               (a/chan (:buffer-size opts))
+        ^ScanIterator it (scan-iterator pool command key opts)
+        next-value       (fn []
+                           (if pairs?
+                             [(protocol/->clj (.next it)) (protocol/->clj (.next it))]
+                             (protocol/->clj (.next it))))]
+    (a/thread
+      (try
+        (loop []
+          (when (and (.hasNext it) (a/>!! ch (next-value)))
+            (recur)))
+        (catch Exception e
+          (a/>!! ch (ex-info (.getMessage e) {:command command :key key} e)))
+        (finally
+          (a/close! ch))))
     ch))
 
-(defn punsubscribe [pool pattern]
-  (let [^PubSubConnection con (get-connection pool :pub-sub)]
-    (.punsubscribe con pattern)))
+(defn scan-chan
+  "Every key, as returned by SCAN, delivered to a channel which is closed at the
+   end.  Stops early if the channel is closed.  As well as the options of
+   scan-iterator, :buffer-size is the size of the channel's buffer."
+  ([pool]
+   (scan-chan pool {}))
+  ([pool opts]
+   (scan-chan* pool "SCAN" nil false opts)))
+
+(defn sscan-chan
+  "Every member of a set, see scan-chan"
+  ([pool key]
+   (sscan-chan pool key {}))
+  ([pool key opts]
+   (scan-chan* pool "SSCAN" key false opts)))
+
+(defn hscan-chan
+  "Every [field value] of a hash, see scan-chan"
+  ([pool key]
+   (hscan-chan pool key {}))
+  ([pool key opts]
+   (scan-chan* pool "HSCAN" key true opts)))
+
+(defn zscan-chan
+  "Every [member score] of a sorted set, see scan-chan"
+  ([pool key]
+   (zscan-chan pool key {}))
+  ([pool key opts]
+   (scan-chan* pool "ZSCAN" key true opts)))
 
 ;; All other commands
 
@@ -167,6 +395,7 @@
   #{"monitor" ;; needs a dedicated connection listing all traffic
     "blpop" "brpop" "brpoplpush" ;; blocking commands
     "subscribe" "unsubscribe" "psubscribe" "punsubscribe" ;; pub-sub
+    "ssubscribe" "sunsubscribe" "spublish" ;; sharded pub-sub
     "multi" "exec" "discard" ;; transactions
     })
 
@@ -176,18 +405,39 @@
        slurp
        json/decode))
 
-(defn- emit-client-fn [fn-n summary]
-  (let [cmd  (as-> fn-n x
-               (s/split x #"-")
-               (mapv s/upper-case x))
+(defn- required-args
+  "The names of the arguments a command must have according to commands.json.
+   Those that are optional, or that may be repeated, are not counted; nor can
+   there be a maximum, as later versions of Redis add options to many commands."
+  [args]
+  (let [names (for [{:keys [name command optional multiple variadic]} args
+                    :when (not (or optional multiple variadic))
+                    n     (concat (when command [(s/lower-case command)])
+                                  (if (sequential? name) name [name]))]
+                (-> n s/lower-case (s/replace #"[^a-z0-9]+" "-")))]
+    (map-indexed (fn [i n]
+                   (symbol (if (some #{n} (take i names)) (str n "-" i) n)))
+                 names)))
+
+(defn- emit-client-fn
+  "The command's name is encoded once, by a CommandTemplate, and its required
+   arguments are part of the function's signature so that too few are an
+   ArityException without reaching Redis"
+  [command-name fn-n summary args]
+  (let [cmd  (s/split command-name #" ")
+        args (required-args args)
         fn-s (symbol fn-n)]
-    `(defn ~fn-s
-       ~summary
-       [& ~'params]
-       (let [redis#  (first ~'params)
-             params# (->> (drop 1 ~'params)
-                          (map coerce-to-string))]
-         (send-cmd redis# ~cmd params#)))))
+    `(let [template# (CommandTemplate. (into-array String ~cmd))]
+       (defn ~fn-s
+         ~summary
+         [~'redis ~@args ~'& ~'more]
+         (let [codec# (current-codec ~'redis)]
+           (send-cmd ~'redis
+                     template#
+                     (map (if codec#
+                            (partial codec/encode-arg codec#)
+                            coerce-to-string)
+                          (list* ~@args ~'more))))))))
 
 (defn- generate-commands [commands-meta]
   (for [[command-name command-data] commands-meta
@@ -196,13 +446,71 @@
     (let [command-data (clojure.walk/keywordize-keys command-data)
           summary      (command-data :summary)
           args         (command-data :arguments)]
-      (emit-client-fn fn-name summary))))
+      (emit-client-fn command-name fn-name summary args))))
 
 (let [cmd-meta (load-commands-meta)
       fn-defs  (generate-commands cmd-meta)]
   (doseq [fn-def fn-defs]
     (clojure.core/eval fn-def)))
 
+;; Metrics
+
+(defn command-groups
+  "The group of each command (e.g. HGETALL is a hash command) according to
+   commands.json"
+  []
+  (into {} (for [[command-name command-data] (load-commands-meta)]
+             [(first (s/split command-name #" ")) (command-data "group")])))
+
+(defn in-memory-metrics
+  "Make a jresp.metrics.InMemoryMetrics for the :metrics option of make-pool,
+   which keeps the latency and reply size of each group of commands, and the
+   :slow-log-size (default 10) slowest commands"
+  ([]
+   (in-memory-metrics {}))
+  ([{:keys [slow-log-size]}]
+   (let [metrics (InMemoryMetrics.)]
+     (.setCommandGroups metrics (command-groups))
+     (when slow-log-size
+       (.setSlowLogSize metrics (int slow-log-size)))
+     metrics)))
+
+(defn- histogram-summary [^LatencyHistogram h]
+  {:count (.getCount h)
+   :mean  (.getMean h)
+   :p50   (.getPercentile h 50.0)
+   :p99   (.getPercentile h 99.0)
+   :max   (.getMax h)})
+
+(defn command-stats
+  "The latency (in nanoseconds) and reply size (in bytes) of each group of
+   commands"
+  [^InMemoryMetrics metrics]
+  (into {} (for [[group ^InMemoryMetrics$CommandMetrics m] (.getCommandGroups metrics)]
+             [group {:latency    (histogram-summary (.getLatency m))
+                     :reply-size (histogram-summary (.getReplySize m))}])))
+
+(defn slow-commands
+  "The slowest commands, slowest first"
+  [^InMemoryMetrics metrics]
+  (vec (for [^InMemoryMetrics$SlowCommand c (.getSlowCommands metrics)]
+         {:command    (protocol/->clj (.getCommand c))
+          :nanos      (.getNanos c)
+          :connection (.getConnection c)
+          :timestamp  (.getTimestamp c)})))
+
+(defn stalls
+  "The most recent stalls of the thread serving the connections, most recent
+   first, see the :stall-threshold-ms option of make-pool"
+  [^InMemoryMetrics metrics]
+  (vec (for [^Stall stall (.getStalls metrics)]
+         {:command    (when-let [command (.getCommand stall)]
+                        (protocol/->clj command))
+          :nanos      (.getNanos stall)
+          :connection (.getConnection stall)
+          :timestamp  (.getTimestamp stall)
+          :stack      (vec (.getStack stall))})))
+
 ;; DELETE ME - temporary functions for ad-hoc benchmarking
 
 (defn count-1000 [p]
@@ -0,0 +1,168 @@
+;; Copyright 2015 Ben Ashford
+;;
+;; Licensed under the Apache License, Version 2.0 (the "License");
+;; you may not use this file except in compliance with the License.
+;; You may obtain a copy of the License at
+;;
+;;     http://www.apache.org/licenses/LICENSE-2.0
+;;
+;; Unless required by applicable law or agreed to in writing, software
+;; distributed under the License is distributed on an "AS IS" BASIS,
+;; WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+;; See the License for the specific language governing permissions and
+;; limitations under the License.
+
+(ns redis-async.codec
+  "Codecs convert values to and from the bytes stored in Redis.  Strings,
+   keywords and numbers are always sent as strings, and byte arrays as they are,
+   but any other value is encoded by the codec in use.  Values written by the
+   EDN or Smile codecs are tagged, so are recognised and decoded when read
+   whichever codec is in use, as are values compressed by a codec made with
+   `compressing`."
+  (:require [cheshire.core :as json]
+            [clojure.edn :as edn]
+            [clojure.string :as s]
+            [redis-async.protocol :as protocol])
+  (:import [java.nio.charset StandardCharsets]
+           [java.util Arrays]
+           [jresp.codec Codec Codecs CompressingCodec TaggedCodec]
+           [jresp.protocol Ary BulkStr ClientErr Decoded Dict EndOfResponses
+            Err RespType SetAry]))
+
+(def bytes-codec
+  "Untagged values are read as byte arrays"
+  Codecs/BYTES)
+
+(def string-codec
+  "Untagged values are read as strings"
+  Codecs/UTF8)
+
+(def edn-codec
+  "Values are written as EDN"
+  (TaggedCodec. (byte (int \e))
+                (reify Codec
+                  (encode [_ value]
+                    (.getBytes (pr-str value) StandardCharsets/UTF_8))
+                  (decode [_ bytes offset length]
+                    (edn/read-string (protocol/decode-string bytes offset length))))))
+
+(def smile-codec
+  "Values are written in Smile, a binary form of JSON, which is faster to read
+   and write than EDN.  As with JSON, map keys are read as keywords, and sets and
+   lists are read as vectors."
+  (TaggedCodec. (byte (int \s))
+                (reify Codec
+                  (encode [_ value]
+                    (json/generate-smile value))
+                  (decode [_ bytes offset length]
+                    (json/parse-smile (Arrays/copyOfRange ^bytes bytes
+                                                          (int offset)
+                                                          (int (+ offset length)))
+                                      true)))))
+
+(def ^:private tagged-codecs
+  (atom {}))
+
+(defn register-codec!
+  "Make a TaggedCodec known, so that values it has written are always decoded"
+  [^TaggedCodec codec]
+  (swap! tagged-codecs assoc (.getTag codec) codec))
+
+(register-codec! edn-codec)
+(register-codec! smile-codec)
+
+(defn compressing
+  "A codec that compresses the values written by another codec with DEFLATE,
+   if they are at least `threshold` bytes (1024 by default), as they are
+   written to the connection.  `level` is from 1 (fastest) to 9 (smallest).
+
+   Strings and byte arrays are sent as they are, as they may be patterns or
+   other arguments that Redis itself reads, unless `compress-strings` is true.
+   Then any string of at least `threshold` bytes is compressed, e.g. large JSON
+   documents; only use this if no other string arguments are that long (scripts
+   sent by redis-async.scripting are never compressed)."
+  ([codec]
+   (compressing codec {}))
+  ([codec {:keys [threshold level compress-strings]
+           :or   {threshold 1024 level 6 compress-strings false}}]
+   (doto (CompressingCodec. codec (int threshold) (int level))
+     (.setCompressStrings (boolean compress-strings)))))
+
+(defn encode-arg
+  "Prepare an argument to be sent, encoding it with the codec unless it's a
+   string, number or byte array"
+  [^Codec codec arg]
+  (cond
+    (and (string? arg)
+         (instance? CompressingCodec codec)
+         (.isCompressStrings ^CompressingCodec codec))
+    (.compress ^CompressingCodec codec (.getBytes ^String arg StandardCharsets/UTF_8))
+
+    (or (string? arg) (instance? RespType arg))
+    arg
+
+    (keyword? arg)
+    (-> arg name s/upper-case)
+
+    (number? arg)
+    (str arg)
+
+    (instance? (Class/forName "[B") arg)
+    (BulkStr. ^bytes arg)
+
+    :else
+    (.toResp codec arg)))
+
+(def ^:private union
+  (memoize
+   (fn [codec tagged]
+     (let [codec (if (instance? CompressingCodec codec)
+                   (.getCodec ^CompressingCodec codec)
+                   codec)]
+       (TaggedCodec/union (if (instance? TaggedCodec codec) string-codec codec)
+                          tagged)))))
+
+(defn- reading-codec
+  "Decodes tagged values with their own codec, and any others with this codec"
+  ^Codec [codec]
+  (union codec @tagged-codecs))
+
+(def ^:private decoder
+  (memoize
+   (fn [^Codec codec]
+     (protocol/make-clj-decoder (fn [bytes offset length]
+                                  (.decode codec bytes offset length))))))
+
+(defn reply-decoder
+  "A jresp.ReplyDecoder that decodes replies into Clojure data, with each bulk
+   string decoded by the codec"
+  [codec]
+  (decoder (reading-codec codec)))
+
+(defn- decode-resp [^Codec codec ^RespType resp]
+  (condp instance? resp
+    BulkStr
+    (when-let [raw (.raw ^BulkStr resp)]
+      (.decode codec raw 0 (alength ^bytes raw)))
+
+    Dict
+    (into {} (for [[k v] (.raw ^Dict resp)]
+               [(decode-resp codec k) (decode-resp codec v)]))
+
+    SetAry
+    (set (map (partial decode-resp codec) (.raw ^SetAry resp)))
+
+    Ary
+    (when-let [elements (.raw ^Ary resp)]
+      (mapv (partial decode-resp codec) elements))
+
+    (.unwrap resp)))
+
+(defn decode-reply
+  "Decode a reply that has already been read, e.g. as part of a pipeline"
+  [codec ^RespType resp]
+  (if (or (instance? Err resp)
+          (instance? EndOfResponses resp)
+          (instance? ClientErr resp))
+    resp
+    (Decoded. (decode-resp (reading-codec codec) resp))))
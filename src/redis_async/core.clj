@@ -16,9 +16,12 @@
   (:refer-clojure :exclude [send])
   (:require [clojure.core.async :as a]
             [clojure.string :as s]
+            [redis-async.codec :as codec]
             [redis-async.protocol :as protocol])
-  (:import [jresp Client Responses]
-           [jresp.pool Pool SingleCommandConnection]))
+  (:import [jresp Client ReplyDecoder Responses]
+           [jresp.protocol CommandTemplate]
+           [jresp.pool BlockingScheduler OptimisticStats Pipeline Pool
+            ShardedPubSub SingleCommandConnection Transaction]))
 
 ;; Defaults
 
@@ -46,6 +49,17 @@
       (a/put! ret-c resp)
       (a/close! ret-c))))
 
+(defn- make-decoding-response-handler
+  "As make-single-response-handler, but the response is decoded by codec, if
+   there is one"
+  [ret-c codec]
+  (if codec
+    (reify Responses
+      (responseReceived [_ resp]
+        (a/put! ret-c (codec/decode-reply codec resp))
+        (a/close! ret-c)))
+    (make-single-response-handler ret-c)))
+
 (defn make-stream-response-handler
   "Make a response handler that streams to a specific channel"
   [ret-c]
@@ -66,6 +80,35 @@
     (.write con resp-msg resp-h)
     ret-c))
 
+(defn send-decoded
+  "As send, but the result is decoded by a jresp.ReplyDecoder as it is read"
+  [^SingleCommandConnection con resp-msg ^ReplyDecoder decoder]
+  (let [ret-c  (a/chan)
+        resp-h (make-single-response-handler ret-c)]
+    (.write con resp-msg decoder resp-h)
+    ret-c))
+
+(defn send-blocking
+  "Send a blocking command (BLPOP or BRPOP) via a pool's blocking scheduler.
+   Returns a channel which will contain the result, decoded by codec if given"
+  ([scheduler cmd keys timeout]
+   (send-blocking scheduler cmd keys timeout nil))
+  ([^BlockingScheduler scheduler cmd keys timeout codec]
+   (let [ret-c  (a/chan)
+         resp-h (make-decoding-response-handler ret-c codec)]
+     (.submit scheduler cmd (mapv protocol/->resp keys) (Double/parseDouble (str timeout)) resp-h)
+     ret-c)))
+
+(defn send-spublish
+  "Publish a message to a shard channel via a pool's sharded pub-sub, this is
+   sent to the node that owns the channel's slot.  Returns a channel which will
+   contain the result"
+  [^ShardedPubSub sharded ^String channel message]
+  (let [ret-c  (a/chan)
+        resp-h (make-single-response-handler ret-c)]
+    (.spublish sharded channel (protocol/->resp message) resp-h)
+    ret-c))
+
 (defn get-connection
   "Get a connection from the pool"
   [^jresp.pool.Pool pool type]
@@ -73,7 +116,9 @@
     :shared (.getShared pool)
     :dedicated (.getDedicated pool)
     :borrowed (.getBorrowed pool)
-    :pub-sub (.getPubSub pool)
+    :blocking (.getBlockingScheduler pool)
+    :pub-sub (.getPubSubGroup pool)
+    :sharded-pub-sub (.getShardedPubSub pool)
     (throw (ex-info (format "Unknown connection type: %s" type) {}))))
 
 (defn finish-connection
@@ -91,15 +136,112 @@
 
 (def ^:dynamic *trans-con* nil)
 
+(def ^:dynamic *pipeline* nil)
+
+(def ^:dynamic *decoder* nil)
+
+(def ^:dynamic *codec* nil)
+
+(defn current-codec
+  "The codec for values sent to, and read from, the pool: either that set by
+   with-codec, or the pool's :codec.  Nil if neither."
+  [^Pool pool]
+  (or *codec* (.getCodec pool)))
+
+(defn- send-pipelined
+  "Add a command to the current pipeline.  Returns a channel which will contain
+   the result once the pipeline has been flushed"
+  [{:keys [^Pipeline pipeline results]} resp-msg codec]
+  (let [ret-c  (a/promise-chan)
+        resp-h (make-decoding-response-handler ret-c codec)]
+    (.add pipeline resp-msg resp-h)
+    (swap! results conj ret-c)
+    ret-c))
+
+(defn- command->payload
+  "A command is either a vector of the words of its name, or a CommandTemplate
+   whose name is already encoded"
+  [command params]
+  (if (instance? CommandTemplate command)
+    (.command ^CommandTemplate command ^java.util.List (mapv protocol/->resp params))
+    (protocol/->resp (concat (map protocol/cmd->resp command) params))))
+
 (defn send-cmd
   "Send a command to the appropriate pool, will use the shared connection"
   [pool command params]
-  (let [con     (or *trans-con* (get-connection pool :shared))
-        payload (protocol/->resp (concat command params))]
-    (send con payload)))
+  (let [payload (command->payload command params)]
+    (cond
+      (and *pipeline* (not *trans-con*))
+      (send-pipelined *pipeline* payload (current-codec pool))
+
+      *trans-con*
+      (if-let [codec (current-codec pool)]
+        (send-decoded *trans-con* payload (codec/reply-decoder codec))
+        (send *trans-con* payload))
+
+      *decoder*
+      (send-decoded (get-connection pool :shared) payload *decoder*)
+
+      :else
+      (if-let [codec (current-codec pool)]
+        (send-decoded (get-connection pool :shared) payload (codec/reply-decoder codec))
+        (send (get-connection pool :shared) payload)))))
+
+(defn current-connection
+  "The connection that send-cmd would currently use"
+  [pool]
+  (cond
+    *trans-con* *trans-con*
+    *pipeline*  (.getConnection ^Pipeline (:pipeline *pipeline*))
+    :else       (get-connection pool :shared)))
+
+(defn in-transaction?
+  "Are commands currently being sent as part of a transaction"
+  []
+  (or (some? *trans-con*)
+      (instance? Transaction (:pipeline *pipeline*))))
+
+(defn do-with-pipeline [pool work-f]
+  (let [pipeline (Pipeline. (get-connection pool :shared))
+        results  (atom [])]
+    (binding [*pipeline* {:pipeline pipeline :results results}]
+      (work-f))
+    (.flush pipeline)
+    (a/go-loop [[ch & chs] @results
+                acc        []]
+      (if ch
+        (recur chs (conj acc (a/<! ch)))
+        acc))))
+
+(defmacro with-pipeline
+  "Commands sent within the body are not sent immediately, but are collected and
+   written all at once at the end.  Each command still returns a channel for its
+   own result, additionally this returns a channel which will contain a vector of
+   every result, in order."
+  [pool & body]
+  `(do-with-pipeline ~pool (fn [] ~@body)))
+
+(defmacro with-decoder
+  "The results of commands sent within the body are decoded by decoder (a
+   jresp.ReplyDecoder, e.g. protocol/clj-decoder) as they are read, rather than
+   read into jresp.protocol objects and converted afterwards.  This does not
+   apply within pipelines or transactions."
+  [decoder & body]
+  `(binding [*decoder* ~decoder]
+     ~@body))
+
+(defmacro with-codec
+  "Values sent within the body, other than strings, numbers and byte arrays, are
+   encoded by codec (see redis-async.codec); and results are decoded by it."
+  [codec & body]
+  `(binding [*codec* ~codec]
+     ~@body))
 
 (defn- finish-transaction [pool con finish-with]
-  (let [close-ch (send con (protocol/->resp [finish-with]))]
+  (let [payload  (protocol/->resp [finish-with])
+        close-ch (if-let [codec (current-codec pool)]
+                   (send-decoded con payload (codec/reply-decoder codec))
+                   (send con payload))]
     (a/go
       (let [result (a/<! close-ch)]
         (finish-connection pool con)
@@ -120,9 +262,199 @@
 (defmacro with-transaction [pool & body]
   `(do-with-transaction ~pool (fn [] ~@body)))
 
+(defn do-with-buffered-transaction [pool work-f]
+  (let [transaction (Transaction. (get-connection pool :shared))
+        ret-c       (a/promise-chan)]
+    (binding [*pipeline* {:pipeline transaction :results (atom [])}]
+      (work-f))
+    (.exec transaction (make-decoding-response-handler ret-c (current-codec pool)))
+    ret-c))
+
+(def ^:dynamic *max-optimistic-attempts*
+  "The number of times an optimistic transaction is attempted before giving up"
+  10)
+
+(def ^:private max-backoff-ms 100)
+
+(defn optimistic-transaction-stats
+  "The number of optimistic transactions, the total attempts, how many of those
+   conflicted with a change to a watched key, and how many gave up after too
+   many conflicts"
+  [^Pool pool]
+  (let [stats     (.getOptimisticStats pool)
+        attempts  (.getAttempts stats)
+        conflicts (.getConflicts stats)]
+    {:transactions  (.getTransactions stats)
+     :attempts      attempts
+     :conflicts     conflicts
+     :failures      (.getFailures stats)
+     :conflict-rate (if (zero? attempts)
+                      0.0
+                      (double (/ conflicts attempts)))}))
+
+(def ^:private ignore-response
+  (reify Responses
+    (responseReceived [this resp])))
+
+(defn send-on
+  "Send any commands within f on a specific connection, returns the result of f"
+  [con f]
+  (binding [*trans-con* con]
+    (f)))
+
+(defn- unwatch [^SingleCommandConnection con]
+  (.write con (protocol/->resp ["UNWATCH"]) ignore-response))
+
+(defn- exec-buffered
+  "Call write-f to build a transaction on a connection, then execute it"
+  [pool ^SingleCommandConnection con write-f]
+  (let [transaction (Transaction. con)
+        ret-c       (a/promise-chan)]
+    (binding [*trans-con* nil
+              *pipeline*  {:pipeline transaction :results (atom [])}]
+      (write-f))
+    (when (zero? (.size transaction))
+      ;; Nothing to do, but the keys are still being watched
+      (unwatch con))
+    (.exec transaction (make-decoding-response-handler ret-c (current-codec pool)))
+    ret-c))
+
+(defn- backoff-ms [attempt]
+  (rand-int (inc (min max-backoff-ms (bit-shift-left 1 (dec attempt))))))
+
+(defn do-with-optimistic-transaction [^Pool pool watch-keys read-f]
+  (let [con                    (get-connection pool :borrowed)
+        max-attempts           *max-optimistic-attempts*
+        ^OptimisticStats stats (.getOptimisticStats pool)]
+    (.transaction stats)
+    (a/go-loop [attempt 1]
+      (.attempt stats)
+      (let [result (try
+                     (let [watched (a/<! (send con (protocol/->resp (cons "WATCH" watch-keys))))
+                           write-f (if (is-error? watched)
+                                     watched
+                                     (a/<! (read-f con)))]
+                       (cond
+                         (instance? Throwable write-f)
+                         (throw write-f)
+
+                         (not (fn? write-f))
+                         (do
+                           (unwatch con)
+                           (finish-connection pool con)
+                           write-f)
+
+                         :else
+                         (let [result (a/<! (exec-buffered pool con write-f))]
+                           (cond
+                             (or (is-end-of-channel? result)
+                                 (some? (.unwrap ^jresp.protocol.RespType result)))
+                             (do
+                               (finish-connection pool con)
+                               result)
+
+                             (< attempt max-attempts)
+                             (do
+                               (.conflict stats)
+                               ::retry)
+
+                             :else
+                             (do
+                               (.conflict stats)
+                               (.failure stats)
+                               (finish-connection pool con)
+                               result)))))
+                     (catch Throwable t
+                       (unwatch con)
+                       (finish-connection pool con)
+                       (ex-info (str "Optimistic transaction failed: " (.getMessage t))
+                                {:watch-keys watch-keys :attempt attempt}
+                                t)))]
+        (if (= ::retry result)
+          (do
+            (a/<! (a/timeout (backoff-ms attempt)))
+            (recur (inc attempt)))
+          result)))))
+
+(defmacro with-optimistic-transaction
+  "A check-and-set transaction.  The watch-keys are WATCHed on a borrowed
+   connection, then the commands in bindings are sent, their results are bound
+   to the symbols as with let.  The body is then executed as with
+   with-buffered-transaction, if a watched key was changed in the meantime the
+   whole thing is retried, after a short random delay, up to
+   *max-optimistic-attempts* times.
+
+   Returns a channel containing the reply to EXEC, the first error from WATCH or
+   the reads, or a null reply if it was abandoned after too many conflicts.  If
+   the reads or the body throw, the connection is released and the channel
+   receives an ex-info with the exception as its cause.
+
+   (with-optimistic-transaction pool [\"COUNTER\"]
+     [v (client/get pool \"COUNTER\")]
+     (client/set pool \"COUNTER\" (inc (Long/parseLong (or v \"0\")))))"
+  [pool watch-keys bindings & body]
+  (let [con   (gensym "con")
+        pairs (partition 2 bindings)
+        raws  (repeatedly (count pairs) #(gensym "raw"))]
+    `(do-with-optimistic-transaction
+      ~pool ~watch-keys
+      (fn [~con]
+        (a/go
+          (try
+            (let [~@(mapcat (fn [[sym expr] raw]
+                              [raw `(a/<! (send-on ~con (fn [] ~expr)))
+                               sym `(when-not (is-error? ~raw) (protocol/->clj ~raw))])
+                            pairs raws)]
+              (or (first (filter is-error? [~@raws]))
+                  (fn [] ~@body)))
+            (catch Throwable t#
+              t#)))))))
+
+(defmacro with-buffered-transaction
+  "Like with-transaction, but rather than borrowing a connection for the
+   duration, the commands are collected and sent at the end, wrapped in MULTI
+   and EXEC, via the shared connection.  As such the body cannot depend on the
+   results of any of its commands.  Each command's channel receives its result
+   once the transaction has been executed, the returned channel receives the
+   reply to EXEC."
+  [pool & body]
+  `(do-with-buffered-transaction ~pool (fn [] ~@body)))
+
 ;; Pool management
 
-(defn make-pool [connection-info]
+(defn make-pool
+  "Create a connection pool.  As well as the connection details (:host, :port,
+   :password, :db, and :protocol - 3 to use RESP3 where supported), the following
+   options control the connections borrowed for blocking commands:
+
+   :min-idle          - the number of idle connections to keep open, these are
+                        opened when the pool is created
+   :max-total         - the maximum number of such connections
+   :idle-timeout-ms   - close idle connections, above :min-idle, after this long
+   :borrow-timeout-ms - how long to wait for a connection when at :max-total
+
+   :blocking-connections - the number of connections BLPOP and BRPOP commands
+                           are each multiplexed onto
+
+   :pub-sub-connections - the number of connections subscriptions are spread
+                          across
+
+   :near-cache-size - cache up to this many replies to read commands (e.g. GET)
+                      on the client, Redis 6 or later invalidates them when the
+                      keys change
+
+   :metrics - a jresp.metrics.Metrics to receive measurements of the
+              connections, e.g. jresp.metrics.InMemoryMetrics
+
+   :stall-threshold-ms - report a stall to the metrics whenever the thread
+                         serving the connections is busy (e.g. in a
+                         callback) for longer than this
+   :callback-executor  - a java.util.concurrent.Executor to run callbacks on,
+                         rather than the thread serving the connections
+
+   :codec - encode values, other than strings, numbers and byte arrays, with
+            this codec (see redis-async.codec), and decode results with it"
+  [connection-info]
   (let [connection-info (merge (default-redis) connection-info)
         {host :host
          port :port}    connection-info
@@ -131,7 +463,44 @@
       (.setPassword client password))
     (if-let [db (:db connection-info)]
       (.setDb client (int db)))
-    (Pool. client)))
+    (if-let [protocol (:protocol connection-info)]
+      (.setProtocol client (int protocol)))
+    (if-let [metrics (:metrics connection-info)]
+      (.setMetrics client metrics))
+    (if-let [stall-threshold (:stall-threshold-ms connection-info)]
+      (.setStallThreshold client (long stall-threshold)))
+    (if-let [executor (:callback-executor connection-info)]
+      (.setCallbackExecutor client executor))
+    (let [pool (Pool. client)]
+      (if-let [max-total (:max-total connection-info)]
+        (.setMaxTotal pool (int max-total)))
+      (if-let [idle-timeout (:idle-timeout-ms connection-info)]
+        (.setIdleTimeout pool (long idle-timeout)))
+      (if-let [borrow-timeout (:borrow-timeout-ms connection-info)]
+        (.setBorrowTimeout pool (long borrow-timeout)))
+      (if-let [blocking-connections (:blocking-connections connection-info)]
+        (.setBlockingConnections pool (int blocking-connections)))
+      (if-let [pub-sub-connections (:pub-sub-connections connection-info)]
+        (.setPubSubConnections pool (int pub-sub-connections)))
+      (if-let [near-cache-size (:near-cache-size connection-info)]
+        (.setNearCacheSize pool (int near-cache-size)))
+      (when-let [min-idle (:min-idle connection-info)]
+        (.setMinIdle pool (int min-idle))
+        (.warmUp pool))
+      (when-let [codec (:codec connection-info)]
+        (.setCodec pool codec))
+      pool)))
+
+(defn near-cache-stats
+  "The hits, misses, evictions and invalidations of a pool's client-side cache,
+   nil if the pool has no such cache"
+  [^Pool pool]
+  (when-let [cache (.getNearCache pool)]
+    {:size          (.size cache)
+     :hits          (.getHits cache)
+     :misses        (.getMisses cache)
+     :evictions     (.getEvictions cache)
+     :invalidations (.getInvalidations cache)}))
 
 (defn close-pool [^Pool pool]
   (.shutdown pool))
@@ -13,7 +13,9 @@
 ;; limitations under the License.
 
 (ns redis-async.protocol
-  (:import [jresp.protocol Ary BulkStr Int RespType]))
+  (:import [java.nio.charset StandardCharsets]
+           [jresp ReplyDecoder ReplyDecoder$Aggregate ReplyDecoder$Kind]
+           [jresp.protocol Ary BulkStr Int RespType]))
 
 (defprotocol ToResp
   (->resp [this]))
@@ -47,12 +49,90 @@
 
 (defn ->clj [^RespType resp-type]
   (let [unwrapped (.unwrap resp-type)]
-    (cond
-      (= (class resp-type) jresp.protocol.Err)
+    (condp instance? resp-type
+      jresp.protocol.Err
       (ex-info unwrapped {:type :redis :msg unwrapped})
 
-      (= (class resp-type) jresp.protocol.Ary)
-      (vec unwrapped)
+      ;; RESP3 only
+      jresp.protocol.Dict
+      (into {} unwrapped)
+
+      ;; RESP3 only
+      jresp.protocol.SetAry
+      (set unwrapped)
+
+      jresp.protocol.Ary
+      (when unwrapped
+        (vec unwrapped))
 
-      :else
       unwrapped)))
+
+;; Decoding replies as they are read
+
+(defn- collection-builder
+  "Builds a persistent collection in one pass via a transient, for a map the
+   elements alternate between key and value"
+  [elements init map?]
+  (let [coll (volatile! (transient init))
+        k    (volatile! ::none)]
+    (reify ReplyDecoder$Aggregate
+      (elements [_]
+        elements)
+      (add [_ element]
+        (cond
+          (not map?)
+          (vswap! coll conj! element)
+
+          (identical? @k ::none)
+          (vreset! k element)
+
+          :else
+          (do
+            (vswap! coll assoc! @k element)
+            (vreset! k ::none))))
+      (finish [_]
+        (persistent! @coll)))))
+
+(defn decode-string [^bytes bytes offset length]
+  (String. bytes (int offset) (int length) StandardCharsets/UTF_8))
+
+(defn make-clj-decoder
+  "A jresp.ReplyDecoder that decodes replies into Clojure data, each bulk string
+   with (bulk-f bytes offset length).  With maps? the reply is always a map,
+   rather than only when it's a RESP3 map."
+  ([bulk-f]
+   (make-clj-decoder bulk-f false))
+  ([bulk-f maps?]
+   (let [elements (when maps? (make-clj-decoder bulk-f))]
+     (reify ReplyDecoder
+       (bulkStr [_ bytes offset length]
+         (bulk-f bytes offset length))
+       (simpleStr [_ value]
+         value)
+       (integer [_ value]
+         value)
+       (nullReply [_]
+         nil)
+       (other [_ value]
+         (.unwrap ^RespType value))
+       (aggregate [this kind length]
+         (let [elements (or elements this)]
+           (cond
+             (or maps? (= kind ReplyDecoder$Kind/MAP))
+             (collection-builder elements {} true)
+
+             (= kind ReplyDecoder$Kind/SET)
+             (collection-builder elements #{} false)
+
+             :else
+             (collection-builder elements [] false))))))))
+
+(def clj-decoder
+  "A jresp.ReplyDecoder that decodes replies straight into the same values as
+   ->clj would return"
+  (make-clj-decoder decode-string))
+
+(def clj-map-decoder
+  "As clj-decoder, but the reply is always a map.  For replies of alternating
+   keys and values, e.g. HGETALL, which are arrays with RESP2"
+  (make-clj-decoder decode-string true))
@@ -16,10 +16,20 @@
   (:require [clojure.core.async :as a]
             [redis-async.core :as core]
             [redis-async.client :as client]
-            [redis-async.protocol :as protocol]))
+            [redis-async.protocol :as protocol])
+  (:import [java.security MessageDigest]
+           [jresp.pool SingleCommandConnection]
+           [jresp.protocol BulkStr RespType]))
 
 (def ^:private misc (atom {}))
 
+(defn sha1
+  "The SHA1 digest of a script, as used by EVALSHA"
+  [^String script-body]
+  (let [digest (.digest (MessageDigest/getInstance "SHA-1")
+                        (.getBytes script-body "UTF-8"))]
+    (apply str (map #(format "%02x" (bit-and % 0xff)) digest))))
+
 (defn script-name->sha [pool script-name]
   (get-in @misc [pool :scripts script-name]))
 
@@ -35,21 +45,60 @@
 (defn call-saved-script [pool sha keys args]
   (apply client/evalsha pool sha (count keys) (concat keys args)))
 
+(defn- noscript? [result]
+  (and (core/is-error? result)
+       (.startsWith ^String (.unwrap ^RespType result) "NOSCRIPT")))
+
+(defn- compile-error?
+  "Whether the script wasn't loaded; a script that fails while running is still
+   cached by the server"
+  [result]
+  (and (core/is-error? result)
+       (.contains ^String (.unwrap ^RespType result) "Error compiling script")))
+
+(defn call-script
+  "Call a script by its SHA1.  The first time a script is used on a connection
+   it is sent in full with EVAL, which also caches it on the server, after that
+   EVALSHA is used.  Should the server no longer have the script (e.g. after
+   SCRIPT FLUSH or a fail-over) it is sent in full again."
+  [pool sha script-body keys args]
+  (when-not script-body
+    (throw (ex-info "No script provided" {:sha sha})))
+  (let [^SingleCommandConnection con (core/current-connection pool)
+        params                       (cons (count keys) (concat keys args))]
+    (if (.isScriptLoaded con sha)
+      (let [ret-c (apply client/evalsha pool sha params)]
+        (if (core/in-transaction?)
+          ret-c
+          (a/go
+            (let [result (a/<! ret-c)]
+              (if (noscript? result)
+                (do
+                  (.scriptUnloaded con sha)
+                  ;; Not as part of a pipeline, it has already been sent
+                  (a/<! (binding [core/*pipeline* nil]
+                          (call-script pool sha script-body keys args))))
+                result)))))
+      (do
+        (.scriptLoaded con sha)
+        ;; As a BulkStr, so no codec compresses it
+        (let [ret-c (apply client/eval pool (BulkStr. ^String script-body) params)]
+          (a/go
+            (let [result (a/<! ret-c)]
+              (when (compile-error? result)
+                (.scriptUnloaded con sha))
+              result)))))))
+
 (defmacro defscript [script-name script-body]
-  (let [script-name-str (name script-name)]
-    `(defn ~script-name
+  `(let [body# ~script-body
+         sha#  (when body# (sha1 body#))]
+     (defn ~script-name
        ([pool#]
         (~script-name pool# [] []))
        ([pool# keys#]
         (~script-name pool# keys# []))
        ([pool# keys# args#]
-        (if-let [sha# (script-name->sha pool# ~script-name-str)]
-          (call-saved-script pool# sha# keys# args#)
-          (a/go
-            (let [sha# (a/<! (save-script pool# ~script-name-str ~script-body))]
-              (if (core/is-error? sha#)
-                sha#
-                (a/<! (call-saved-script pool# (protocol/->clj sha#) keys# args#))))))))))
+        (call-script pool# sha# body# keys# args#)))))
 
 (defn from
   "Convenience function to load a script into a String so it can be defined with
@@ -0,0 +1,212 @@
+;; Copyright 2015 Ben Ashford
+;;
+;; Licensed under the Apache License, Version 2.0 (the "License");
+;; you may not use this file except in compliance with the License.
+;; You may obtain a copy of the License at
+;;
+;;     http://www.apache.org/licenses/LICENSE-2.0
+;;
+;; Unless required by applicable law or agreed to in writing, software
+;; distributed under the License is distributed on an "AS IS" BASIS,
+;; WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+;; See the License for the specific language governing permissions and
+;; limitations under the License.
+
+(ns redis-async.streams
+  "Consuming Redis Streams as part of a consumer group.  Entries are read with
+   blocking XREADGROUP commands on borrowed connections, so the shared
+   connection isn't held-up, and acknowledgements are batched."
+  (:require [clojure.core.async :as a]
+            [redis-async.core :as core]
+            [redis-async.protocol :as protocol])
+  (:import [jresp Responses]
+           [jresp.pool Pipeline]))
+
+(def ^:private default-consumer-opts
+  {:count           100
+   :block-ms        1000
+   :buffer-size     1024
+   :consumers       1
+   :ack-batch-size  100
+   :ack-interval-ms 100
+   :start-id        "$"})
+
+(def ^:private lost-connection-pause-ms 1000)
+
+(def ^:private ignore-response
+  (reify Responses
+    (responseReceived [this resp])))
+
+;; Acknowledgements
+
+(defn- take-acks!
+  "Atomically take, and reset, the pending acknowledgements"
+  [acks]
+  (loop []
+    (let [pending @acks]
+      (if (compare-and-set! acks pending {})
+        pending
+        (recur)))))
+
+(defn- flush-acks!
+  "Send all pending acknowledgements, one XACK per stream, as one write"
+  [{:keys [pool group acks]}]
+  (let [pending (take-acks! acks)]
+    (when (seq pending)
+      (let [pipeline (Pipeline. (core/get-connection pool :shared))]
+        (doseq [[stream ids] pending]
+          (.add pipeline (protocol/->resp (list* "XACK" stream group ids)) ignore-response))
+        (.flush pipeline)))))
+
+(defn ack!
+  "Acknowledge an entry received from a consumer.  Acknowledgements are sent in
+   batches, either every :ack-interval-ms or once :ack-batch-size are pending."
+  [{:keys [acks opts stopped] :as consumer} {:keys [stream id]}]
+  (let [pending (swap! acks update stream (fnil conj []) id)]
+    (when (or @stopped
+              (>= (reduce + (map count (vals pending))) (:ack-batch-size opts)))
+      (flush-acks! consumer))))
+
+(defn- ack-loop [{:keys [opts stop-ch] :as consumer}]
+  (a/go-loop []
+    (let [[_ ch] (a/alts! [stop-ch (a/timeout (:ack-interval-ms opts))])]
+      (flush-acks! consumer)
+      (when-not (= ch stop-ch)
+        (recur)))))
+
+;; Reading
+
+(defn- create-group
+  "Create the consumer group for each stream, if it doesn't already exist"
+  [pool streams group start-id]
+  (doseq [stream streams]
+    (let [result (a/<!! (core/send (core/get-connection pool :shared)
+                                   (protocol/->resp ["XGROUP" "CREATE" stream group
+                                                     start-id "MKSTREAM"])))]
+      (when (and (core/is-error? result)
+                 (not (.startsWith ^String (.unwrap ^jresp.protocol.Err result) "BUSYGROUP")))
+        (throw (protocol/->clj result))))))
+
+(defn- ->entries
+  "The reply to XREADGROUP is, for each stream, the stream name and its entries.
+   With RESP3 this is a map rather than a list of pairs."
+  [reply]
+  (for [[stream entries] reply
+        [id fields]      entries]
+    {:stream stream
+     :id     id
+     :fields (when fields (apply hash-map fields))}))
+
+(defn- read-command
+  "Read the pending entries after the IDs in history, a map of stream to ID, or
+   new entries if history is nil"
+  [streams group consumer-name {batch :count block-ms :block-ms} history]
+  (protocol/->resp (concat ["XREADGROUP" "GROUP" group consumer-name
+                            "COUNT" (str batch) "BLOCK" (str block-ms)
+                            "STREAMS"]
+                           streams
+                           (if history
+                             (map #(get history % "0") streams)
+                             (repeat (count streams) ">")))))
+
+(defn- next-history
+  "Pending entries stay pending until acknowledged, so each page of the history
+   is read after the last entry delivered from each stream.  The history is
+   exhausted once it returns no entries."
+  [history entries]
+  (when (and history (seq entries))
+    (reduce (fn [h {:keys [stream id]}]
+              (assoc h stream id))
+            history
+            entries)))
+
+(defn- deliver!
+  "Put a value on the output channel, waiting for space unless stopped first.
+   Returns false if stopped, any entries not delivered are still pending in
+   Redis and will be read again when the consumer is next started."
+  [out stop-ch v]
+  (let [[_ ch] (a/alts!! [[out v] stop-ch] :priority true)]
+    (not= ch stop-ch)))
+
+(defn- read-loop
+  "Read entries until stopped, blocking when the output channel is full so that
+   nothing more is read until the entries have been consumed.  Entries that were
+   delivered to this consumer but never acknowledged (e.g. before a restart) are
+   read first."
+  [{:keys [pool streams group opts out stopped stop-ch]} consumer-name]
+  (a/thread
+    (loop [con     (core/get-connection pool :borrowed)
+           history {}]
+      (if @stopped
+        (core/finish-connection pool con)
+        (let [reply (a/<!! (core/send con (read-command streams group consumer-name opts
+                                                        history)))]
+          (cond
+            (core/is-end-of-channel? reply)
+            (do
+              (core/finish-connection pool con)
+              (Thread/sleep lost-connection-pause-ms)
+              (recur (core/get-connection pool :borrowed) history))
+
+            (core/is-error? reply)
+            (do
+              (core/finish-connection pool con)
+              (deliver! out stop-ch (protocol/->clj reply)))
+
+            :else
+            (let [entries (->entries (protocol/->clj reply))]
+              (if (every? #(deliver! out stop-ch %) entries)
+                (recur con (next-history history entries))
+                (core/finish-connection pool con)))))))))
+
+(defn consume
+  "Consume one or more streams as part of a consumer group, creating the group
+   if necessary.  Returns a consumer, with the entries (maps of :stream, :id and
+   :fields) delivered to the channel :ch.  Each should be passed to ack! once
+   processed.  Options:
+
+   :count           - the maximum number of entries read at a time
+   :block-ms        - how long each read waits for new entries
+   :buffer-size     - the number of entries buffered in :ch, reading pauses
+                      when it is full
+   :consumers       - the number of consumers, each with its own connection,
+                      reading in parallel.  Their names are consumer-name with
+                      a numeric suffix.
+   :ack-batch-size  - send acknowledgements once this many are pending
+   :ack-interval-ms - or this often, whichever is first
+   :start-id        - where a newly created group starts, default $ (new
+                      entries only)
+
+   A Redis error is delivered to :ch as an exception, after which that consumer
+   stops reading."
+  ([pool streams group consumer-name]
+   (consume pool streams group consumer-name {}))
+  ([pool streams group consumer-name opts]
+   (let [opts     (merge default-consumer-opts opts)
+         streams  (vec streams)
+         n        (:consumers opts)
+         consumer {:pool    pool
+                   :streams streams
+                   :group   group
+                   :opts    opts
+                   :out     (a/chan (:buffer-size opts))
+                   :acks    (atom {})
+                   :stopped (atom false)
+                   :stop-ch (a/chan)}]
+     (create-group pool streams group (:start-id opts))
+     (let [readers (if (= n 1)
+                     [(read-loop consumer consumer-name)]
+                     (mapv #(read-loop consumer (str consumer-name "-" %)) (range n)))]
+       (a/go
+         (doseq [reader readers]
+           (a/<! reader))
+         (a/close! (:out consumer))))
+     (ack-loop consumer)
+     (assoc consumer :ch (:out consumer)))))
+
+(defn stop!
+  "Stop a consumer.  Reading stops within :block-ms, the channel is then closed.
+   Any pending acknowledgements are sent."
+  [{:keys [stopped stop-ch]}]
+  (reset! stopped true)
+  (a/close! stop-ch))
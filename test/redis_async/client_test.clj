@@ -138,3 +138,166 @@
     (client/wait!! (with-redis client/decr "STEST"))
     (client/wait!! (with-redis client/decrby "STEST" 10))
     (is (= "91" (get-with-redis client/get "STEST")))))
+
+(deftest command-template-test
+  (testing "multi-word commands"
+    (client/wait!! (with-redis client/config-set "slowlog-max-len" 128))
+    (is (= ["slowlog-max-len" "128"]
+           (get-with-redis client/config-get "slowlog-max-len"))))
+  (testing "options beyond the required arguments"
+    (client/wait!! (with-redis client/set "TEMPLATE-TEST" "a" "EX" 60 "NX"))
+    (is (= "a" (get-with-redis client/get "TEMPLATE-TEST"))))
+  (testing "too few arguments"
+    (is (thrown? clojure.lang.ArityException (client/get *redis-pool*)))
+    (is (= '([redis key field value & more]) (:arglists (meta #'client/hset))))))
+
+(deftest blocking-test
+  (testing "BLPOP waiters on the same key"
+    (let [c1 (with-redis client/blpop "BLPOP-TEST" 0)
+          c2 (with-redis client/blpop "BLPOP-TEST" "BLPOP-OTHER" 0)]
+      (client/wait!! (with-redis client/rpush "BLPOP-TEST" "A"))
+      (is (= ["BLPOP-TEST" "A"] (client/<!! c1)))
+      (client/wait!! (with-redis client/rpush "BLPOP-OTHER" "B"))
+      (is (= ["BLPOP-OTHER" "B"] (client/<!! c2)))))
+  (testing "BRPOP timeout"
+    (is (nil? (get-with-redis client/brpop "BRPOP-TEST" 1)))))
+
+(deftest pipeline-test
+  (let [get-c   (atom nil)
+        results (core/with-pipeline *redis-pool*
+                  (client/set *redis-pool* "PIPELINE-TEST" "A")
+                  (reset! get-c (client/get *redis-pool* "PIPELINE-TEST"))
+                  (client/incr *redis-pool* "PIPELINE-TEST"))]
+    (is (= "A" (client/<!! @get-c)))
+    (let [[set-r get-r incr-r] (a/<!! results)]
+      (is (= "OK" (client/read-value set-r)))
+      (is (= "A" (client/read-value get-r)))
+      (is (core/is-error? incr-r)))))
+
+(deftest buffered-transaction-test
+  (testing "results distributed to each command"
+    (let [incr-c (atom nil)
+          exec-c (core/with-buffered-transaction *redis-pool*
+                   (client/set *redis-pool* "TRANS-TEST" 1)
+                   (reset! incr-c (client/incr *redis-pool* "TRANS-TEST")))]
+      (is (= ["OK" 2] (client/<!! exec-c)))
+      (is (= 2 (client/<!! @incr-c)))))
+  (testing "aborted transaction"
+    (let [bad-c  (atom nil)
+          exec-c (core/with-buffered-transaction *redis-pool*
+                   (client/set *redis-pool* "TRANS-TEST" 1)
+                   (reset! bad-c (core/send-cmd *redis-pool* ["SET"] ["TRANS-TEST"])))]
+      (is (core/is-error? (a/<!! exec-c)))
+      (is (core/is-error? (a/<!! @bad-c)))
+      (is (= "2" (get-with-redis client/get "TRANS-TEST"))))))
+
+(deftest optimistic-transaction-test
+  (client/wait!! (with-redis client/set "CAS-TEST" 0))
+  (let [incr    (fn []
+                  (core/with-optimistic-transaction *redis-pool* ["CAS-TEST"]
+                    [v (client/get *redis-pool* "CAS-TEST")]
+                    (client/set *redis-pool* "CAS-TEST" (inc (Long/parseLong v)))))
+        results (doall (repeatedly 5 incr))]
+    (doseq [result results]
+      (is (= ["OK"] (client/<!! result))))
+    (is (= "5" (get-with-redis client/get "CAS-TEST")))
+    (let [stats (core/optimistic-transaction-stats *redis-pool*)]
+      (is (<= 5 (:transactions stats)))
+      (is (<= (:transactions stats) (:attempts stats))))))
+
+(deftest optimistic-transaction-exception-test
+  (client/wait!! (with-redis client/set "CAS-EX-TEST" "not-a-number"))
+  (testing "from the body"
+    (let [result (a/<!! (core/with-optimistic-transaction *redis-pool* ["CAS-EX-TEST"]
+                          [v (client/get *redis-pool* "CAS-EX-TEST")]
+                          (client/set *redis-pool* "CAS-EX-TEST" (inc (Long/parseLong v)))))]
+      (is (instance? clojure.lang.ExceptionInfo result))
+      (is (instance? NumberFormatException (.getCause ^Throwable result)))))
+  (testing "from the reads"
+    (let [result (a/<!! (core/with-optimistic-transaction *redis-pool* ["CAS-EX-TEST"]
+                          [v (Long/parseLong "not-a-number")]
+                          (client/set *redis-pool* "CAS-EX-TEST" v)))]
+      (is (instance? clojure.lang.ExceptionInfo result))))
+  (testing "the keys are no longer watched"
+    (let [result (core/with-optimistic-transaction *redis-pool* ["CAS-EX-TEST"]
+                   [v (client/get *redis-pool* "CAS-EX-TEST")]
+                   (client/set *redis-pool* "CAS-EX-TEST" "1"))]
+      (is (= ["OK"] (client/<!! result)))
+      (is (= "1" (get-with-redis client/get "CAS-EX-TEST"))))))
+
+(deftest pub-sub-overflow-test
+  (let [ch (client/subscribe *redis-pool* "OVERFLOW-TEST" {:buffer-size 2
+                                                           :overflow    :drop-oldest})]
+    (while (zero? (get-with-redis client/publish "OVERFLOW-TEST" "0"))
+      (Thread/sleep 10))
+    (doseq [i (range 1 6)]
+      (client/wait!! (with-redis client/publish "OVERFLOW-TEST" i)))
+    (let [deadline (+ (System/currentTimeMillis) 5000)]
+      (while (and (< (get (client/pub-sub-dropped *redis-pool*) "OVERFLOW-TEST" 0) 4)
+                  (< (System/currentTimeMillis) deadline))
+        (Thread/sleep 10)))
+    (is (= 4 (get (client/pub-sub-dropped *redis-pool*) "OVERFLOW-TEST")))
+    (is (= ["4" "5"] [(client/<!! ch) (client/<!! ch)]))
+    (client/unsubscribe *redis-pool* "OVERFLOW-TEST")))
+
+(deftest sharded-pub-sub-test
+  (let [ch (client/ssubscribe *redis-pool* "SHARDED-TEST")]
+    (while (zero? (get-with-redis client/spublish "SHARDED-TEST" "0"))
+      (Thread/sleep 10))
+    (client/wait!! (with-redis client/spublish "SHARDED-TEST" "hello"))
+    (is (= "0" (client/<!! ch)))
+    (is (= "hello" (client/<!! ch)))
+    (client/sunsubscribe *redis-pool* "SHARDED-TEST")
+    (is (nil? (a/<!! ch)))))
+
+(deftest scan-chan-test
+  (let [members (set (map str (range 1000)))]
+    (client/wait!! (apply with-redis client/sadd "SCAN-TEST-SET" members))
+    (is (= members
+           (set (a/<!! (a/into [] (client/sscan-chan *redis-pool* "SCAN-TEST-SET" {:count 10}))))))
+    (is (contains? (set (a/<!! (a/into [] (client/scan-chan *redis-pool* {:match "SCAN-TEST-*"}))))
+                   "SCAN-TEST-SET"))))
+
+(deftest metrics-test
+  (let [metrics (client/in-memory-metrics {:slow-log-size 3})
+        pool    (core/make-pool {:db 1 :metrics metrics})]
+    (try
+      (client/wait!! (client/set pool "METRICS-TEST" "VALUE"))
+      (dotimes [_ 10]
+        (client/wait!! (client/hgetall pool "METRICS-TEST-HASH")))
+      (let [stats (client/command-stats metrics)]
+        (is (= 1 (get-in stats ["string" :latency :count])))
+        (is (= 10 (get-in stats ["hash" :latency :count]))))
+      (is (= 3 (count (client/slow-commands metrics))))
+      (finally
+        (core/close-pool pool)))))
+
+(deftest sync-client-benchmark
+  (let [n    100000
+        sync (jresp.pool.SyncClient. *redis-pool*)]
+    (let [start (System/nanoTime)]
+      (client/wait!! (a/merge (for [i (range n)]
+                                (client/set *redis-pool* (str "ASYNC-" i) (str i)))
+                              n))
+      (printf "core.async: %d SETs done in %.2fms%n" n (/ (- (System/nanoTime) start) 1000000.0)))
+    (let [start (System/nanoTime)]
+      (->> (range n)
+           (partition-all (quot n 64))
+           (map (fn [batch]
+                  (future (doseq [i batch]
+                            (.set sync (str "SYNC-" i) (str i))))))
+           doall
+           (run! deref))
+      (printf "SyncClient: %d SETs done in %.2fms%n" n (/ (- (System/nanoTime) start) 1000000.0)))
+    (is (= "99999" (.get sync "SYNC-99999")))))
+
+(deftest with-decoder-test
+  (client/wait!! (with-redis client/hset "DECODER-HASH" "a" "1"))
+  (client/wait!! (with-redis client/hset "DECODER-HASH" "b" "2"))
+  (core/with-decoder protocol/clj-map-decoder
+    (is (= {"a" "1" "b" "2"} (get-with-redis client/hgetall "DECODER-HASH"))))
+  (core/with-decoder protocol/clj-decoder
+    (is (= "1" (get-with-redis client/hget "DECODER-HASH" "a")))
+    (is (= #{"a" "b"} (set (get-with-redis client/hkeys "DECODER-HASH"))))
+    (is (thrown? clojure.lang.ExceptionInfo
+                 (get-with-redis client/incr "DECODER-HASH")))))
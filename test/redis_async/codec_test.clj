@@ -0,0 +1,90 @@
+(ns redis-async.codec-test
+  (:require [redis-async.codec :as codec]
+            [redis-async.core :as core]
+            [redis-async.client :as client]
+            [redis-async.test-helpers :refer :all]
+            [clojure.test :refer :all]
+            [clojure.core.async :as a])
+  (:import [jresp.protocol Ary BulkStr DeflatedStr]))
+
+(use-fixtures :once redis-connect)
+
+(defn- round-trip [c value]
+  (let [^BulkStr encoded (codec/encode-arg c value)]
+    (.unwrap (codec/decode-reply codec/string-codec (Ary. [encoded])))))
+
+(deftest encode-arg-test
+  (is (= "plain" (codec/encode-arg codec/edn-codec "plain")))
+  (is (= "1" (codec/encode-arg codec/edn-codec 1)))
+  (is (= "WITHSCORES" (codec/encode-arg codec/edn-codec :withscores)))
+  (let [data {:a [1 2 #{3}] :b "four"}]
+    (is (= [data] (round-trip codec/edn-codec data))))
+  (is (= [{:a [1 2]}] (round-trip codec/smile-codec {:a [1 2]})))
+  (testing "untagged values are read with the codec in use"
+    (is (= ["plain"]
+           (.unwrap (codec/decode-reply codec/edn-codec (Ary. [(BulkStr. "plain")])))))
+    (is (= [104 105]
+           (map long (first (.unwrap (codec/decode-reply codec/bytes-codec (Ary. [(BulkStr. "hi")])))))))))
+
+(deftest with-codec-test
+  (let [data {:name "test" :values [1 2 3]}]
+    (core/with-codec codec/edn-codec
+      (client/wait!! (with-redis client/set "CODEC-EDN" data))
+      (client/wait!! (with-redis client/set "CODEC-PLAIN" "plain"))
+      (is (= data (get-with-redis client/get "CODEC-EDN")))
+      (is (= "plain" (get-with-redis client/get "CODEC-PLAIN"))))
+    (testing "tagged values are decoded whichever codec is in use"
+      (core/with-codec codec/string-codec
+        (is (= [data "plain"] (get-with-redis client/mget "CODEC-EDN" "CODEC-PLAIN")))))
+    (testing "within a pipeline"
+      (core/with-codec codec/smile-codec
+        (let [results (core/with-pipeline *redis-pool*
+                        (client/set *redis-pool* "CODEC-SMILE" {:a 1})
+                        (client/get *redis-pool* "CODEC-SMILE"))]
+          (is (= {:a 1} (client/read-value (second (a/<!! results))))))))))
+
+(deftest pool-codec-test
+  (let [pool (core/make-pool {:db 1 :codec codec/edn-codec})]
+    (try
+      (client/wait!! (client/set pool "CODEC-POOL" #{1 2}))
+      (is (= #{1 2} (client/<!! (client/get pool "CODEC-POOL"))))
+      (finally
+        (core/close-pool pool)))))
+
+(deftest compressing-test
+  (let [c     (codec/compressing codec/edn-codec {:threshold 100})
+        large (vec (repeat 100 "compressible"))]
+    (is (instance? BulkStr (codec/encode-arg c [1 2 3])))
+    (is (instance? DeflatedStr (codec/encode-arg c large)))
+    (is (string? (codec/encode-arg c (apply str large))))
+    (let [strings (codec/compressing codec/string-codec {:threshold 100 :compress-strings true})
+          json    (apply str (repeat 100 "{\"compressible\": true}"))]
+      (is (instance? BulkStr (codec/encode-arg strings "short")))
+      (is (instance? DeflatedStr (codec/encode-arg strings json)))
+      (core/with-codec strings
+        (client/wait!! (with-redis client/set "CODEC-COMPRESSED-STRING" json))
+        (is (= json (get-with-redis client/get "CODEC-COMPRESSED-STRING")))
+        (is (> 1000 (get-with-redis client/strlen "CODEC-COMPRESSED-STRING")))))
+    (core/with-codec c
+      (client/wait!! (with-redis client/set "CODEC-COMPRESSED" large))
+      (is (= large (get-with-redis client/get "CODEC-COMPRESSED")))
+      (is (> 1000 (get-with-redis client/strlen "CODEC-COMPRESSED"))))
+    (testing "compressed values are decoded whichever codec is in use"
+      (core/with-codec codec/string-codec
+        (is (= large (get-with-redis client/get "CODEC-COMPRESSED")))))))
+
+(deftest codec-transaction-test
+  (let [data {:a [1 2]}]
+    (core/with-codec codec/edn-codec
+      (testing "transactions"
+        (is (= ["OK" data]
+               (client/<!! (core/with-buffered-transaction *redis-pool*
+                             (client/set *redis-pool* "CODEC-TRANS" data)
+                             (client/get *redis-pool* "CODEC-TRANS")))))
+        (is (= [data]
+               (client/<!! (core/with-transaction *redis-pool*
+                             (client/get *redis-pool* "CODEC-TRANS"))))))
+      (testing "blocking commands"
+        (client/wait!! (with-redis client/del "CODEC-LIST"))
+        (client/wait!! (with-redis client/rpush "CODEC-LIST" data))
+        (is (= ["CODEC-LIST" data] (get-with-redis client/blpop "CODEC-LIST" 1)))))))
@@ -1,5 +1,7 @@
 (ns redis-async.scripting-test
   (:require [redis-async.scripting :refer :all]
+            [redis-async.client :as client]
+            [redis-async.core :as core]
             [redis-async.test-helpers :refer :all]
             [clojure.test :refer :all]))
 
@@ -12,6 +14,9 @@
 (defscript bad-script
   "this isn't valid Lua at all")
 
+(defscript failing-script
+  "return redis.call('incr', KEYS[1])")
+
 (use-fixtures :once redis-connect)
 
 (deftest defscript-test
@@ -23,3 +28,29 @@
 (deftest defscript-bad
   (is (thrown-with-msg? clojure.lang.ExceptionInfo #"Error compiling script"
                         (get-with-redis bad-script))))
+
+(deftest sha1-test
+  (let [body "return 1"]
+    (is (= (get-with-redis client/script-load body) (sha1 body)))))
+
+(deftest noscript-recovery-test
+  (is (= "1" (get-with-redis test-script ["SCRIPT-TEST-3"])))
+  (is (= "2" (get-with-redis test-script ["SCRIPT-TEST-3"])))
+  (client/wait!! (with-redis client/script-flush))
+  (is (= "3" (get-with-redis test-script ["SCRIPT-TEST-3"]))))
+
+(deftest noscript-pipeline-test
+  (is (= "1" (get-with-redis test-script ["SCRIPT-TEST-4"])))
+  (client/wait!! (with-redis client/script-flush))
+  (let [ch (atom nil)]
+    (core/with-pipeline *redis-pool*
+      (reset! ch (test-script *redis-pool* ["SCRIPT-TEST-4"])))
+    (is (= "2" (client/<!! @ch)))))
+
+(deftest runtime-error-test
+  (client/wait!! (with-redis client/set "SCRIPT-TEST-5" "not a number"))
+  (is (thrown? clojure.lang.ExceptionInfo (get-with-redis failing-script ["SCRIPT-TEST-5"])))
+  ;; Still loaded, so sent with EVALSHA
+  (let [con (core/current-connection *redis-pool*)]
+    (is (.isScriptLoaded ^jresp.pool.SingleCommandConnection con
+                         (sha1 "return redis.call('incr', KEYS[1])")))))
@@ -0,0 +1,66 @@
+(ns redis-async.streams-test
+  (:require [redis-async.streams :as streams]
+            [redis-async.core :as core]
+            [redis-async.client :as client]
+            [redis-async.test-helpers :refer :all]
+            [clojure.test :refer :all]
+            [clojure.core.async :as a]))
+
+(use-fixtures :once redis-connect)
+
+(defn- xadd [stream n]
+  (client/<!! (core/send-cmd *redis-pool* ["XADD"] [stream "*" "n" (str n)])))
+
+(defn- pending-count [stream group]
+  (first (client/<!! (core/send-cmd *redis-pool* ["XPENDING"] [stream group]))))
+
+(deftest consume-test
+  (let [consumer (streams/consume *redis-pool* ["STREAM-TEST"] "STREAM-GROUP" "consumer"
+                                  {:block-ms 100 :ack-interval-ms 10 :consumers 2})]
+    (doseq [n (range 10)]
+      (xadd "STREAM-TEST" n))
+    (let [entries (vec (repeatedly 10 #(a/<!! (:ch consumer))))]
+      (is (= (set (map str (range 10)))
+             (set (map #(get-in % [:fields "n"]) entries))))
+      (is (= 10 (pending-count "STREAM-TEST" "STREAM-GROUP")))
+      (doseq [entry entries]
+        (streams/ack! consumer entry)))
+    (let [deadline (+ (System/currentTimeMillis) 5000)]
+      (while (and (pos? (pending-count "STREAM-TEST" "STREAM-GROUP"))
+                  (< (System/currentTimeMillis) deadline))
+        (Thread/sleep 10)))
+    (is (zero? (pending-count "STREAM-TEST" "STREAM-GROUP")))
+    (streams/stop! consumer)
+    (is (nil? (a/<!! (:ch consumer))))))
+
+(deftest backpressure-test
+  (let [consumer (streams/consume *redis-pool* ["STREAM-BP-TEST"] "STREAM-GROUP" "consumer"
+                                  {:block-ms 100 :count 2 :buffer-size 2})]
+    (doseq [n (range 10)]
+      (xadd "STREAM-BP-TEST" n))
+    (Thread/sleep 500)
+    ;; The buffer, plus the batch waiting to be delivered
+    (is (>= 4 (pending-count "STREAM-BP-TEST" "STREAM-GROUP")))
+    (streams/stop! consumer)))
+
+(deftest pending-entries-test
+  (client/wait!! (client/del *redis-pool* "STREAM-PENDING-TEST"))
+  (client/<!! (core/send-cmd *redis-pool* ["XGROUP"]
+                             ["CREATE" "STREAM-PENDING-TEST" "STREAM-GROUP" "$" "MKSTREAM"]))
+  (doseq [n (range 5)]
+    (xadd "STREAM-PENDING-TEST" n))
+  ;; Delivered, but never acknowledged, e.g. before a restart
+  (client/<!! (core/send-cmd *redis-pool* ["XREADGROUP"]
+                             ["GROUP" "STREAM-GROUP" "consumer" "COUNT" "5"
+                              "STREAMS" "STREAM-PENDING-TEST" ">"]))
+  (let [consumer (streams/consume *redis-pool* ["STREAM-PENDING-TEST"] "STREAM-GROUP" "consumer"
+                                  {:block-ms 100 :count 2})]
+    (doseq [n (range 5 7)]
+      (xadd "STREAM-PENDING-TEST" n))
+    (let [entries (vec (repeatedly 7 #(a/alt!! (:ch consumer) ([v] v)
+                                               (a/timeout 5000) ::timeout)))]
+      ;; Each exactly once, in order
+      (is (= (map str (range 7)) (map #(get-in % [:fields "n"]) entries)))
+      (is (= ::timeout (a/alt!! (:ch consumer) ([v] v)
+                                (a/timeout 500) ::timeout))))
+    (streams/stop! consumer)))